@@ -0,0 +1,287 @@
+package it.unitn.ds1;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.*;
+
+// System parameters, loaded at runtime. Every key has a default (the values the system was tuned with);
+// they can be overridden by a properties file and then by system properties with the same name,
+// e.g. -DN_CLIENTS=20. The configuration is immutable, with() returns a modified copy.
+public class Config implements Serializable {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        /*-- System parameters ---------------------------------------------------------*/
+        DEFAULTS.put("N_CLIENTS", "5");
+        DEFAULTS.put("N_COORDINATORS", "3");
+        DEFAULTS.put("N_SERVER", "5");
+        DEFAULTS.put("DB_SIZE", "10");                  // number of resources handled by each server
+
+        /*-- Crash parameters ---------------------------------------------------------*/
+        DEFAULTS.put("MIN_RECOVERY_TIME", "1");         // minimum recovery time for nodes, ms
+        DEFAULTS.put("MAX_RECOVERY_TIME", "5000");      // maximum recovery time for nodes, ms
+        DEFAULTS.put("COORD_TIMEOUT", "500");           // coordinator timeout, ms
+        DEFAULTS.put("SERVER_TIMEOUT", "1000");         // server timeout, ms
+        DEFAULTS.put("CLIENT_TIMEOUT", "1000");         // timeout for client, ms
+        DEFAULTS.put("MAX_TERMINATION_BACKOFF", "10000"); // termination protocol: queries are repeated after SERVER_TIMEOUT, doubling up to this, ms
+        DEFAULTS.put("TERMINATION_BATCHING", "true");   // termination protocol: one request per peer for all the transactions asked together; false: one per transaction
+        DEFAULTS.put("ADAPTIVE_TIMEOUTS", "false");      // derive the timeouts from the round-trip times observed for each peer
+        DEFAULTS.put("MIN_TIMEOUT", "50");              // adaptive timeouts: bounds, ms (the fixed ones above are used until
+        DEFAULTS.put("MAX_TIMEOUT", "5000");            // the first reply from the peer)
+        DEFAULTS.put("COORD_CRASH_PROBABILITY", "0.001");
+        DEFAULTS.put("SERVER_CRASH_PROBABILITY", "0.001");
+        DEFAULTS.put("MAX_NODE_DELAY", "5");            // network delay, ms
+        DEFAULTS.put("HEARTBEAT_INTERVAL", "0");        // heartbeats between coordinators and servers, ms; 0 to disable the failure detector
+        DEFAULTS.put("PHI_THRESHOLD", "8");             // a peer is suspected dead when phi goes above this
+        DEFAULTS.put("CORRECTNESS_DELAY", "10000");
+        DEFAULTS.put("METRICS_INTERVAL", "0");          // print the metrics every METRICS_INTERVAL ms, 0 to disable
+        DEFAULTS.put("DISPATCHERS", "default");         // dedicated: a thread pool per role (application.conf); default: all on the default one
+        DEFAULTS.put("MAX_PENDING_COORDINATOR", "0");  // undecided transactions a coordinator accepts, beyond them begins are rejected; 0 for no limit
+        DEFAULTS.put("MAX_PENDING_SERVER", "0");       // undecided transactions a server accepts, beyond them new ones are aborted; 0 for no limit
+        DEFAULTS.put("RETRY_AFTER", "50");              // ms a rejected client waits before trying again, grows with the coordinator backlog
+        DEFAULTS.put("SERVER_MAILBOX", "fifo");         // priority: servers handle decisions, then votes, then reads and writes; fifo: arrival order
+        DEFAULTS.put("CONCURRENCY_CONTROL", "occ");     // occ: backward validation, 2pl: strict two-phase locking, tictoc: TicToc timestamps
+        DEFAULTS.put("RETRY_ABORTED", "false");         // clients run an aborted transaction again after a random backoff, with the aborts as priority
+        DEFAULTS.put("ABORT_BACKOFF", "5");             // ms, range of the backoff after the first abort, doubling with each further one
+        DEFAULTS.put("STARVATION_ABORTS", "0");         // servers reserve the keys of a transaction aborted this many times; 0 to disable
+        DEFAULTS.put("DECLARED_READS", "false");        // clients declare all their keys at the begin, and coordinators prefetch them in parallel
+        DEFAULTS.put("DIRECT_READS", "false");          // servers send read values straight to the client instead of through the coordinator
+        DEFAULTS.put("READ_CACHE", "false");            // coordinators answer repeated reads of a transaction from the values it read or wrote
+        DEFAULTS.put("SPECULATIVE_READS", "false");     // occ: read what prepared transactions write, and vote after their decision instead of NO
+        DEFAULTS.put("VOTE_BATCH_WINDOW", "0");         // ms a server collects vote requests to validate first a non-conflicting set of them; 0 to vote at once
+        DEFAULTS.put("REPLICATION", "false");           // each server keeps a copy of the previous partition and serves it while its primary is down
+        DEFAULTS.put("REPLICATION_LEASE", "500");       // a primary votes YES on its partition only within this lease from its backup, ms
+        DEFAULTS.put("EXECUTION", "2pc");               // 2pc: coordinators and voting; calvin: a sequencer orders whole transactions, run deterministically
+        DEFAULTS.put("EPOCH_LENGTH", "10");             // calvin: ms of transactions the sequencer batches together
+        DEFAULTS.put("COMMIT_FANOUT", "0");             // 2PC goes down a tree where each node asks at most this many servers to vote; 0 for the flat one
+        DEFAULTS.put("NON_BLOCKING_COMMIT", "false");   // replicate the decisions on a majority of the initial coordinators, so that a backup can finish them
+
+        /*-- Client parameters ---------------------------------------------------------*/
+        DEFAULTS.put("COORDINATOR_SELECTION", "random"); // random, least-loaded or power-of-two
+        DEFAULTS.put("CLIENT_WINDOW", "1");             // transactions each client runs at the same time
+        DEFAULTS.put("THINK_TIME", "10");               // closed workload: pause before starting the next transaction, ms
+        DEFAULTS.put("COMMIT_PROBABILITY", "1");
+        DEFAULTS.put("WRITE_PROBABILITY", "0.5");
+        DEFAULTS.put("MIN_TXN_LENGTH", "20");
+        DEFAULTS.put("MAX_TXN_LENGTH", "40");
+        DEFAULTS.put("KEYS_PER_OP", "2");               // keys read by an operation; a write moves an amount from the first to the others
+        DEFAULTS.put("STORED_PROCEDURES", "false");     // each operation is a transfer(from, to, amount) call run by the servers
+        DEFAULTS.put("PROCEDURE_RETRIES", "3");         // times a coordinator runs the calls again after a NO vote
+        DEFAULTS.put("DELTA_WRITES", "false");          // writes add to the values instead of overwriting them, see cc.Escrow
+        DEFAULTS.put("KEY_DISTRIBUTION", "uniform");    // uniform, zipfian, hotspot or latest
+        DEFAULTS.put("ZIPF_THETA", "0.99");             // skew of zipfian and latest, in (0, 1)
+        DEFAULTS.put("HOTSPOT_FRACTION", "0.1");        // hotspot: fraction of the keys which are hot
+        DEFAULTS.put("HOTSPOT_PROBABILITY", "0.9");     // hotspot: fraction of the accesses to hot keys
+
+        /*-- Load generation ---------------------------------------------------------*/
+        DEFAULTS.put("WORKLOAD", "closed");             // closed: each client loops; open: transactions arrive at ARRIVAL_RATE
+        DEFAULTS.put("ARRIVAL_PROCESS", "poisson");     // open workload: poisson or constant
+        DEFAULTS.put("ARRIVAL_RATE", "100");            // open workload: transactions per second, over all clients
+        DEFAULTS.put("MAX_BACKLOG", "100000");          // open workload: arrivals waiting for a free client, the others are dropped
+    }
+
+    private final Map<String, String> values;
+
+    public final int nClients;
+    public final int nCoordinators;
+    public final int nServer;
+    public final int dbSize;
+    public final int maxKey;
+
+    public final int minRecoveryTime;
+    public final int maxRecoveryTime;
+    public final int coordTimeout;
+    public final int serverTimeout;
+    public final int clientTimeout;
+    public final int maxTerminationBackoff;
+    public final boolean terminationBatching;
+    public final boolean adaptiveTimeouts;
+    public final int minTimeout;
+    public final int maxTimeout;
+    public final double coordCrashProbability;
+    public final double serverCrashProbability;
+    public final int maxNodeDelay;
+    public final int heartbeatInterval;
+    public final double phiThreshold;
+    public final int correctnessDelay;
+    public final int metricsInterval;
+    public final String dispatchers;
+    public final String serverMailbox;
+    public final String concurrencyControl;
+    public final int voteBatchWindow;
+    public final boolean speculativeReads;
+    public final boolean readCache;
+    public final boolean directReads;
+    public final boolean declaredReads;
+    public final boolean retryAborted;
+    public final int abortBackoff;
+    public final int starvationAborts;
+    public final boolean replication;
+    public final int replicationLease;
+    public final int commitFanout;
+    public final boolean nonBlockingCommit;
+    public final String execution;
+    public final int epochLength;
+    public final int maxPendingCoordinator;
+    public final int maxPendingServer;
+    public final int retryAfter;
+
+    public final String coordinatorSelection;
+    public final int clientWindow;
+    public final int thinkTime;
+    public final double commitProbability;
+    public final double writeProbability;
+    public final int minTxnLength;
+    public final int maxTxnLength;
+    public final int keysPerOp;
+    public final boolean deltaWrites;
+    public final boolean storedProcedures;
+    public final int procedureRetries;
+    public final String keyDistribution;
+    public final double zipfTheta;
+    public final double hotspotFraction;
+    public final double hotspotProbability;
+
+    public final String workload;
+    public final String arrivalProcess;
+    public final double arrivalRate;
+    public final int maxBacklog;
+
+    private Config(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(values);
+        nClients = getInt("N_CLIENTS");
+        nCoordinators = getInt("N_COORDINATORS");
+        nServer = getInt("N_SERVER");
+        dbSize = getInt("DB_SIZE");
+        maxKey = nServer * dbSize - 1;
+
+        minRecoveryTime = getInt("MIN_RECOVERY_TIME");
+        maxRecoveryTime = getInt("MAX_RECOVERY_TIME");
+        coordTimeout = getInt("COORD_TIMEOUT");
+        serverTimeout = getInt("SERVER_TIMEOUT");
+        clientTimeout = getInt("CLIENT_TIMEOUT");
+        maxTerminationBackoff = getInt("MAX_TERMINATION_BACKOFF");
+        terminationBatching = Boolean.parseBoolean(values.get("TERMINATION_BATCHING"));
+        adaptiveTimeouts = Boolean.parseBoolean(values.get("ADAPTIVE_TIMEOUTS"));
+        minTimeout = getInt("MIN_TIMEOUT");
+        maxTimeout = getInt("MAX_TIMEOUT");
+        coordCrashProbability = getDouble("COORD_CRASH_PROBABILITY");
+        serverCrashProbability = getDouble("SERVER_CRASH_PROBABILITY");
+        maxNodeDelay = getInt("MAX_NODE_DELAY");
+        heartbeatInterval = getInt("HEARTBEAT_INTERVAL");
+        phiThreshold = getDouble("PHI_THRESHOLD");
+        correctnessDelay = getInt("CORRECTNESS_DELAY");
+        metricsInterval = getInt("METRICS_INTERVAL");
+        dispatchers = values.get("DISPATCHERS");
+        serverMailbox = values.get("SERVER_MAILBOX");
+        concurrencyControl = values.get("CONCURRENCY_CONTROL");
+        voteBatchWindow = getInt("VOTE_BATCH_WINDOW");
+        speculativeReads = Boolean.parseBoolean(values.get("SPECULATIVE_READS"));
+        readCache = Boolean.parseBoolean(values.get("READ_CACHE"));
+        directReads = Boolean.parseBoolean(values.get("DIRECT_READS"));
+        declaredReads = Boolean.parseBoolean(values.get("DECLARED_READS"));
+        retryAborted = Boolean.parseBoolean(values.get("RETRY_ABORTED"));
+        abortBackoff = getInt("ABORT_BACKOFF");
+        starvationAborts = getInt("STARVATION_ABORTS");
+        replication = Boolean.parseBoolean(values.get("REPLICATION"));
+        replicationLease = getInt("REPLICATION_LEASE");
+        commitFanout = getInt("COMMIT_FANOUT");
+        nonBlockingCommit = Boolean.parseBoolean(values.get("NON_BLOCKING_COMMIT"));
+        execution = values.get("EXECUTION");
+        epochLength = getInt("EPOCH_LENGTH");
+        maxPendingCoordinator = getInt("MAX_PENDING_COORDINATOR");
+        maxPendingServer = getInt("MAX_PENDING_SERVER");
+        retryAfter = getInt("RETRY_AFTER");
+
+        coordinatorSelection = values.get("COORDINATOR_SELECTION");
+        clientWindow = getInt("CLIENT_WINDOW");
+        thinkTime = getInt("THINK_TIME");
+        commitProbability = getDouble("COMMIT_PROBABILITY");
+        writeProbability = getDouble("WRITE_PROBABILITY");
+        minTxnLength = getInt("MIN_TXN_LENGTH");
+        maxTxnLength = getInt("MAX_TXN_LENGTH");
+        keysPerOp = getInt("KEYS_PER_OP");
+        deltaWrites = Boolean.parseBoolean(values.get("DELTA_WRITES"));
+        storedProcedures = Boolean.parseBoolean(values.get("STORED_PROCEDURES"));
+        procedureRetries = getInt("PROCEDURE_RETRIES");
+        keyDistribution = values.get("KEY_DISTRIBUTION");
+        zipfTheta = getDouble("ZIPF_THETA");
+        hotspotFraction = getDouble("HOTSPOT_FRACTION");
+        hotspotProbability = getDouble("HOTSPOT_PROBABILITY");
+
+        workload = values.get("WORKLOAD");
+        arrivalProcess = values.get("ARRIVAL_PROCESS");
+        arrivalRate = getDouble("ARRIVAL_RATE");
+        maxBacklog = getInt("MAX_BACKLOG");
+
+        if (maxTxnLength < minTxnLength || maxRecoveryTime < minRecoveryTime || maxTimeout < minTimeout)
+            throw new IllegalArgumentException("maximum lower than minimum in " + values);
+        if (keysPerOp < 1 || keysPerOp > maxKey + 1)
+            throw new IllegalArgumentException("KEYS_PER_OP must be between 1 and the number of keys");
+        if (clientWindow < 1)
+            throw new IllegalArgumentException("CLIENT_WINDOW must be at least 1");
+        if (!execution.equals("2pc") && !execution.equals("calvin"))
+            throw new IllegalArgumentException("EXECUTION must be 2pc or calvin");
+        if (execution.equals("calvin") && keysPerOp < 2)
+            throw new IllegalArgumentException("EXECUTION=calvin runs transfers, KEYS_PER_OP must be at least 2");
+    }
+
+    // the default configuration
+    public static Config defaults() {
+        return new Config(new LinkedHashMap<>(DEFAULTS));
+    }
+
+    // defaults, overridden by the given properties file (if not null) and then by the system properties
+    public static Config load(String path) throws IOException {
+        Map<String, String> values = new LinkedHashMap<>(DEFAULTS);
+        if (path != null) {
+            Properties p = new Properties();
+            try (Reader in = new FileReader(path)) {
+                p.load(in);
+            }
+            putAll(values, p);
+        }
+        putAll(values, System.getProperties());
+        return new Config(values);
+    }
+
+    private static void putAll(Map<String, String> values, Properties p) {
+        for (String key : p.stringPropertyNames()) {
+            if (DEFAULTS.containsKey(key))
+                values.put(key, p.getProperty(key).trim());
+        }
+    }
+
+    // copy of this configuration with a parameter changed
+    public Config with(String key, String value) {
+        if (!DEFAULTS.containsKey(key))
+            throw new IllegalArgumentException("unknown parameter " + key);
+        Map<String, String> v = new LinkedHashMap<>(values);
+        v.put(key, value);
+        return new Config(v);
+    }
+
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    public static Set<String> keys() {
+        return Collections.unmodifiableSet(DEFAULTS.keySet());
+    }
+
+    private int getInt(String key) {
+        return Integer.parseInt(values.get(key));
+    }
+
+    private double getDouble(String key) {
+        return Double.parseDouble(values.get(key));
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
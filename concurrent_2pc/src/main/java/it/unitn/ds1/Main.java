@@ -2,12 +2,16 @@ package it.unitn.ds1;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Props;
 import it.unitn.ds1.actors.*;
+import it.unitn.ds1.logging.Log;
 import it.unitn.ds1.messages.Message;
-import it.unitn.ds1.transactions.Transaction;
 import scala.concurrent.duration.Duration;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -16,73 +20,89 @@ import java.util.concurrent.TimeUnit;
 
 public class Main {
 
-    /*-- System parameters ---------------------------------------------------------*/
-    public final static int N_CLIENTS = 5;
-    public final static int N_COORDINATORS = 3;
-    public final static int N_SERVER = 5;
-    public final static int MAX_KEY = N_SERVER * Server.DB_SIZE - 1;
-
-    /*-- Crash parameters ---------------------------------------------------------*/
-    public final static int MIN_RECOVERY_TIME = 1; // minimum recovery time for nodes, ms
-    public final static int MAX_RECOVERY_TIME = 5000; // maximum recovery time for nodes, ms
-    public final static int COORD_TIMEOUT = 500;  // coordinator timeout, ms
-    public final static int SERVER_TIMEOUT = 1000;  // server timeout, ms
-    public final static int CLIENT_TIMEOUT = 1000;  // timeout for client, ms
-    public static final double COORD_CRASH_PROBABILITY = 0.001;
-    public static final double SERVER_CRASH_PROBABILITY = 0.001;
-    public static final int MAX_NODE_DELAY = 5; // network delay
-    public static final int CORRECTNESS_DELAY = 10000;
-
-    /*-- Node debug ---------------------------------------------------------*/
-    public final static Boolean NODE_DEBUG_STARTING_SIZE = false;
-    public final static Boolean NODE_DEBUG_CRASH = true;
-
-    /*-- Client debug ---------------------------------------------------------*/
-    public final static Boolean CLIENT_DEBUG_BEGIN_TXN = false;
-    public final static Boolean CLIENT_DEBUG_END_TXN = false;
-    public final static Boolean CLIENT_DEBUG_READ_TXN = false;
-    public final static Boolean CLIENT_DEBUG_WRITE_TXN = false;
-    public final static Boolean CLIENT_DEBUG_READ_RESULT = false;
-    public final static Boolean CLIENT_DEBUG_COMMIT_OK = true;
-    public final static Boolean CLIENT_DEBUG_COMMIT_KO = false;
-    public static final Boolean CLIENT_DEBUG_TIMEOUT_TXN_OPERATION = true;
-    public static final Boolean CLIENT_DEBUG_TIMEOUT_TXN_ACCEPT = true;
-
-    /*-- Server debug ---------------------------------------------------------*/
-    public final static Boolean SERVER_DEBUG_SEND_VOTE = false;
-    public final static Boolean SERVER_DEBUG_DECIDED = false;
-    public static final Boolean SERVER_DEBUG_SET_TIMEOUT = false;
-    public static final Boolean SERVER_DEBUG_UNSET_TIMEOUT = false;
-    public static final Boolean SERVER_DEBUG_RECOVERY = true;
-    public static final Boolean SERVER_DEBUG_READ = false;
-    public static final Boolean SERVER_DEBUG_TIMEOUT = true;
-
-    /*-- Coordinator debug ---------------------------------------------------------*/
-    public static final Boolean COORD_DEBUG_RECOVERY = true;
-    public static final Boolean COORD_DEBUG_UNSET_TIMEOUT = false;
-    public final static Boolean COORD_DEBUG_DECISION = false;
-    public static final Boolean COORD_DEBUG_BEGIN_VOTE = false;
-    public static final Boolean COORD_DEBUG_SET_TIMEOUT = false;
-    public static final Boolean COORD_DEBUG_BEGIN_TXN = false;
-    public static final Boolean COORD_DEBUG_TIMEOUT = false;
-    public static final Boolean COORD_DEBUG_RECEIVED_VOTE = false;
-    public static final Boolean COORD_DEBUG_ALL_VOTED_YES = false;
-    public static final Boolean COORD_DEBUG_READ = false;
-    public static final Boolean COORD_DEBUG_READ_RESPONSE = false;
+    // default location of the configuration file, see Config for the parameters and their defaults
+    public static final String CONFIG_FILE = "config.properties";
 
-    /*-- Main ------------------------------------------------------------------*/
-    public static void main(String[] args) {
+    /*-- Logging ---------------------------------------------------------*/
+    // Each category (NODE, CLIENT, COORDINATOR, SERVER) prints up to INFO by default: crashes, recoveries
+    // and timeouts. Use -Dlog.levels=CLIENT=DEBUG,SERVER=TRACE (or ALL=...) to see commits, votes,
+    // reads and writes; see it.unitn.ds1.logging.Log.
 
-        // Create the actor system
-        final ActorSystem system = ActorSystem.create("concurrent2pc");
+    // the actors of a running system
+    public static class Deployment {
+        public final List<ActorRef> clients = new ArrayList<>();
+        public final List<ActorRef> coordinators = new ArrayList<>(); // the pool new transactions go to
+        public final List<ActorRef> servers = new ArrayList<>();
+        public final List<ActorRef> acceptors = new ArrayList<>(); // the initial coordinators, with NON_BLOCKING_COMMIT
+        public ActorRef checker;
+        public ActorRef generator; // only with the open workload
+        public ActorRef sequencer; // only with EXECUTION=calvin
 
-        // Create the clients
-        List<ActorRef> clients = new ArrayList<>();
-        for (int i = 0; i < N_CLIENTS; i++)
-            clients.add(system.actorOf(Client.props(i), "client" + i));
-        System.out.println("Clients created");
+        private final ActorSystem system;
+        private final Config config;
+        private final Set<Node.CrashPhase> coordinatorCrashPhases;
+        private int nextCoordinatorId = 0;
+
+        Deployment(ActorSystem system, Config config, Set<Node.CrashPhase> coordinatorCrashPhases) {
+            this.system = system;
+            this.config = config;
+            this.coordinatorCrashPhases = coordinatorCrashPhases;
+        }
+
+        private ActorRef newCoordinator() {
+            int id = nextCoordinatorId++;
+            ActorRef coordinator = system.actorOf(on(COORDINATOR_DISPATCHER,
+                    Coordinator.props(id, coordinatorCrashPhases, config), config).withMailbox(COORDINATOR_MAILBOX),
+                    "coordinator" + id);
+            coordinators.add(coordinator);
+            return coordinator;
+        }
+
+        // grow the pool at runtime: start a coordinator and tell clients and checker about it
+        public ActorRef addCoordinator() {
+            ActorRef coordinator = newCoordinator();
+            coordinator.tell(new Message.WelcomeMsg(config.maxKey, servers), null);
+            coordinator.tell(new Message.AcceptorsMsg(acceptors), null);
+            announcePool();
+            return coordinator;
+        }
+
+        // shrink the pool at runtime: the last coordinator gets no new transactions,
+        // but it keeps running to finish (and answer about) the ones it has
+        public ActorRef removeCoordinator() {
+            if (coordinators.size() <= 1)
+                return null;
+            ActorRef coordinator = coordinators.remove(coordinators.size() - 1);
+            announcePool();
+            return coordinator;
+        }
+
+        private void announcePool() {
+            Message.CoordinatorPoolMsg pool = new Message.CoordinatorPoolMsg(coordinators);
+            for (ActorRef client : clients)
+                client.tell(pool, null);
+            checker.tell(pool, null);
+        }
+    }
+
+    // dispatchers of the roles, defined in application.conf
+    public static final String CLIENT_DISPATCHER = "client-dispatcher";
+    public static final String COORDINATOR_DISPATCHER = "coordinator-dispatcher";
+    public static final String SERVER_DISPATCHER = "server-dispatcher";
+    public static final String CHECKER_DISPATCHER = "checker-dispatcher";
+    public static final String GENERATOR_DISPATCHER = "generator-dispatcher";
+    // priority mailbox of the servers, defined in application.conf
+    public static final String SERVER_MAILBOX = "server-mailbox";
+    // mailbox of the coordinators, which counts the queued messages to report the load
+    public static final String COORDINATOR_MAILBOX = "coordinator-mailbox";
 
+    // run the actor on the dispatcher of its role, unless everything runs on the default one
+    private static Props on(String dispatcher, Props props, Config config) {
+        return config.dispatchers.equals("dedicated") ? props.withDispatcher(dispatcher) : props;
+    }
 
+    // create clients, coordinators, servers and checker in the given system and start them
+    public static Deployment deploy(ActorSystem system, Config config) {
         /*-- Coordinator crash phases ---------------------------------------------------------*/
         Set<Node.CrashPhase> coordinatorCrashPhases = new HashSet<>();
         coordinatorCrashPhases.add(Coordinator.CrashBefore2PC.BEFORE_TXN_ACCEPT_MSG);
@@ -95,10 +115,16 @@ public class Main {
 //        coordinatorCrashPhases.add(Coordinator.CrashDuring2PC.CrashDuringDecision.RND_MSG);
         coordinatorCrashPhases.add(Coordinator.CrashDuring2PC.CrashDuringDecision.ZERO_MSG);
 
+        Deployment d = new Deployment(system, config, coordinatorCrashPhases);
+
+        // Create the clients
+        for (int i = 0; i < config.nClients; i++)
+            d.clients.add(system.actorOf(on(CLIENT_DISPATCHER, Client.props(i, config), config), "client" + i));
+        System.out.println("Clients created");
+
         // Create the coordinators
-        List<ActorRef> coordinators = new ArrayList<>();
-        for (int i = 0; i < N_COORDINATORS; i++)
-            coordinators.add(system.actorOf(Coordinator.props(i, coordinatorCrashPhases), "coordinator" + i));
+        for (int i = 0; i < config.nCoordinators; i++)
+            d.newCoordinator();
         System.out.println("Coordinators created");
 
         /*-- Server crash phases ---------------------------------------------------------*/
@@ -111,45 +137,126 @@ public class Main {
         serverCrashPhases.add(Server.CrashDuring2PC.CrashDuringTermination.NO_REPLY);
 
         // Create the servers
-        List<ActorRef> servers = new ArrayList<>();
-        for (int i = 0; i < N_SERVER; i++)
-            servers.add(system.actorOf(Server.props(i, serverCrashPhases), "server" + i));
+        for (int i = 0; i < config.nServer; i++) {
+            Props props = on(SERVER_DISPATCHER, Server.props(i, serverCrashPhases, config), config);
+            if (config.serverMailbox.equals("priority"))
+                props = props.withMailbox(SERVER_MAILBOX);
+            d.servers.add(system.actorOf(props, "server" + i));
+        }
         System.out.println("Servers created");
 
         // Create the checker
-        ActorRef checker = system.actorOf(Checker.props(), "checker");
+        d.checker = system.actorOf(on(CHECKER_DISPATCHER, Checker.props(config), config), "checker");
+
+        // deterministic execution: clients send their transactions to the sequencer, which sends them to the
+        // servers, which share the values they read with each other
+        if (config.execution.equals("calvin")) {
+            d.sequencer = system.actorOf(Sequencer.props(config), "sequencer");
+            d.sequencer.tell(new Message.WelcomeMsg(config.maxKey, d.servers), null);
+            Message.SequencerMsg sequencer = new Message.SequencerMsg(d.sequencer);
+            for (ActorRef client : d.clients)
+                client.tell(sequencer, null);
+        }
 
         // Send start messages to the clients
-        Message.WelcomeMsg startClients = new Message.WelcomeMsg(MAX_KEY, coordinators);
-        for (ActorRef client : clients) {
+        Message.WelcomeMsg startClients = new Message.WelcomeMsg(config.maxKey, d.coordinators);
+        for (ActorRef client : d.clients) {
             client.tell(startClients, null);
         }
 
         // Send start messages to the coordinators
-        Message.WelcomeMsg startCoordinators = new Message.WelcomeMsg(MAX_KEY, servers);
-        for (ActorRef coord : coordinators) {
+        Message.WelcomeMsg startCoordinators = new Message.WelcomeMsg(config.maxKey, d.servers);
+        for (ActorRef coord : d.coordinators) {
             coord.tell(startCoordinators, null);
         }
 
+        // the servers need to know each other: with replication each one keeps a copy of the previous partition,
+        // with deterministic execution they share the values the transactions read
+        if (config.replication || config.execution.equals("calvin")) {
+            Message.WelcomeMsg startServers = new Message.WelcomeMsg(config.maxKey, d.servers);
+            for (ActorRef server : d.servers)
+                server.tell(startServers, null);
+        }
+
+        // non-blocking commit: the initial coordinators replicate the decisions, the set does not change
+        // with the pool (the majorities of different sets would not intersect)
+        if (config.nonBlockingCommit) {
+            d.acceptors.addAll(d.coordinators);
+            Message.AcceptorsMsg acceptors = new Message.AcceptorsMsg(d.acceptors);
+            for (ActorRef coord : d.coordinators)
+                coord.tell(acceptors, null);
+            for (ActorRef server : d.servers)
+                server.tell(acceptors, null);
+        }
+
         // send start message to the checker
-        checker.tell(new Message.CheckerWelcomeMsg(MAX_KEY, servers, coordinators), null);
+        d.checker.tell(new Message.CheckerWelcomeMsg(config.maxKey, d.servers, d.coordinators), null);
+
+        // with the open workload the clients wait for the generator to give them transactions
+        if (config.workload.equals("open")) {
+            d.generator = system.actorOf(on(GENERATOR_DISPATCHER, LoadGenerator.props(config), config), "generator");
+            d.generator.tell(new Message.WelcomeMsg(config.maxKey, d.clients), null);
+        }
+        return d;
+    }
+
+    /*-- Main ------------------------------------------------------------------*/
+    public static void main(String[] args) throws IOException {
+
+        // load the parameters from the file given as argument, or config.properties if it exists
+        String configFile = args.length > 0 ? args[0] : (new File(CONFIG_FILE).exists() ? CONFIG_FILE : null);
+        Config config = Config.load(configFile);
+        System.out.println("Configuration: " + config);
+
+        // Create the actor system
+        final ActorSystem system = ActorSystem.create("concurrent2pc");
+        Deployment d = deploy(system, config);
+        ActorRef checker = d.checker;
+
+        // periodically collect the metrics of the nodes
+        if (config.metricsInterval > 0) {
+            system.scheduler().scheduleWithFixedDelay(
+                    Duration.create(config.metricsInterval, TimeUnit.MILLISECONDS),
+                    Duration.create(config.metricsInterval, TimeUnit.MILLISECONDS),
+                    checker,
+                    new Message.MetricsRequest(0),
+                    system.dispatcher(), ActorRef.noSender()
+            );
+        }
 
-        // wait for the user to terminate
+        // wait for the user to terminate, printing the metrics on demand
         try {
-            System.out.println(">>> Press ENTER to exit <<<");
-            System.in.read();
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            System.out.println(">>> Press ENTER to exit, type m and ENTER to print the metrics, + or - to add or remove a coordinator <<<");
+            String line;
+            while ((line = in.readLine()) != null && !line.trim().isEmpty()) {
+                switch (line.trim()) {
+                    case "m":
+                        checker.tell(new Message.MetricsRequest(0), ActorRef.noSender());
+                        break;
+                    case "+":
+                        System.out.println("Coordinator added: " + d.addCoordinator());
+                        break;
+                    case "-":
+                        ActorRef removed = d.removeCoordinator();
+                        System.out.println(removed != null ? "Coordinator removed: " + removed : "The last coordinator cannot be removed");
+                        break;
+                }
+            }
         } catch (IOException ignored) {
         }
 
         // stop all the clients from starting new transactions
         Message.StopMsg stopMsg = new Message.StopMsg();
-        for (ActorRef client : clients) {
+        for (ActorRef client : d.clients) {
             client.tell(stopMsg, null);
         }
+        if (d.generator != null)
+            d.generator.tell(stopMsg, null);
 
         // let the checker collect the information after some time
         system.scheduler().scheduleOnce(
-                Duration.create(Main.CORRECTNESS_DELAY, TimeUnit.MILLISECONDS),
+                Duration.create(config.correctnessDelay, TimeUnit.MILLISECONDS),
                 checker,
                 new Message.CheckCorrectness(),
                 system.dispatcher(), ActorRef.noSender()
@@ -157,10 +264,11 @@ public class Main {
 
         // wait some time to be sure the checker has finished
         try {
-            Thread.sleep(Main.CORRECTNESS_DELAY + (10 * Main.MAX_NODE_DELAY) + 1000);
+            Thread.sleep(config.correctnessDelay + (10 * config.maxNodeDelay) + 1000);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        Log.flush();
         system.terminate();
     }
 }
@@ -3,7 +3,9 @@ package it.unitn.ds1.actors;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import it.unitn.ds1.Config;
 import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.metrics.Metrics;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -21,25 +23,40 @@ public class Checker extends AbstractActor {
     private Integer partialSum;
     private final Map<ActorRef, Node.CrashPhaseMap> numServerCrashes;
     private final Map<ActorRef, Node.CrashPhaseMap> numCoordinatorCrashes;
+    private final Map<ActorRef, Metrics.Snapshot> serverMetrics;
+    private final Map<ActorRef, Metrics.Snapshot> coordinatorMetrics;
+    // current round of metrics collection, responses to older rounds are ignored
+    private Integer metricsRound;
+    // who asked for the current round, if not the system itself
+    private ActorRef metricsRequester;
 
-    public Checker() {
+    private final Config config;
+
+    public Checker(Config config) {
+        this.config = config;
         this.counterCoordinators = 0;
         this.counterServers = 0;
         this.partialSum = 0;
         this.numServerCrashes = new HashMap<>();
         this.numCoordinatorCrashes = new HashMap<>();
+        this.serverMetrics = new HashMap<>();
+        this.coordinatorMetrics = new HashMap<>();
+        this.metricsRound = 0;
     }
 
-    static public Props props() {
-        return Props.create(Checker.class, () -> new Checker());
+    static public Props props(Config config) {
+        return Props.create(Checker.class, () -> new Checker(config));
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(Message.CheckerWelcomeMsg.class, this::onCheckerWelcomeMsg)
+                .match(Message.CoordinatorPoolMsg.class, this::onCoordinatorPoolMsg)
                 .match(Message.CheckCorrectness.class, this::onCheckCorrectness)
                 .match(Message.CheckCorrectnessResponse.class, this::onCheckCorrectnessResponse)
+                .match(Message.MetricsRequest.class, this::onMetricsRequest)
+                .match(Message.MetricsResponse.class, this::onMetricsResponse)
                 .build();
     }
 
@@ -49,9 +66,17 @@ public class Checker extends AbstractActor {
         coordinators = new HashSet<>(msg.coordinators);
     }
 
+    // coordinators removed from the pool keep running, so we only add the new ones
+    public void onCoordinatorPoolMsg(Message.CoordinatorPoolMsg msg) {
+        coordinators.addAll(msg.coordinators);
+    }
+
     public void onCheckCorrectness(Message.CheckCorrectness msg) {
 
         System.out.println("CHECKING CORRECTNESS");
+        metricsRound++; // late metrics responses must not mix with the final ones
+        serverMetrics.clear();
+        coordinatorMetrics.clear();
         for (ActorRef coordinator : coordinators) {
             coordinator.tell(new Message.CheckCorrectness(), getSelf());
         }
@@ -66,17 +91,61 @@ public class Checker extends AbstractActor {
         System.out.println(Node.CrashPhaseMap.sumMaps(numCoordinatorCrashes.values()));
     }
 
+    private void printMetrics(Map<ActorRef, Metrics.Snapshot> metrics) {
+        System.out.println(Metrics.Snapshot.merge(metrics.values()));
+    }
+
+    // ask every node for its metrics, the run goes on
+    public void onMetricsRequest(Message.MetricsRequest msg) {
+        metricsRound++;
+        serverMetrics.clear();
+        coordinatorMetrics.clear();
+        metricsRequester = getSender().equals(getContext().getSystem().deadLetters()) ? null : getSender();
+        for (ActorRef coordinator : coordinators) {
+            coordinator.tell(new Message.MetricsRequest(metricsRound), getSelf());
+        }
+        for (ActorRef server : servers) {
+            server.tell(new Message.MetricsRequest(metricsRound), getSelf());
+        }
+    }
+
+    public void onMetricsResponse(Message.MetricsResponse msg) {
+        if (!msg.round.equals(metricsRound))
+            return;
+        if (coordinators.contains(getSender())) {
+            coordinatorMetrics.put(getSender(), msg.metrics);
+        } else if (servers.contains(getSender())) {
+            serverMetrics.put(getSender(), msg.metrics);
+        }
+        // when every node answered, send the summary to the requester or print it
+        if (coordinatorMetrics.size() == coordinators.size() && serverMetrics.size() == servers.size()) {
+            if (metricsRequester != null) {
+                metricsRequester.tell(new Message.MetricsReport(
+                        Metrics.Snapshot.merge(coordinatorMetrics.values()),
+                        Metrics.Snapshot.merge(serverMetrics.values())), getSelf());
+                return;
+            }
+            System.out.println("/---- COORDINATOR METRICS (ROUND " + metricsRound + ") ----/");
+            printMetrics(coordinatorMetrics);
+            System.out.println("/---- SERVER METRICS (ROUND " + metricsRound + ") ----/");
+            printMetrics(serverMetrics);
+        }
+    }
+
     private void manageServer(Message.CheckCorrectnessResponse msg) throws InterruptedException {
         // manage info message from the server
         partialSum += msg.sumOfKeys;
         counterServers++;
         numServerCrashes.put(getSender(), msg.numCrashes);
+        serverMetrics.put(getSender(), msg.metrics);
         // when every server answered, print a summary of the information
         if (counterServers == servers.size()) {
             System.out.println("/---- SERVER CRASHES ----/");
             printCrashes(numServerCrashes);
+            System.out.println("/---- SERVER METRICS ----/");
+            printMetrics(serverMetrics);
             System.out.println("##### CORRECTNESS CHECK #####");
-            Integer correctSum = servers.size() * (Server.DB_SIZE * Server.DEFAULT_VALUE);
+            Integer correctSum = servers.size() * (config.dbSize * Server.DEFAULT_VALUE);
             System.out.println("CORRECT SUM: " + correctSum);
             System.out.println("ACTUAL SUM: " + partialSum);
             assert (partialSum == correctSum);
@@ -88,10 +157,13 @@ public class Checker extends AbstractActor {
         // manage info message from the coordinator
         counterCoordinators++;
         numCoordinatorCrashes.put(getSender(), msg.numCrashes);
+        coordinatorMetrics.put(getSender(), msg.metrics);
         // when every coordinator answered, print a summary of the information
         if (counterCoordinators == coordinators.size()) {
             System.out.println("/---- COORDINATOR CRASHES ----/");
             printCrashes(numCoordinatorCrashes);
+            System.out.println("/---- COORDINATOR METRICS ----/");
+            printMetrics(coordinatorMetrics);
         }
     }
 
@@ -4,27 +4,38 @@ import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
-import it.unitn.ds1.Main;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.balancing.CoordinatorSelector;
+import it.unitn.ds1.logging.Category;
+import it.unitn.ds1.logging.Level;
+import it.unitn.ds1.logging.Log;
 import it.unitn.ds1.messages.ClientCoordinatorMessage;
 import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.messages.SequencerMessage;
 import it.unitn.ds1.messages.TimeoutMessages;
+import it.unitn.ds1.messages.WorkloadMessage;
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.metrics.RttEstimator;
+import it.unitn.ds1.transactions.ClientTransaction;
+import it.unitn.ds1.workload.KeyChooser;
 import scala.concurrent.duration.Duration;
 
 import java.io.Serializable;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 public class Client extends AbstractActor {
-    // transactions parameters
-    private static final double COMMIT_PROBABILITY = 1;
-    private static final double WRITE_PROBABILITY = 0.5;
-    private static final int MIN_TXN_LENGTH = 20;
-    private static final int MAX_TXN_LENGTH = 40;
-    private static final int RAND_LENGTH_RANGE = MAX_TXN_LENGTH - MIN_TXN_LENGTH + 1;
+    // transactions parameters (COMMIT_PROBABILITY, WRITE_PROBABILITY, MIN/MAX_TXN_LENGTH, CLIENT_WINDOW)
+    private final Config config;
+    // STORED_PROCEDURES: largest amount a transfer moves
+    private static final int MAX_TRANSFER = Server.DEFAULT_VALUE / 10;
+    // RETRY_ABORTED: aborts after which we give up on a transaction, and cap of the backoff exponent
+    private static final int MAX_RETRIES = 10;
+    private static final int MAX_BACKOFF_SHIFT = 6;
 
     private final Integer clientId;
-    private List<ActorRef> coordinators;
+    // chooses among the coordinators of the pool (COORDINATOR_SELECTION)
+    private final CoordinatorSelector coordinators;
 
     // the maximum key associated to items of the store
     private Integer maxKey;
@@ -33,147 +44,317 @@ public class Client extends AbstractActor {
     private Integer numAttemptedTxn;
     private Integer numCommittedTxn;
 
-    // TXN operation (move some amount from a value to another)
-    private Boolean acceptedTxn;
-    private ActorRef currentCoordinator;
-    private Integer firstKey, secondKey;
-    private Integer firstValue, secondValue;
-    private Integer numOpTotal;
-    private Integer numOpDone;
-    private Cancellable acceptTimeout, operationTimeout;
+    // TXNs in flight, by attempt id (each operation moves some amount from the first value to the others)
+    private final Map<Integer, ClientTransaction> transactions;
+    private final KeyChooser keyChooser;
     private final Random r;
 
+    // round-trip estimates of the coordinators for begin and reads, and for the outcome of a commit
+    private final Map<ActorRef, RttEstimator> rtt;
+    private final Map<ActorRef, RttEstimator> commitRtt;
+    private final Metrics metrics;
+
+    // open workload: the generator driving this client
+    private ActorRef generator;
+    // EXECUTION=calvin: where the transactions go instead of the coordinators
+    private ActorRef sequencer;
+
     /*-- Actor constructor ---------------------------------------------------- */
 
-    public Client(int clientId) {
+    public Client(int clientId, Config config) {
         this.clientId = clientId;
+        this.config = config;
         this.numAttemptedTxn = 0;
         this.numCommittedTxn = 0;
         this.r = new Random();
+        this.transactions = new HashMap<>();
+        this.keyChooser = KeyChooser.create(config);
+        this.coordinators = CoordinatorSelector.create(config);
+        this.rtt = new HashMap<>();
+        this.commitRtt = new HashMap<>();
+        this.metrics = new Metrics();
     }
 
-    static public Props props(int clientId) {
-        return Props.create(Client.class, () -> new Client(clientId));
+    static public Props props(int clientId, Config config) {
+        return Props.create(Client.class, () -> new Client(clientId, config));
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(Message.WelcomeMsg.class, this::onWelcomeMsg)
+                .match(Message.SequencerMsg.class, msg -> sequencer = msg.sequencer)
+                .match(Message.CoordinatorPoolMsg.class, this::onCoordinatorPoolMsg)
                 .match(ClientCoordinatorMessage.TxnAcceptMsg.class, this::onTxnAcceptMsg)
+                .match(ClientCoordinatorMessage.TxnRejectMsg.class, this::onTxnRejectMsg)
                 .match(ClientCoordinatorMessage.ReadResultMsg.class, this::onReadResultMsg)
                 .match(ClientCoordinatorMessage.TxnResultMsg.class, this::onTxnResultMsg)
                 .match(ClientCoordinatorMessage.StopMsg.class, this::onStopMsg)
                 .match(TimeoutMessages.Client.TxnAcceptMsg.class, this::onTxnAcceptTimeoutMsg)
                 .match(TimeoutMessages.Client.TxnOperationMsg.class, this::onTxnOperationTimeoutMsg)
+                .match(TimeoutMessages.Client.ThinkTimeMsg.class, this::onThinkTimeMsg)
+                .match(TimeoutMessages.Client.RetryTxnMsg.class, this::onRetryTxnMsg)
+                .match(TimeoutMessages.Client.RestartTxnMsg.class, this::onRestartTxnMsg)
+                .match(WorkloadMessage.StartTxnMsg.class, this::onStartTxnMsg)
+                .match(Message.MetricsRequest.class, this::onMetricsRequest)
                 .build();
     }
 
-    private Cancellable setTimeout(Serializable msg) {
-        // set a timeout after some time
+    private Cancellable schedule(int delay, Serializable msg) {
+        // send a message to myself after some time
         return getContext().system().scheduler().scheduleOnce(
-                Duration.create(Main.CLIENT_TIMEOUT, TimeUnit.MILLISECONDS),
+                Duration.create(delay, TimeUnit.MILLISECONDS),
                 getSelf(),
                 msg, // message sent to myself
-                getContext().system().dispatcher(), getSelf()
+                getContext().dispatcher(), getSelf()
         );
     }
 
-    private void unsetTimeouts() {
-        if (operationTimeout != null)
-            operationTimeout.cancel();
-        if (acceptTimeout != null)
-            acceptTimeout.cancel();
-        acceptTimeout = null;
-        operationTimeout = null;
+    private RttEstimator estimator(Map<ActorRef, RttEstimator> estimators, ActorRef coordinator) {
+        return estimators.computeIfAbsent(coordinator,
+                c -> new RttEstimator(config.clientTimeout, config.minTimeout, config.maxTimeout));
+    }
+
+    // wait for a reply of the coordinator, for CLIENT_TIMEOUT or the time estimated from its round trips
+    private void setTimeout(ClientTransaction t, Serializable msg, Map<ActorRef, RttEstimator> estimators) {
+        int timeout = config.adaptiveTimeouts ? estimator(estimators, t.getCoordinator()).timeout() : config.clientTimeout;
+        t.setSentAt(System.nanoTime());
+        t.setTimeout(schedule(timeout, msg));
+    }
+
+    // the reply we were waiting for arrived
+    private void sampleRtt(ClientTransaction t, Map<ActorRef, RttEstimator> estimators) {
+        if (config.adaptiveTimeouts)
+            estimator(estimators, t.getCoordinator()).sample(System.nanoTime() - t.getSentAt());
+    }
+
+    // the reply did not arrive in time: wait longer next time
+    private void backOff(ClientTransaction t, Map<ActorRef, RttEstimator> estimators) {
+        if (config.adaptiveTimeouts)
+            estimator(estimators, t.getCoordinator()).backOff();
     }
 
     /*-- Actor methods -------------------------------------------------------- */
 
-    // start a new TXN: choose a random coordinator, send TxnBeginMsg and set timeout
-    void beginTxn() {
+    private boolean isOpenWorkload() {
+        return config.workload.equals("open");
+    }
 
-        // some delay between transactions from the same client
-        try {
-            Thread.sleep(10);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    // the transaction is over: in the closed workload start another one after the think time,
+    // in the open one tell the generator and wait for the next arrival
+    void nextTxn(ClientTransaction t, boolean committed) {
+        t.unsetTimeout();
+        transactions.remove(t.getNumAttemptedTxn());
+        // RETRY_ABORTED: run the same transaction again after a random backoff, whose range doubles
+        // with each abort, since they tell how contended its keys are
+        if (!committed && config.retryAborted && sequencer == null && !t.isAbortRequested()
+                && t.getPriority() < MAX_RETRIES) {
+            int priority = t.getPriority() + 1;
+            int backoff = r.nextInt((config.abortBackoff << Math.min(priority - 1, MAX_BACKOFF_SHIFT)) + 1);
+            if (Category.CLIENT.on(Level.DEBUG))
+                print("RETRYING TXN " + t.getNumAttemptedTxn() + " IN " + backoff + " MS, ABORTED " + priority + " TIMES");
+            schedule(backoff, new TimeoutMessages.Client.RestartTxnMsg(t.getIntendedStart(), t.getNumOpTotal(), priority));
+            return;
+        }
+        if (!isOpenWorkload()) {
+            schedule(config.thinkTime, new TimeoutMessages.Client.ThinkTimeMsg());
+        } else if (t.getIntendedStart() != null) {
+            generator.tell(new WorkloadMessage.TxnDoneMsg(t.getIntendedStart(), committed), getSelf());
         }
+    }
 
-        unsetTimeouts();
+    // start a new TXN: choose a random coordinator, send TxnBeginMsg and set timeout
+    void beginTxn(Long intendedStart) {
+        // how many operations (taking some amount and adding it somewhere else)?
+        int numExtraOp = r.nextInt(config.maxTxnLength - config.minTxnLength + 1);
+        beginTxn(intendedStart, config.minTxnLength + numExtraOp, 0);
+    }
 
-        acceptedTxn = false;
+    // start a TXN of numOpTotal operations, which aborted priority times before
+    void beginTxn(Long intendedStart, int numOpTotal, int priority) {
         numAttemptedTxn++;
+        if (sequencer != null) {
+            submitTxn(intendedStart);
+            return;
+        }
 
-        // contact a random coordinator and begin TXN
-        currentCoordinator = coordinators.get(r.nextInt(coordinators.size()));
-        currentCoordinator.tell(new ClientCoordinatorMessage.TxnBeginMsg(clientId, numAttemptedTxn), getSelf());
+        // DECLARED_READS: choose the keys of all the operations now, so that the coordinator can prefetch them
+        List<List<Integer>> plan = new ArrayList<>();
+        Set<Integer> readSet = new LinkedHashSet<>();
+        if (config.declaredReads && !config.storedProcedures) {
+            for (int i = 0; i < numOpTotal; i++) {
+                plan.add(chooseOpKeys());
+                readSet.addAll(plan.get(i));
+            }
+        }
 
-        // how many operations (taking some amount and adding it somewhere else)?
-        int numExtraOp = RAND_LENGTH_RANGE > 0 ? r.nextInt(RAND_LENGTH_RANGE) : 0;
-        numOpTotal = MIN_TXN_LENGTH + numExtraOp;
-        numOpDone = 0;
+        // contact a coordinator and begin TXN
+        ActorRef coordinator = coordinators.next(r);
+        coordinator.tell(new ClientCoordinatorMessage.TxnBeginMsg(clientId, numAttemptedTxn, priority,
+                new ArrayList<>(readSet)), getSelf());
+
+        ClientTransaction t = new ClientTransaction(clientId, numAttemptedTxn, coordinator, numOpTotal, intendedStart);
+        t.setPriority(priority);
+        t.getPlannedKeys().addAll(plan);
+        transactions.put(numAttemptedTxn, t);
 
         // timeout for confirmation of TXN by the coordinator (sent to self)
-        acceptTimeout = setTimeout(new TimeoutMessages.Client.TxnAcceptMsg());
-        if (Main.CLIENT_DEBUG_BEGIN_TXN)
-            print("BEGIN");
+        setTimeout(t, new TimeoutMessages.Client.TxnAcceptMsg(numAttemptedTxn), rtt);
+        if (Category.CLIENT.on(Level.TRACE))
+            print("BEGIN " + numAttemptedTxn);
     }
 
-    // end the current TXN sending TxnEndMsg to the coordinator
-    void endTxn() {
-        boolean doCommit = r.nextDouble() < COMMIT_PROBABILITY;
-        currentCoordinator.tell(new ClientCoordinatorMessage.TxnEndMsg(clientId, numAttemptedTxn, doCommit), getSelf());
-        operationTimeout = setTimeout(new TimeoutMessages.Client.TxnOperationMsg());
-
-        firstValue = null;
-        secondValue = null;
-        if (Main.CLIENT_DEBUG_END_TXN)
-            print("END");
+    // end the TXN sending TxnEndMsg to the coordinator
+    void endTxn(ClientTransaction t) {
+        boolean doCommit = r.nextDouble() < config.commitProbability;
+        if (!doCommit)
+            t.setAbortRequested();
+        t.getCoordinator().tell(new ClientCoordinatorMessage.TxnEndMsg(clientId, t.getNumAttemptedTxn(), doCommit), getSelf());
+        setTimeout(t, new TimeoutMessages.Client.TxnOperationMsg(t.getNumAttemptedTxn()), commitRtt);
+
+        t.setOpKeys(new ArrayList<>());
+        if (Category.CLIENT.on(Level.TRACE))
+            print("END " + t.getNumAttemptedTxn());
     }
 
-    // READ two items (will move some amount from the value of the first to the second)
-    void readTwo() {
-        // read two different keys
-        firstKey = r.nextInt(maxKey + 1);
-        int randKeyOffset = 1 + r.nextInt(maxKey - 1);
-        secondKey = (firstKey + randKeyOffset) % (maxKey + 1);
+    // READ KEYS_PER_OP different items (will move some amount from the value of the first to the others)
+    void readKeys(ClientTransaction t) {
+        List<Integer> opKeys = t.getPlannedKeys().isEmpty() ? chooseOpKeys() : t.getPlannedKeys().poll();
+        // this also deletes the previous read values
+        t.setOpKeys(opKeys);
 
         // READ requests
-        currentCoordinator.tell(new ClientCoordinatorMessage.ReadMsg(clientId, numAttemptedTxn, firstKey), getSelf());
-        currentCoordinator.tell(new ClientCoordinatorMessage.ReadMsg(clientId, numAttemptedTxn, secondKey), getSelf());
+        for (Integer key : opKeys)
+            t.getCoordinator().tell(new ClientCoordinatorMessage.ReadMsg(clientId, t.getNumAttemptedTxn(), key), getSelf());
 
-        operationTimeout = setTimeout(new TimeoutMessages.Client.TxnOperationMsg());
-        // delete the current read values
-        firstValue = null;
-        secondValue = null;
-        if (Main.CLIENT_DEBUG_READ_TXN)
-            print("READ #" + numOpDone + " (" + firstKey + "), (" + secondKey + ")");
+        setTimeout(t, new TimeoutMessages.Client.TxnOperationMsg(t.getNumAttemptedTxn()), rtt);
+        if (Category.CLIENT.on(Level.TRACE))
+            print("READ " + t.getNumAttemptedTxn() + " #" + t.getNumOpDone() + " " + opKeys);
+    }
+
+    // choose the keys of an operation according to KEY_DISTRIBUTION
+    private List<Integer> chooseOpKeys() {
+        List<Integer> opKeys = new ArrayList<>();
+        while (opKeys.size() < config.keysPerOp) {
+            int key = keyChooser.next(r);
+            if (!opKeys.contains(key))
+                opKeys.add(key);
+        }
+        return opKeys;
     }
 
-    // WRITE two items (called with probability WRITE_PROBABILITY after readTwo() values are returned)
-    void writeTwo() {
+    // WRITE the items (called with probability WRITE_PROBABILITY after readKeys() values are returned)
+    void writeKeys(ClientTransaction t) {
+        List<Integer> opKeys = t.getOpKeys();
+        Map<Integer, Integer> opValues = t.getOpValues();
+        ActorRef coordinator = t.getCoordinator();
 
-        // take some amount from one value and pass it to the other, then request writes
+        // take some amount from the first value and spread it over the others, then request writes
+        Integer firstKey = opKeys.get(0);
+        Integer firstValue = opValues.get(firstKey);
+        int others = opKeys.size() - 1;
         Integer amountTaken = 0;
-        if (firstValue >= 1) amountTaken = 1 + r.nextInt(firstValue);
-        currentCoordinator.tell(new ClientCoordinatorMessage.WriteMsg(clientId, numAttemptedTxn, firstKey, firstValue - amountTaken), getSelf());
-        currentCoordinator.tell(new ClientCoordinatorMessage.WriteMsg(clientId, numAttemptedTxn, secondKey, secondValue + amountTaken), getSelf());
+        if (firstValue >= 1 && others > 0) amountTaken = 1 + r.nextInt(firstValue);
+        // (with DELTA_WRITES as deltas, so that transfers on the same keys do not conflict)
+        if (config.deltaWrites)
+            coordinator.tell(new ClientCoordinatorMessage.DeltaMsg(clientId, t.getNumAttemptedTxn(), firstKey, -amountTaken), getSelf());
+        else
+            coordinator.tell(new ClientCoordinatorMessage.WriteMsg(clientId, t.getNumAttemptedTxn(), firstKey, firstValue - amountTaken), getSelf());
+        keyChooser.onWrite(firstKey);
+        for (int i = 1; i <= others; i++) {
+            Integer key = opKeys.get(i);
+            int share = amountTaken / others + (i <= amountTaken % others ? 1 : 0);
+            if (config.deltaWrites)
+                coordinator.tell(new ClientCoordinatorMessage.DeltaMsg(clientId, t.getNumAttemptedTxn(), key, share), getSelf());
+            else
+                coordinator.tell(new ClientCoordinatorMessage.WriteMsg(clientId, t.getNumAttemptedTxn(), key, opValues.get(key) + share), getSelf());
+            keyChooser.onWrite(key);
+        }
+
+        if (Category.CLIENT.on(Level.TRACE))
+            print("WRITE " + t.getNumAttemptedTxn() + " #" + t.getNumOpDone() + " taken " + amountTaken + " from " + firstKey + " to " + opKeys.subList(1, opKeys.size()));
+    }
+
+    // STORED_PROCEDURES: call transfer(from, to, amount) for each operation, without waiting for anything
+    // (the servers run it on their keys), then end the transaction
+    void callProcedures(ClientTransaction t) {
+        for (int i = 0; i < t.getNumOpTotal(); i++)
+            t.getCoordinator().tell(transferCall(t), getSelf());
+        if (Category.CLIENT.on(Level.TRACE))
+            print("CALLED " + t.getNumOpTotal() + " TRANSFERS IN " + t.getNumAttemptedTxn());
+        endTxn(t);
+    }
+
+    // the next operation of the transaction, as a call of transfer(from, to, amount)
+    private ClientCoordinatorMessage.CallMsg transferCall(ClientTransaction t) {
+        int from = keyChooser.next(r);
+        int to = keyChooser.next(r);
+        while (to == from && maxKey > 0)
+            to = keyChooser.next(r);
+        int amount = 1 + r.nextInt(MAX_TRANSFER);
+        keyChooser.onWrite(from);
+        keyChooser.onWrite(to);
+        t.incrementNumOpDone();
+        return new ClientCoordinatorMessage.CallMsg(clientId, t.getNumAttemptedTxn(), "transfer", Arrays.asList(from, to, amount));
+    }
 
-        if (Main.CLIENT_DEBUG_WRITE_TXN)
-            print("WRITE #" + numOpDone
-                    + " taken " + amountTaken
-                    + " (" + firstKey + ", " + (firstValue - amountTaken) + "), ("
-                    + secondKey + ", " + (secondValue + amountTaken) + ")");
+    // EXECUTION=calvin: send the whole transaction, made of transfers, to the sequencer; the servers run it
+    // and one of them tells us the outcome
+    void submitTxn(Long intendedStart) {
+        int numExtraOp = r.nextInt(config.maxTxnLength - config.minTxnLength + 1);
+        ClientTransaction t = new ClientTransaction(clientId, numAttemptedTxn, sequencer,
+                config.minTxnLength + numExtraOp, intendedStart);
+        t.setAccepted();
+        transactions.put(numAttemptedTxn, t);
+        List<ClientCoordinatorMessage.CallMsg> calls = new ArrayList<>();
+        while (t.getNumOpDone() < t.getNumOpTotal())
+            calls.add(transferCall(t));
+        sequencer.tell(new SequencerMessage.SubmitMsg(clientId, numAttemptedTxn, calls), getSelf());
+        setTimeout(t, new TimeoutMessages.Client.TxnOperationMsg(numAttemptedTxn), commitRtt);
+        if (Category.CLIENT.on(Level.TRACE))
+            print("SUBMITTED " + numAttemptedTxn + " WITH " + calls.size() + " TRANSFERS");
     }
 
     /*-- Message handlers ----------------------------------------------------- */
 
     private void onWelcomeMsg(Message.WelcomeMsg msg) {
-        this.coordinators = msg.group;
-        System.out.println(coordinators);
+        coordinators.setCoordinators(msg.group);
+        if (Category.CLIENT.on(Level.DEBUG))
+            print("COORDINATORS " + msg.group);
         this.maxKey = msg.maxKey;
-        beginTxn();
+        // in the open workload we wait for the generator, otherwise we fill our window
+        if (!isOpenWorkload()) {
+            for (int i = 0; i < config.clientWindow; i++)
+                beginTxn(null);
+        }
+    }
+
+    // the pool was resized: the transactions running on removed coordinators go on
+    private void onCoordinatorPoolMsg(Message.CoordinatorPoolMsg msg) {
+        coordinators.setCoordinators(msg.coordinators);
+        if (Category.CLIENT.on(Level.DEBUG))
+            print("COORDINATORS " + msg.coordinators);
+    }
+
+    private void onStartTxnMsg(WorkloadMessage.StartTxnMsg msg) {
+        generator = getSender();
+        beginTxn(msg.intendedStart);
+    }
+
+    private void onThinkTimeMsg(TimeoutMessages.Client.ThinkTimeMsg msg) {
+        beginTxn(null);
+    }
+
+    private void onRetryTxnMsg(TimeoutMessages.Client.RetryTxnMsg msg) {
+        beginTxn(msg.intendedStart);
+    }
+
+    private void onRestartTxnMsg(TimeoutMessages.Client.RestartTxnMsg msg) {
+        beginTxn(msg.intendedStart, msg.numOpTotal, msg.priority);
+    }
+
+    private void onMetricsRequest(Message.MetricsRequest msg) {
+        getSender().tell(new Message.MetricsResponse(msg.round, metrics.snapshot()), getSelf());
     }
 
     private void onStopMsg(Message.StopMsg msg) {
@@ -183,70 +364,116 @@ public class Client extends AbstractActor {
     }
 
     private void onTxnAcceptMsg(ClientCoordinatorMessage.TxnAcceptMsg msg) {
-        acceptedTxn = true;
-        unsetTimeouts();
-        readTwo();
+        coordinators.onLoad(getSender(), msg.load);
+        // ignore late accepts of transactions we gave up on, and duplicates
+        ClientTransaction t = transactions.get(msg.numAttemptedTxn);
+        if (t == null || t.isAccepted())
+            return;
+        sampleRtt(t, rtt);
+        t.setAccepted();
+        if (config.storedProcedures)
+            callProcedures(t);
+        else
+            readKeys(t);
     }
 
 
+    // the coordinator is overloaded: try again after the time it suggests, plus some jitter so that
+    // the rejected clients do not come back all together (the window slot stays taken meanwhile)
+    private void onTxnRejectMsg(ClientCoordinatorMessage.TxnRejectMsg msg) {
+        coordinators.onLoad(getSender(), msg.load);
+        ClientTransaction t = transactions.get(msg.numAttemptedTxn);
+        if (t == null || t.isAccepted())
+            return;
+        t.unsetTimeout();
+        transactions.remove(msg.numAttemptedTxn);
+        if (Category.CLIENT.on(Level.DEBUG))
+            print("TRANSACTION " + msg.numAttemptedTxn + " REJECTED, RETRY IN " + msg.retryAfter + " MS");
+        schedule(msg.retryAfter + r.nextInt(msg.retryAfter + 1), new TimeoutMessages.Client.RetryTxnMsg(t.getIntendedStart()));
+    }
+
     private void onReadResultMsg(ClientCoordinatorMessage.ReadResultMsg msg) {
-        if (Main.CLIENT_DEBUG_READ_RESULT)
-            print("READ RESULT (" + msg.key + ", " + msg.value + ")");
+        if (Category.CLIENT.on(Level.TRACE))
+            print("READ RESULT " + msg.numAttemptedTxn + " (" + msg.key + ", " + msg.value + ")");
 
-        // save the read value(s)
-        if (msg.key.equals(firstKey)) firstValue = msg.value;
-        if (msg.key.equals(secondKey)) secondValue = msg.value;
+        // save the read value(s), if they are for the current operation of the transaction
+        ClientTransaction t = transactions.get(msg.numAttemptedTxn);
+        if (t == null || !t.getOpKeys().contains(msg.key) || t.getOpValues().containsKey(msg.key))
+            return;
+        t.getOpValues().put(msg.key, msg.value);
 
-        boolean opDone = (firstValue != null && secondValue != null);
-        if (opDone) unsetTimeouts();
+        boolean opDone = t.getOpValues().size() == t.getOpKeys().size();
+        if (!opDone) return;
+        t.unsetTimeout();
+        sampleRtt(t, rtt);
+        metrics.timer(Metrics.Timer.READ_LATENCY).recordSince(t.getSentAt());
 
         // do we only read or also write?
         double writeRandom = r.nextDouble();
-        boolean doWrite = writeRandom < WRITE_PROBABILITY;
-        if (doWrite && opDone) writeTwo();
+        boolean doWrite = writeRandom < config.writeProbability;
+        if (doWrite) writeKeys(t);
 
         // check if the transaction should end;
-        // otherwise, read two again
-        if (opDone) numOpDone++;
-        if (numOpDone >= numOpTotal) {
-            endTxn();
-        } else if (opDone) {
-            readTwo();
+        // otherwise, read again
+        t.incrementNumOpDone();
+        if (t.getNumOpDone() >= t.getNumOpTotal()) {
+            endTxn(t);
+        } else {
+            readKeys(t);
         }
     }
 
     private void onTxnResultMsg(ClientCoordinatorMessage.TxnResultMsg msg) {
         if (msg.commit) {
             numCommittedTxn++;
-            if (Main.CLIENT_DEBUG_COMMIT_OK)
+            if (Category.CLIENT.on(Level.DEBUG))
                 print("COMMIT OK (" + numCommittedTxn + "/" + numAttemptedTxn + ")");
         } else {
-            if (Main.CLIENT_DEBUG_COMMIT_KO)
+            if (Category.CLIENT.on(Level.DEBUG))
                 print("COMMIT FAIL (" + (numAttemptedTxn - numCommittedTxn) + "/" + numAttemptedTxn + ")");
         }
-        // consider the message only if it answers to the current transaction
-        if (msg.numAttemptedTxn.equals(numAttemptedTxn)) {
-            unsetTimeouts();
-            beginTxn();
+        if (msg.load != null) // not from a server (EXECUTION=calvin)
+            coordinators.onLoad(getSender(), msg.load);
+        // consider the message only if it answers to a transaction we are still waiting for
+        ClientTransaction t = transactions.get(msg.numAttemptedTxn);
+        if (t != null) {
+            // only the outcome of a TxnEndMsg is a round trip, an abort may come at any time
+            if (t.getOpKeys().isEmpty() && t.getNumOpDone() >= t.getNumOpTotal())
+                sampleRtt(t, commitRtt);
+            nextTxn(t, msg.commit);
         }
     }
 
-    private void onTxnAcceptTimeoutMsg(TimeoutMessages.Client.TxnAcceptMsg msg) throws InterruptedException {
-        if (!acceptedTxn) {
-            if (Main.CLIENT_DEBUG_TIMEOUT_TXN_ACCEPT)
-                print("TIMEOUT DURING ACCEPT, ABORTING CURRENT TRANSACTION");
-            beginTxn();
+    private void onTxnAcceptTimeoutMsg(TimeoutMessages.Client.TxnAcceptMsg msg) {
+        ClientTransaction t = transactions.get(msg.numAttemptedTxn);
+        if (t != null && !t.isAccepted()) {
+            if (Category.CLIENT.on(Level.INFO))
+                print("TIMEOUT DURING ACCEPT, ABORTING TRANSACTION " + msg.numAttemptedTxn);
+            backOff(t, rtt);
+            coordinators.onTimeout(t.getCoordinator());
+            // the coordinator may have only been slow: make it drop the attempt, then
+            // try again with another one, keeping the intended start of the open workload
+            t.getCoordinator().tell(new ClientCoordinatorMessage.TxnEndMsg(clientId, msg.numAttemptedTxn, false), getSelf());
+            transactions.remove(msg.numAttemptedTxn);
+            beginTxn(t.getIntendedStart(), t.getNumOpTotal(), t.getPriority());
         }
     }
 
-    private void onTxnOperationTimeoutMsg(TimeoutMessages.Client.TxnOperationMsg msg) throws InterruptedException {
-        // begin a new transaction if the coordinator is not responding
-        if (Main.CLIENT_DEBUG_TIMEOUT_TXN_OPERATION)
-            print("TIMEOUT DURING OPERATION, ABORTING CURRENT TRANSACTION");
-        beginTxn();
+    private void onTxnOperationTimeoutMsg(TimeoutMessages.Client.TxnOperationMsg msg) {
+        ClientTransaction t = transactions.get(msg.numAttemptedTxn);
+        if (t == null)
+            return;
+        // give up on the transaction if the coordinator is not responding; if it is only slow,
+        // tell it to abort so that it does not keep the transaction forever
+        if (Category.CLIENT.on(Level.INFO))
+            print("TIMEOUT DURING OPERATION, ABORTING TRANSACTION " + msg.numAttemptedTxn);
+        backOff(t, t.getOpKeys().isEmpty() && t.getNumOpDone() >= t.getNumOpTotal() ? commitRtt : rtt);
+        coordinators.onTimeout(t.getCoordinator());
+        t.getCoordinator().tell(new ClientCoordinatorMessage.TxnEndMsg(clientId, msg.numAttemptedTxn, false), getSelf());
+        nextTxn(t, false);
     }
 
     private void print(String msg) {
-        System.out.format("Client      %2d: %s\n", clientId, msg);
+        Log.write(String.format("Client      %2d: %s", clientId, msg));
     }
 }
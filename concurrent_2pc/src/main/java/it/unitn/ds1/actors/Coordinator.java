@@ -3,14 +3,26 @@ package it.unitn.ds1.actors;
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
-import it.unitn.ds1.Main;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.commit.AcceptorState;
+import it.unitn.ds1.commit.Ballot;
+import it.unitn.ds1.commit.CommitTree;
+import it.unitn.ds1.commit.Proposal;
+import it.unitn.ds1.logging.Category;
+import it.unitn.ds1.logging.Level;
 import it.unitn.ds1.messages.ClientCoordinatorMessage;
+import it.unitn.ds1.messages.CommitMessage;
 import it.unitn.ds1.messages.CoordinatorServerMessage;
 import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.messages.TimeoutMessages;
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.procedures.Procedure;
 import it.unitn.ds1.transactions.CoordinatorTransaction;
 import it.unitn.ds1.transactions.Transaction;
+import scala.concurrent.duration.Duration;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class Coordinator extends Node {
 
@@ -47,19 +59,34 @@ public class Coordinator extends Node {
         }
     }
 
-    // associate client to its current transaction and vice-versa
-    private final Map<ActorRef, CoordinatorTransaction> client2transaction = new HashMap<>();
-    private final Map<Transaction, ActorRef> transaction2client = new HashMap<>();
+    // transactions we are managing, by id (a client may have several of them at the same time)
+    private final Map<Transaction, CoordinatorTransaction> transactions = new HashMap<>();
+    // transactions we aborted on a timeout with the server we waited for, and its epoch then, to tell if that
+    // server answers later without having crashed (the timeout was spurious)
+    private static final int TIMED_OUT_MEMORY = 10000;
+    private final Map<Map.Entry<Transaction, ActorRef>, Integer> timedOut = new LinkedHashMap<Map.Entry<Transaction, ActorRef>, Integer>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map.Entry<Transaction, ActorRef>, Integer> eldest) {
+            return size() > TIMED_OUT_MEMORY;
+        }
+    };
     // servers in the system
     protected List<ActorRef> servers;
 
+    // non-blocking commit: the coordinators acting as acceptors (us included), what we accepted as one of them,
+    // the decisions we are proposing, and the servers waiting for those we propose as a backup
+    private List<ActorRef> acceptors = new ArrayList<>();
+    private final Map<Transaction, AcceptorState> acceptorStates = new HashMap<>();
+    private final Map<Transaction, Proposal> proposals = new HashMap<>();
+    private final Map<Transaction, Set<ActorRef>> waiting = new HashMap<>();
+
 
-    public Coordinator(int id, Set<CrashPhase> crashPhases) {
-        super(id, crashPhases);
+    public Coordinator(int id, Set<CrashPhase> crashPhases, Config config) {
+        super(id, crashPhases, config);
     }
 
-    static public Props props(int id, Set<CrashPhase> crashPhases) {
-        return Props.create(Coordinator.class, () -> new Coordinator(id, crashPhases));
+    static public Props props(int id, Set<CrashPhase> crashPhases, Config config) {
+        return Props.create(Coordinator.class, () -> new Coordinator(id, crashPhases, config));
     }
 
     @Override
@@ -70,25 +97,41 @@ public class Coordinator extends Node {
                 .match(Message.WelcomeMsg.class, this::onWelcomeMsg)
                 .match(CoordinatorServerMessage.VoteResponse.class, this::onVoteResponse)
                 .match(CoordinatorServerMessage.TimeoutMsg.class, this::onTimeoutMsg)
-                .match(CoordinatorServerMessage.DecisionRequest.class, this::onDecisionRequest)
+                .match(CoordinatorServerMessage.ServerBusyMsg.class, this::onServerBusyMsg)
+                .match(CoordinatorServerMessage.ConflictAbortMsg.class, this::onConflictAbortMsg)
+                .match(CoordinatorServerMessage.BatchDecisionRequest.class, this::onBatchDecisionRequest)
                 .match(ClientCoordinatorMessage.TxnBeginMsg.class, this::onTxnBeginMsg)
                 .match(ClientCoordinatorMessage.TxnEndMsg.class, this::onTxnEndMsg)
                 .match(ClientCoordinatorMessage.ReadMsg.class, this::onReadMsg)
                 .match(CoordinatorServerMessage.TxnReadResponseMsg.class, this::onTxnReadResponseMsg)
                 .match(ClientCoordinatorMessage.WriteMsg.class, this::onWriteMsg)
+                .match(ClientCoordinatorMessage.DeltaMsg.class, this::onDeltaMsg)
+                .match(ClientCoordinatorMessage.CallMsg.class, this::onCallMsg)
                 .match(Message.CheckCorrectness.class, this::onCheckCorrectness)
+                .match(Message.MetricsRequest.class, this::onMetricsRequest)
+                .match(Message.HeartbeatTick.class, this::onHeartbeatTick)
+                .match(Message.HeartbeatMsg.class, this::onHeartbeatMsg)
+                .match(Message.CrashMsg.class, this::onCrashMsg)
+                .match(Message.AcceptorsMsg.class, this::onAcceptorsMsg)
+                .match(CommitMessage.Prepare.class, this::onPrepare)
+                .match(CommitMessage.Promise.class, this::onPromise)
+                .match(CommitMessage.Accept.class, this::onAccept)
+                .match(CommitMessage.Accepted.class, this::onAccepted)
+                .match(CommitMessage.Nack.class, this::onNack)
+                .match(CommitMessage.Decided.class, this::onDecided)
+                .match(TimeoutMessages.Coordinator.ProposalTimeoutMsg.class, this::onProposalTimeoutMsg)
                 .build();
     }
 
     // remember the servers
     void setGroup(Message.WelcomeMsg sm) {
         servers = new ArrayList<>(sm.group);
-        if (Main.NODE_DEBUG_STARTING_SIZE)
+        if (Category.NODE.on(Level.DEBUG))
             print("STARTING WITH " + sm.group.size() + " PEER(S)");
     }
 
     private boolean allVotedYes(CoordinatorTransaction transaction) { // returns true if all voted YES
-        return transaction.getYesVoters().size() == transaction.getServers().size();
+        return transaction.getYesVoters().size() == transaction.getVoters().size();
     }
 
     @Override
@@ -96,22 +139,27 @@ public class Coordinator extends Node {
         return transaction == null || transaction2decision.get(transaction) != null;
     }
 
-    private Boolean isCurrentTransaction(CoordinatorTransaction transaction, ClientCoordinatorMessage msg) {
-        return transaction != null && transaction.getNumAttemptedTxn().equals(msg.numAttemptedTxn);
+    // how loaded we are, for the clients to choose a coordinator
+    private ClientCoordinatorMessage.Load currentLoad() {
+        return new ClientCoordinatorMessage.Load(pendingTransactions.size(), MeteredMailbox.depth(getSelf()));
     }
 
     // get the information relative to the given transaction
     private CoordinatorTransaction getCTfromTransaction(Transaction transaction) {
-        ActorRef c = transaction2client.get(transaction);
-        return client2transaction.get(c);
+        return transactions.get(transaction);
+    }
+
+    // get the transaction a client message refers to, null if unknown or already decided
+    private CoordinatorTransaction getCTfromMessage(ClientCoordinatorMessage msg) {
+        return transactions.get(new Transaction.ModifiableTransaction(msg.clientId, msg.numAttemptedTxn));
     }
 
     // set timeout for a server to answer a request from a given transaction
     private void setTimeout(int time, Transaction transaction, ActorRef server) {
-        if (Main.COORD_DEBUG_SET_TIMEOUT)
+        if (Category.COORDINATOR.on(Level.TRACE))
             print("SET TIMEOUT FOR TRANSACTION " + transaction.getTxnId() + " FOR SERVER " + servers.indexOf(server));
         CoordinatorTransaction t = getCTfromTransaction(transaction);
-        t.pushServerTimeout(server, newTimeout(time, t));
+        t.pushServerTimeout(server, newTimeout(time, t, server));
     }
 
     // unset the 'oldest' timeout we set for the server for this transaction
@@ -120,7 +168,7 @@ public class Coordinator extends Node {
         if (t != null && t.hasTimeout(server)) {
             Cancellable to = t.popOldestServerTimeout(server);
             to.cancel();
-            if (Main.COORD_DEBUG_UNSET_TIMEOUT)
+            if (Category.COORDINATOR.on(Level.TRACE))
                 print("UNSET TIMEOUT FOR TRANSACTION " + transaction.getTxnId() + " FOR SERVER " + servers.indexOf(server));
         }
     }
@@ -139,22 +187,31 @@ public class Coordinator extends Node {
     protected void sendMessage(ActorRef to, CoordinatorServerMessage msg, Boolean setTimeout) {
         super.sendMessage(to, msg);
         if (setTimeout)
-            setTimeout(Main.COORD_TIMEOUT, msg.transaction, to);
+            setTimeout(msg instanceof CoordinatorServerMessage.VoteRequest ? commitTimeoutFor(to, config.coordTimeout)
+                    : timeoutFor(to, config.coordTimeout), msg.transaction, to);
     }
 
     // send a message to every actor in the group and optionally set a timeout. We may crash during the sending
     // according to the crashPhases told to the coordinator
     void multicast(CoordinatorServerMessage m, Collection<ActorRef> group, Boolean setTimeout, Class phase) throws CrashException {
+        Map<ActorRef, CoordinatorServerMessage> messages = new LinkedHashMap<>();
+        for (ActorRef p : group)
+            messages.put(p, m);
+        multicast(messages, setTimeout, phase);
+    }
+
+    // the same, with a different message for each actor
+    void multicast(Map<ActorRef, CoordinatorServerMessage> messages, Boolean setTimeout, Class phase) throws CrashException {
         CrashPhase zeroMsg = getZeroMsgCrashPhase(phase);
         CrashPhase rndMsg = getRndMsgCrashPhase(phase);
         CrashPhase allMsg = getAllMsgCrashPhase(phase);
 
         if (zeroMsg != null)
             maybeCrash(zeroMsg);
-        for (ActorRef p : group) {
+        for (Map.Entry<ActorRef, CoordinatorServerMessage> entry : messages.entrySet()) {
             if (rndMsg != null)
                 maybeCrash(rndMsg);
-            sendMessage(p, m, setTimeout);
+            sendMessage(entry.getKey(), entry.getValue(), setTimeout);
         }
         if (allMsg != null)
             maybeCrash(allMsg);
@@ -165,100 +222,221 @@ public class Coordinator extends Node {
         if (!hasDecided(transaction)) {
             transaction2decision.put(transaction, d);
             transaction.setState(Transaction.State.DECIDED);
-            ActorRef client = transaction2client.get(transaction);
+            // remove from the current transactions
+            pendingTransactions.remove(transaction);
+            transactions.remove(transaction);
+            ActorRef client = transaction.getClient();
             // tell the client the decision
             sendMessage(client,
                     new ClientCoordinatorMessage.TxnResultMsg(
                             transaction.getClientId(), transaction.getNumAttemptedTxn(),
-                            d == CoordinatorServerMessage.Decision.COMMIT));
-            // remove from the current transactions
-            pendingTransactions.remove(transaction);
-            client2transaction.remove(client);
-            transaction2client.remove(transaction);
-            if (Main.COORD_DEBUG_DECISION)
+                            d == CoordinatorServerMessage.Decision.COMMIT, currentLoad()));
+            if (Category.COORDINATOR.on(Level.DEBUG))
                 print("DECIDED " + d
                         + " ON TXN " + transaction.getTxnId());
         }
     }
 
-    private void takeDecision(Transaction transaction, CoordinatorServerMessage.Decision decision) throws CrashException {
-        if (Main.COORD_DEBUG_DECISION)
+    // take the decision and send it to the servers; reason is the counter to increment (COMMIT or why we abort)
+    private void takeDecision(Transaction transaction, CoordinatorServerMessage.Decision decision, Metrics.Counter reason) throws CrashException {
+        if (Category.COORDINATOR.on(Level.DEBUG))
             print("TAKING DECISION FOR TXN " + transaction.getTxnId() + ", OLD DECISION: " + transaction2decision.get(transaction));
         CoordinatorTransaction transaction1 = getCTfromTransaction(transaction);
         unsetTimeout(transaction1);
+        // we proposed COMMIT to the acceptors: the decision is now the one they choose
+        if (proposals.containsKey(transaction))
+            return;
+        if (!hasDecided(transaction1)) {
+            metrics.count(reason);
+            metrics.timer(Metrics.Timer.TXN_LATENCY).recordSince(transaction1.getBeganAt());
+            if (transaction1.getState() == Transaction.State.READY)
+                metrics.timer(Metrics.Timer.VOTE_COLLECTION).recordSince(transaction1.getVoteRequestedAt());
+        }
         fixDecision(transaction1, decision);
-        multicast(new CoordinatorServerMessage.DecisionResponse(
-                        transaction1,
-                        transaction2decision.get(transaction1)),
-                transaction1.getServers(),
+        long fanOutStart = System.nanoTime();
+        // COMMIT_FANOUT: a COMMIT goes down the tree of the vote requests, an ABORT straight to every
+        // participant, since part of the tree may never have got the vote request
+        CoordinatorServerMessage.Decision d = transaction2decision.get(transaction1);
+        multicast(new CoordinatorServerMessage.DecisionResponse(transaction1, d),
+                d == CoordinatorServerMessage.Decision.COMMIT ? transaction1.getVoters() : transaction1.getServers(),
                 false,
                 CrashDuring2PC.CrashDuringDecision.class);
+        metrics.timer(Metrics.Timer.DECISION_FANOUT).recordSince(fanOutStart);
     }
 
     // called when we send a request to a server, add the server to the list of servers handling the given transaction
-    private void trackServerForTxn(CoordinatorTransaction transaction, Integer serverId) throws CrashException {
-        transaction.getServers().add(servers.get(serverId));
+    private void trackServerForTxn(CoordinatorTransaction transaction, ActorRef server) throws CrashException {
+        transaction.getServers().add(server);
         maybeCrash(CrashBefore2PC.ON_CLIENT_MSG);
     }
 
+    // the server of a key: the primary of its partition, or with REPLICATION the next server,
+    // which keeps a copy of it, while we suspect the primary
+    private ActorRef serverFor(int key) {
+        int partition = key / config.dbSize;
+        if (config.replication && servers.size() > 1 && isSuspected(servers.get(partition)))
+            return servers.get((partition + 1) % servers.size());
+        return servers.get(partition);
+    }
+
     public void onWelcomeMsg(Message.WelcomeMsg msg) {                   /* Start */
         setGroup(msg);
+        startHeartbeats();
+    }
+
+    @Override
+    protected Collection<ActorRef> heartbeatTargets() {
+        return servers;
+    }
+
+    // a server is suspected dead: abort at once the transactions waiting for it, instead of timing out
+    @Override
+    protected void onSuspected(ActorRef server) {
+        try {
+            for (Transaction t : new HashSet<>(pendingTransactions)) {
+                if (getCTfromTransaction(t).getServers().contains(server))
+                    takeDecision(t, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_SUSPECTED);
+            }
+        } catch (CrashException ignored) {
+        }
     }
 
     public void onTxnBeginMsg(ClientCoordinatorMessage.TxnBeginMsg msg) {
-        // initialize transaction
-        CoordinatorTransaction t = client2transaction.get(getSender());
+        // initialize transaction, unless we already know it (the client may have other transactions with us)
+        CoordinatorTransaction t = getCTfromMessage(msg);
         try {
-            // if were already managing a transaction from this client, abort it and start a new one
-            if (t != null)
-                takeDecision(t, CoordinatorServerMessage.Decision.ABORT);
-
-            t = new CoordinatorTransaction(msg.clientId, msg.numAttemptedTxn, getSender());
-            client2transaction.put(getSender(), t);
-            transaction2client.put(t, getSender());
-            pendingTransactions.add(t);
-            if (Main.COORD_DEBUG_BEGIN_TXN)
-                print("GOT TXN BEGIN FROM " + msg.clientId + ", NEW_TXN: " + msg.numAttemptedTxn + ", OLD_TXN: " + (t != null ? t.getTxnId() : "null"));
+            // admission control: with too many transactions pending, tell the client to come back later
+            if (t == null && config.maxPendingCoordinator > 0 && pendingTransactions.size() >= config.maxPendingCoordinator) {
+                metrics.count(Metrics.Counter.REJECTED);
+                if (Category.COORDINATOR.on(Level.DEBUG))
+                    print("REJECTING TXN " + msg.numAttemptedTxn + " FROM " + msg.clientId + ", " + pendingTransactions.size() + " PENDING");
+                // the longer our mailbox, the longer the client should wait
+                int retryAfter = config.retryAfter * (1 + MeteredMailbox.depth(getSelf()) / config.maxPendingCoordinator);
+                reply(new ClientCoordinatorMessage.TxnRejectMsg(msg.clientId, msg.numAttemptedTxn, retryAfter, currentLoad()));
+                return;
+            }
+            if (t == null) {
+                t = new CoordinatorTransaction(msg.clientId, msg.numAttemptedTxn, getSender());
+                t.setPriority(msg.priority);
+                t.setTimestamp(System.currentTimeMillis());
+                transactions.put(t, t);
+                pendingTransactions.add(t);
+                prefetch(t, msg.readSet);
+            }
+            if (Category.COORDINATOR.on(Level.DEBUG))
+                print("GOT TXN BEGIN FROM " + msg.clientId + ", NEW_TXN: " + msg.numAttemptedTxn);
             // send accept
             maybeCrash(CrashBefore2PC.BEFORE_TXN_ACCEPT_MSG);
-            reply(new ClientCoordinatorMessage.TxnAcceptMsg(msg.clientId, msg.numAttemptedTxn));
+            reply(new ClientCoordinatorMessage.TxnAcceptMsg(msg.clientId, msg.numAttemptedTxn, currentLoad()));
         } catch (CrashException ignored) {
         }
     }
 
+    // DECLARED_READS: read the declared keys from their servers all at once, while the client waits for the
+    // accept; its reads will find the values in the cache, or wait for them
+    private void prefetch(CoordinatorTransaction transaction, List<Integer> keys) throws CrashException {
+        for (Integer key : keys) {
+            ActorRef server = serverFor(key);
+            if (isSuspected(server)) // the read of the client will abort the transaction
+                continue;
+            trackServerForTxn(transaction, server);
+            transaction.countAction(server);
+            transaction.prefetch(key);
+            metrics.count(Metrics.Counter.PREFETCH);
+            sendMessage(server, new CoordinatorServerMessage.TransactionRead(transaction, key), true);
+        }
+    }
+
     public void onTxnEndMsg(ClientCoordinatorMessage.TxnEndMsg msg) {
-        CoordinatorTransaction transaction = client2transaction.get(getSender());
-        if (isCurrentTransaction(transaction, msg)) {
+        CoordinatorTransaction transaction = getCTfromMessage(msg);
+        // ignore messages of unknown or already decided transactions, and repeated ends
+        if (transaction != null && transaction.getState() == Transaction.State.INIT) {
             try {
                 if (msg.commit) {
-                    if (Main.COORD_DEBUG_BEGIN_VOTE)
-                        print("SENDING VOTE REQUEST");
-                    // send vote request
-                    multicast(new CoordinatorServerMessage.VoteRequest(transaction, transaction.getServers()), transaction.getServers(),
-                            true, CrashDuring2PC.CrashDuringVote.class);
-                    transaction.setState(Transaction.State.READY);
+                    requestVotes(transaction);
                 } else {
-                    takeDecision(transaction, CoordinatorServerMessage.Decision.ABORT);
+                    takeDecision(transaction, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_CLIENT);
                 }
             } catch (CrashException ignored) {
             }
         }
     }
 
+    private void requestVotes(CoordinatorTransaction transaction) throws CrashException {
+        if (Category.COORDINATOR.on(Level.DEBUG))
+            print("SENDING VOTE REQUEST");
+        // send vote request
+        transaction.setVoteRequestedAt(System.nanoTime());
+        if (config.commitFanout > 0) {
+            // COMMIT_FANOUT: ask the first server of each group, which asks the others
+            Map<ActorRef, List<ActorRef>> tree = CommitTree.split(transaction.getServers(), config.commitFanout);
+            Map<ActorRef, CoordinatorServerMessage> requests = new LinkedHashMap<>();
+            Map<ActorRef, Integer> voters = new HashMap<>();
+            for (Map.Entry<ActorRef, List<ActorRef>> group : tree.entrySet()) {
+                requests.put(group.getKey(), new CoordinatorServerMessage.VoteRequest(transaction, Collections.emptySet(),
+                        CommitTree.restrict(transaction.getNumActions(), group.getKey(), group.getValue()), null, null, group.getValue()));
+                voters.put(group.getKey(), CommitTree.levels(group.getValue().size(), config.commitFanout));
+            }
+            transaction.setVoters(voters);
+            multicast(requests, false, CrashDuring2PC.CrashDuringVote.class);
+            // the vote of a subtree takes a round trip per level: its estimate is per level too
+            for (ActorRef head : voters.keySet())
+                setTimeout(commitTimeoutFor(head, config.coordTimeout) * voters.get(head), transaction, head);
+        } else {
+            multicast(new CoordinatorServerMessage.VoteRequest(transaction, transaction.getServers(), transaction.getNumActions()), transaction.getServers(),
+                    true, CrashDuring2PC.CrashDuringVote.class);
+        }
+        transaction.setState(Transaction.State.READY);
+    }
+
     public void onReadMsg(ClientCoordinatorMessage.ReadMsg msg) {
-        CoordinatorTransaction transaction = client2transaction.get(getSender());
+        CoordinatorTransaction transaction = getCTfromMessage(msg);
         // ignored messages after the transaction is decided
         if (!hasDecided(transaction)) {
-            // ignore messages if they refer to an old transaction
-            if (isCurrentTransaction(transaction, msg)) {
-                if (Main.COORD_DEBUG_READ) {
+            // ignore messages if the transaction is already in 2PC
+            if (transaction.getState() == Transaction.State.INIT) {
+                if (Category.COORDINATOR.on(Level.TRACE)) {
                     print("READING KEY " + msg.key);
                 }
+                transaction.setInteractive();
                 int key = msg.key;
-                int serverId = key / Server.DB_SIZE;
+                // DECLARED_READS: the value is on the way
+                if (transaction.isPrefetching(key)) {
+                    transaction.await(key);
+                    return;
+                }
+                // DECLARED_READS: the value arrived before the client asked for it
+                Integer prefetched = transaction.takePrefetched(key);
+                if (prefetched != null) {
+                    metrics.count(Metrics.Counter.PREFETCH_HIT);
+                    sendMessage(transaction.getClient(), new ClientCoordinatorMessage.ReadResultMsg(
+                            msg.clientId, msg.numAttemptedTxn, key, prefetched));
+                    return;
+                }
+                // READ_CACHE: the server would return the same value from the workspace, answer at once
+                Integer cached = config.readCache ? transaction.cached(key) : null;
+                if (cached != null) {
+                    metrics.count(Metrics.Counter.READ_CACHE_HIT);
+                    sendMessage(transaction.getClient(), new ClientCoordinatorMessage.ReadResultMsg(
+                            msg.clientId, msg.numAttemptedTxn, key, cached));
+                    return;
+                }
+                ActorRef server = serverFor(key);
                 try {
-                    trackServerForTxn(transaction, serverId);
-                    sendMessage(servers.get(serverId), new CoordinatorServerMessage.TransactionRead(transaction, key), true);
+                    trackServerForTxn(transaction, server);
+                    // do not wait for a server which is probably dead
+                    if (isSuspected(server)) {
+                        takeDecision(transaction, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_SUSPECTED);
+                        return;
+                    }
+                    transaction.countAction(server);
+                    // DIRECT_READS: the server answers the client, the client times out if it does not
+                    if (config.directReads) {
+                        metrics.count(Metrics.Counter.DIRECT_READ);
+                        sendMessage(server, new CoordinatorServerMessage.TransactionRead(transaction, key, transaction.getClient()), false);
+                    } else {
+                        sendMessage(server, new CoordinatorServerMessage.TransactionRead(transaction, key), true);
+                    }
                 } catch (CrashException ignored) {
                 }
             }
@@ -266,9 +444,17 @@ public class Coordinator extends Node {
     }
 
     public void onTxnReadResponseMsg(CoordinatorServerMessage.TxnReadResponseMsg msg) {
+        if (countIfSpurious(msg))
+            sampleRtt(getSender(), msg.sentAt, config.coordTimeout);
         if (!hasDecided(msg.transaction)) {
             unsetTimeout(msg.transaction, getSender());
-            ActorRef c = transaction2client.get(msg.transaction);
+            metrics.timer(Metrics.Timer.READ_RTT).recordSince(msg.sentAt);
+            CoordinatorTransaction transaction = getCTfromTransaction(msg.transaction);
+            if (config.readCache)
+                transaction.cacheRead(msg.key, msg.valueRead);
+            if (!transaction.forwardRead(msg.key, msg.valueRead))
+                return;
+            ActorRef c = transaction.getClient();
             try {
                 maybeCrash(CrashBefore2PC.ON_SERVER_MSG);
                 // forward answer to the client
@@ -277,7 +463,7 @@ public class Coordinator extends Node {
                         msg.transaction.getNumAttemptedTxn(),
                         msg.key,
                         msg.valueRead));
-                if (Main.COORD_DEBUG_READ_RESPONSE)
+                if (Category.COORDINATOR.on(Level.TRACE))
                     print("REPLYING WITH VALUE " + msg.valueRead + " FOR KEY " + msg.key);
             } catch (CrashException e) {
             }
@@ -286,23 +472,103 @@ public class Coordinator extends Node {
     }
 
     public void onWriteMsg(ClientCoordinatorMessage.WriteMsg msg) {
-        CoordinatorTransaction transaction = client2transaction.get(getSender());
+        CoordinatorTransaction transaction = getCTfromMessage(msg);
         if (!hasDecided(transaction)) {
-            if (isCurrentTransaction(transaction, msg)) {
+            if (transaction.getState() == Transaction.State.INIT) {
                 int key = msg.key;
                 int value = msg.value;
-                int serverId = key / Server.DB_SIZE;
+                ActorRef server = serverFor(key);
+                transaction.setInteractive();
+                transaction.discardPrefetched(key);
+                if (config.readCache)
+                    transaction.cacheWrite(key, value);
                 try {
-                    trackServerForTxn(transaction, serverId);
-                    sendMessage(servers.get(serverId), new CoordinatorServerMessage.TransactionWrite(transaction, key, value));
+                    trackServerForTxn(transaction, server);
+                    transaction.countAction(server);
+                    sendMessage(server, new CoordinatorServerMessage.TransactionWrite(transaction, key, value));
                 } catch (CrashException e) {
                 }
             }
         }
     }
 
+    public void onDeltaMsg(ClientCoordinatorMessage.DeltaMsg msg) {
+        CoordinatorTransaction transaction = getCTfromMessage(msg);
+        if (!hasDecided(transaction)) {
+            if (transaction.getState() == Transaction.State.INIT) {
+                ActorRef server = serverFor(msg.key);
+                transaction.setInteractive();
+                // the server reads the current value plus the delta
+                transaction.uncache(msg.key);
+                transaction.discardPrefetched(msg.key);
+                try {
+                    trackServerForTxn(transaction, server);
+                    transaction.countAction(server);
+                    sendMessage(server, new CoordinatorServerMessage.TransactionDelta(transaction, msg.key, msg.delta));
+                } catch (CrashException e) {
+                }
+            }
+        }
+    }
+
+    public void onCallMsg(ClientCoordinatorMessage.CallMsg msg) {
+        CoordinatorTransaction transaction = getCTfromMessage(msg);
+        if (!hasDecided(transaction) && transaction.getState() == Transaction.State.INIT) {
+            transaction.getCalls().add(msg);
+            try {
+                call(transaction, msg);
+            } catch (CrashException e) {
+            }
+        }
+    }
+
+    // send the call to the servers of the keys it accesses, each with the keys it holds
+    private void call(CoordinatorTransaction transaction, ClientCoordinatorMessage.CallMsg msg) throws CrashException {
+        Map<ActorRef, List<Integer>> keys = new LinkedHashMap<>();
+        for (Integer key : Procedure.get(msg.procedure).keys(msg.args)) {
+            keys.computeIfAbsent(serverFor(key), k -> new ArrayList<>()).add(key);
+            transaction.uncache(key);
+            transaction.discardPrefetched(key);
+        }
+        for (Map.Entry<ActorRef, List<Integer>> entry : keys.entrySet()) {
+            trackServerForTxn(transaction, entry.getKey());
+            transaction.countAction(entry.getKey());
+            sendMessage(entry.getKey(), new CoordinatorServerMessage.TransactionCall(transaction, entry.getValue(), msg.procedure, msg.args));
+        }
+    }
+
+    // a server voted NO on a transaction made of stored procedures only: instead of telling the client,
+    // abort it on the servers and run the calls again as a new incarnation, up to PROCEDURE_RETRIES times
+    private boolean reExecute(CoordinatorTransaction transaction) throws CrashException {
+        if (!transaction.canReExecute() || transaction.getIncarnation() >= config.procedureRetries)
+            return false;
+        metrics.count(Metrics.Counter.REEXECUTION);
+        if (Category.COORDINATOR.on(Level.DEBUG))
+            print("RUNNING TXN " + transaction.getTxnId() + " AGAIN, INCARNATION " + (transaction.getIncarnation() + 1));
+        unsetTimeout(transaction);
+        transaction2decision.put(transaction, CoordinatorServerMessage.Decision.ABORT);
+        transaction.setState(Transaction.State.DECIDED);
+        pendingTransactions.remove(transaction);
+        transactions.remove(transaction);
+        // register the next incarnation first: if we crash while sending the ABORT, the recovery aborts it
+        // as a pending transaction and tells the client
+        CoordinatorTransaction next = transaction.reincarnate();
+        transactions.put(next, next);
+        pendingTransactions.add(next);
+        multicast(new CoordinatorServerMessage.DecisionResponse(transaction, CoordinatorServerMessage.Decision.ABORT),
+                transaction.getServers(), false, CrashDuring2PC.CrashDuringDecision.class);
+
+        for (ClientCoordinatorMessage.CallMsg call : next.getCalls())
+            call(next, call);
+        requestVotes(next);
+        return true;
+    }
 
     public void onVoteResponse(CoordinatorServerMessage.VoteResponse msg) {                    /* Vote */
+        CoordinatorTransaction t = getCTfromTransaction(msg.transaction);
+        // late votes are samples too, so that the estimate learns how slow the server is
+        if (countIfSpurious(msg) && t != null && t.getVoteRequestedAt() != 0)
+            sampleCommitRtt(getSender(), t.getVoteRequestedAt(), config.coordTimeout, t.getLevels(getSender()));
         if (hasDecided(msg.transaction)) {
             // we have already decided and sent the decision to the group,
             // so do not care about other votes.
@@ -313,40 +579,88 @@ public class Coordinator extends Node {
 
         CoordinatorTransaction transaction = getCTfromTransaction(msg.transaction);
         CoordinatorServerMessage.Vote v = (msg).vote;
-        if (Main.COORD_DEBUG_RECEIVED_VOTE)
+        if (Category.COORDINATOR.on(Level.TRACE))
             print("RECEIVED VOTE " + v.toString() + " FROM SERVER " + servers.indexOf(getSender()));
         if (v == CoordinatorServerMessage.Vote.YES) {
             transaction.getYesVoters().add(getSender());
-            if (allVotedYes(transaction)) {
-                if (Main.COORD_DEBUG_ALL_VOTED_YES)
+            if (allVotedYes(transaction) && !proposals.containsKey(transaction)) {
+                if (Category.COORDINATOR.on(Level.DEBUG))
                     print("ALL VOTED YES");
+                if (config.nonBlockingCommit) {
+                    proposeCommit(transaction);
+                    return;
+                }
                 try {
-                    takeDecision(transaction, CoordinatorServerMessage.Decision.COMMIT);
+                    takeDecision(transaction, CoordinatorServerMessage.Decision.COMMIT, Metrics.Counter.COMMIT);
                 } catch (CrashException ignored) {
                 }
             }
         } else { // a NO vote
             // on a single NO we decide ABORT
             try {
-                takeDecision(transaction, CoordinatorServerMessage.Decision.ABORT);
+                if (reExecute(transaction))
+                    return;
+                takeDecision(transaction, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_VOTE);
             } catch (CrashException e) {
             }
         }
     }
 
     public void onTimeoutMsg(CoordinatorServerMessage.TimeoutMsg msg) {
-        if (Main.COORD_DEBUG_TIMEOUT)
+        if (Category.COORDINATOR.on(Level.DEBUG))
             print("TIMEOUT FOR TRANSACTION " + msg.transaction.getTxnId());
         CoordinatorTransaction t = getCTfromTransaction(msg.transaction);
         if (t == null)
             return;
+        metrics.count(Metrics.Counter.TIMEOUT);
         unsetTimeout(t);
 
         // if in INIT -> server crashed before 2PC or while sending the vote request
         // if in READY -> at least one server did not respond to the vote request (and nobody voted abort)
         assert t.getState() != Transaction.State.DECIDED;
+        if (msg.peer != null) {
+            backOff(msg.peer, t.getState() == Transaction.State.READY, config.coordTimeout);
+            timedOut.put(new AbstractMap.SimpleImmutableEntry<>(t, msg.peer), epochOf(msg.peer));
+        }
+        try {
+            takeDecision(t, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_TIMEOUT);
+        } catch (CrashException ignored) {
+        }
+    }
+
+    // a server answered: if we aborted the transaction on a timeout for it and it did not crash meanwhile, it was
+    // only slow; false if it crashed, so that the time of the reply is no sample of its round trip
+    private boolean countIfSpurious(CoordinatorServerMessage msg) {
+        heardFrom(getSender(), msg);
+        Integer epoch = timedOut.remove(new AbstractMap.SimpleImmutableEntry<Transaction, ActorRef>(msg.transaction, getSender()));
+        if (epoch == null)
+            return true;
+        if (epoch != msg.getSenderEpoch())
+            return false;
+        metrics.count(Metrics.Counter.TIMEOUT_SPURIOUS);
+        return true;
+    }
+
+    // a server has too many pending transactions to take this one
+    public void onServerBusyMsg(CoordinatorServerMessage.ServerBusyMsg msg) {
+        if (hasDecided(msg.transaction))
+            return;
+        if (Category.COORDINATOR.on(Level.DEBUG))
+            print("SERVER " + servers.indexOf(getSender()) + " BUSY FOR TXN " + msg.transaction.getTxnId());
+        try {
+            takeDecision(msg.transaction, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_BUSY);
+        } catch (CrashException ignored) {
+        }
+    }
+
+    // the concurrency control of a server aborted the transaction before the vote
+    public void onConflictAbortMsg(CoordinatorServerMessage.ConflictAbortMsg msg) {
+        if (hasDecided(msg.transaction))
+            return;
+        if (Category.COORDINATOR.on(Level.DEBUG))
+            print("SERVER " + servers.indexOf(getSender()) + " ABORTED TXN " + msg.transaction.getTxnId() + " ON A CONFLICT");
         try {
-            takeDecision(t, CoordinatorServerMessage.Decision.ABORT);
+            takeDecision(msg.transaction, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_CONFLICT);
         } catch (CrashException ignored) {
         }
     }
@@ -354,22 +668,185 @@ public class Coordinator extends Node {
     @Override
     public void onRecoveryMsg(CoordinatorServerMessage.RecoveryMsg msg) {
         getContext().become(createReceive());
+        resetFailureDetector();
 
-        if (Main.COORD_DEBUG_RECOVERY)
+        if (Category.COORDINATOR.on(Level.INFO))
             print("RECOVERED");
 
+        // the timeouts of the proposals were lost while crashed: start them again
+        for (Transaction t : new ArrayList<>(proposals.keySet()))
+            newRound(t);
+
         try {
-            // abort every pending transaction (not decided yet)
+            // abort every pending transaction (not decided yet), except the ones we proposed to commit
             for (Transaction t : new HashSet<>(pendingTransactions)) {
-                takeDecision(t, CoordinatorServerMessage.Decision.ABORT);
+                takeDecision(t, CoordinatorServerMessage.Decision.ABORT, Metrics.Counter.ABORT_RECOVERY);
             }
         } catch (CrashException e) {
         }
     }
 
+    /*-- Non-blocking commit ------------------------------------------------- */
+
+    public void onAcceptorsMsg(Message.AcceptorsMsg msg) {
+        acceptors = new ArrayList<>(msg.acceptors);
+    }
+
+    private int quorum() {
+        return acceptors.size() / 2 + 1;
+    }
+
+    private void toAcceptors(Message msg) {
+        for (ActorRef acceptor : acceptors)
+            sendMessage(acceptor, msg);
+    }
+
+    // all the servers voted YES: have COMMIT chosen by the acceptors before telling it. Ballot 0 is ours,
+    // so we can skip the prepare phase; if the acceptors promised a higher one to a backup, the decision
+    // will be the one the backup has chosen
+    private void proposeCommit(CoordinatorTransaction transaction) {
+        unsetTimeout(transaction);
+        Proposal p = new Proposal(Ballot.first(id), CoordinatorServerMessage.Decision.COMMIT, quorum());
+        proposals.put(transaction, p);
+        if (Category.COORDINATOR.on(Level.DEBUG))
+            print("PROPOSING COMMIT FOR TXN " + transaction.getTxnId());
+        toAcceptors(new CommitMessage.Accept(transaction, p.getBallot(), p.value()));
+        setProposalTimeout(transaction, p);
+    }
+
+    // start a round of the consensus with a ballot higher than any seen so far
+    private void newRound(Transaction transaction) {
+        Proposal p = proposals.get(transaction);
+        p.newRound(id);
+        if (Category.COORDINATOR.on(Level.DEBUG))
+            print("PREPARING BALLOT " + p.getBallot() + " FOR TXN " + transaction.getTxnId());
+        toAcceptors(new CommitMessage.Prepare(transaction, p.getBallot()));
+        setProposalTimeout(transaction, p);
+    }
+
+    // try again if the round gets no majority in time (with some jitter, so that two proposers do not keep
+    // interrupting each other)
+    private void setProposalTimeout(Transaction transaction, Proposal p) {
+        if (p.getTimeout() != null)
+            p.getTimeout().cancel();
+        p.setTimeout(getContext().system().scheduler().scheduleOnce(
+                Duration.create(config.coordTimeout + r.nextInt(config.coordTimeout + 1), TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutMessages.Coordinator.ProposalTimeoutMsg(transaction),
+                getContext().dispatcher(), getSelf()
+        ));
+    }
+
+    public void onProposalTimeoutMsg(TimeoutMessages.Coordinator.ProposalTimeoutMsg msg) {
+        if (proposals.containsKey(msg.transaction))
+            newRound(msg.transaction);
+    }
+
+    // the servers ask the decision of the transactions they are blocked on: as a backup, finish those
+    // of the other coordinators we know nothing about, proposing ABORT unless COMMIT may have been chosen
+    @Override
+    public void onBatchDecisionRequest(CoordinatorServerMessage.BatchDecisionRequest msg) {
+        super.onBatchDecisionRequest(msg);
+        if (!config.nonBlockingCommit || acceptors.isEmpty())
+            return;
+        for (Transaction transaction : msg.transactions) {
+            if (hasDecided(transaction) || transactions.containsKey(transaction))
+                continue;
+            waiting.computeIfAbsent(transaction, t -> new HashSet<>()).add(getSender());
+            if (!proposals.containsKey(transaction)) {
+                proposals.put(transaction, new Proposal(Ballot.first(id), CoordinatorServerMessage.Decision.ABORT, quorum()));
+                newRound(transaction);
+            }
+        }
+    }
+
+    // as an acceptor: promise, unless we promised a higher ballot or the decision is already known
+    public void onPrepare(CommitMessage.Prepare msg) {
+        if (hasDecided(msg.transaction)) {
+            reply(new CommitMessage.Decided(msg.transaction, msg.ballot, transaction2decision.get(msg.transaction)));
+            return;
+        }
+        AcceptorState a = acceptorStates.computeIfAbsent(msg.transaction, t -> new AcceptorState());
+        if (a.prepare(msg.ballot))
+            reply(new CommitMessage.Promise(msg.transaction, msg.ballot, a.getAcceptedBallot(), a.getAccepted()));
+        else
+            reply(new CommitMessage.Nack(msg.transaction, a.getPromised()));
+    }
+
+    // as an acceptor: accept, unless we promised a higher ballot or the decision is already known
+    public void onAccept(CommitMessage.Accept msg) {
+        if (hasDecided(msg.transaction)) {
+            reply(new CommitMessage.Decided(msg.transaction, msg.ballot, transaction2decision.get(msg.transaction)));
+            return;
+        }
+        AcceptorState a = acceptorStates.computeIfAbsent(msg.transaction, t -> new AcceptorState());
+        if (a.accept(msg.ballot, msg.decision))
+            reply(new CommitMessage.Accepted(msg.transaction, msg.ballot));
+        else
+            reply(new CommitMessage.Nack(msg.transaction, a.getPromised()));
+    }
+
+    public void onPromise(CommitMessage.Promise msg) {
+        Proposal p = proposals.get(msg.transaction);
+        if (p != null && p.onPromise(getSender(), msg.ballot, msg.acceptedBallot, msg.accepted))
+            toAcceptors(new CommitMessage.Accept(msg.transaction, p.getBallot(), p.value()));
+    }
+
+    public void onAccepted(CommitMessage.Accepted msg) {
+        Proposal p = proposals.get(msg.transaction);
+        if (p != null && p.onAccepted(getSender(), msg.ballot)) {
+            toAcceptors(new CommitMessage.Decided(msg.transaction, msg.ballot, p.value()));
+            learn(msg.transaction, p.value(), true);
+        }
+    }
+
+    // the next round, at the timeout, has to go above the ballot the acceptor promised
+    public void onNack(CommitMessage.Nack msg) {
+        Proposal p = proposals.get(msg.transaction);
+        if (p != null)
+            p.onNack(msg.ballot);
+    }
+
+    public void onDecided(CommitMessage.Decided msg) {
+        learn(msg.transaction, msg.decision, false);
+    }
+
+    // the decision is chosen: finish the transaction if it is ours, otherwise remember the decision
+    // and answer the servers which asked us
+    private void learn(Transaction transaction, CoordinatorServerMessage.Decision decision, boolean chosenByUs) {
+        Proposal p = proposals.remove(transaction);
+        if (p != null) {
+            p.getTimeout().cancel();
+            metrics.timer(Metrics.Timer.CONSENSUS).recordSince(p.getStartedAt());
+        }
+        acceptorStates.remove(transaction);
+        CoordinatorTransaction t = getCTfromTransaction(transaction);
+        if (t != null) {
+            try {
+                takeDecision(t, decision, decision == CoordinatorServerMessage.Decision.COMMIT
+                        ? Metrics.Counter.COMMIT : Metrics.Counter.ABORT_TAKEOVER);
+            } catch (CrashException ignored) {
+            }
+        } else if (!hasDecided(transaction)) {
+            transaction2decision.put(transaction, decision);
+            if (chosenByUs) {
+                metrics.count(Metrics.Counter.TAKEOVER);
+                if (Category.COORDINATOR.on(Level.INFO))
+                    print("DECIDED " + decision + " AS BACKUP ON TXN " + transaction.getTxnId());
+            }
+        }
+        Set<ActorRef> askers = waiting.remove(transaction);
+        if (askers != null) {
+            CoordinatorServerMessage.BatchDecisionResponse response = new CoordinatorServerMessage.BatchDecisionResponse(
+                    Collections.singletonMap(transaction, decision));
+            for (ActorRef server : askers)
+                sendMessage(server, response);
+        }
+    }
+
     @Override
     public void onCheckCorrectness(Message.CheckCorrectness msg) {
-        reply(new Message.CheckCorrectnessResponse(id, null, numCrashes));
+        reply(new Message.CheckCorrectnessResponse(id, null, numCrashes, metrics.snapshot()));
         getContext().stop(getSelf());
     }
 }
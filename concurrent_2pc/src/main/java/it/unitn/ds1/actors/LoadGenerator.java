@@ -0,0 +1,120 @@
+package it.unitn.ds1.actors;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.messages.WorkloadMessage;
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.workload.ArrivalProcess;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Open-loop load: transactions arrive at ARRIVAL_RATE independently of how fast the system answers.
+// Each arrival has an intended start time; it is handed to an idle client (queueing if there is none)
+// and its latency is measured from the intended start, so that a slow system cannot hide its
+// queueing delay by slowing down the load (coordinated omission).
+public class LoadGenerator extends AbstractActor {
+    // how often we release the arrivals that are due (the scheduler rounds it up to its tick)
+    private static final int TICK_INTERVAL = 1; // ms
+
+    private final Config config;
+    private final ArrivalProcess arrivals;
+    private final Random r;
+    private final Metrics metrics;
+
+    // free client slots (a client appears once per transaction it can still run) and intended start times
+    // (System.nanoTime()) of the arrivals waiting for one
+    private final Deque<ActorRef> idleClients;
+    private final Deque<Long> backlog;
+    private long nextArrival;
+    private Cancellable ticker;
+
+    public LoadGenerator(Config config) {
+        this.config = config;
+        this.arrivals = ArrivalProcess.create(config);
+        this.r = new Random();
+        this.metrics = new Metrics();
+        this.idleClients = new ArrayDeque<>();
+        this.backlog = new ArrayDeque<>();
+    }
+
+    static public Props props(Config config) {
+        return Props.create(LoadGenerator.class, () -> new LoadGenerator(config));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Message.WelcomeMsg.class, this::onWelcomeMsg)
+                .match(WorkloadMessage.ArrivalTick.class, this::onArrivalTick)
+                .match(WorkloadMessage.TxnDoneMsg.class, this::onTxnDoneMsg)
+                .match(Message.MetricsRequest.class, this::onMetricsRequest)
+                .match(Message.StopMsg.class, this::onStopMsg)
+                .build();
+    }
+
+    @Override
+    public void postStop() {
+        if (ticker != null)
+            ticker.cancel();
+    }
+
+    // hand the waiting arrivals to the idle clients
+    private void dispatch() {
+        while (!idleClients.isEmpty() && !backlog.isEmpty()) {
+            idleClients.poll().tell(new WorkloadMessage.StartTxnMsg(backlog.poll()), getSelf());
+        }
+    }
+
+    // the group are the clients to drive, each can run CLIENT_WINDOW transactions at the same time
+    private void onWelcomeMsg(Message.WelcomeMsg msg) {
+        for (int i = 0; i < config.clientWindow; i++)
+            idleClients.addAll(msg.group);
+        nextArrival = System.nanoTime();
+        ticker = getContext().system().scheduler().scheduleWithFixedDelay(
+                Duration.create(TICK_INTERVAL, TimeUnit.MILLISECONDS),
+                Duration.create(TICK_INTERVAL, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new WorkloadMessage.ArrivalTick(),
+                getContext().dispatcher(), getSelf()
+        );
+    }
+
+    private void onArrivalTick(WorkloadMessage.ArrivalTick msg) {
+        // every arrival due by now, at its intended time even if the tick is late
+        long now = System.nanoTime();
+        while (nextArrival <= now) {
+            if (backlog.size() < config.maxBacklog)
+                backlog.add(nextArrival);
+            else
+                metrics.count(Metrics.Counter.ARRIVAL_DROPPED);
+            nextArrival += arrivals.nextInterArrivalNanos(r);
+        }
+        dispatch();
+    }
+
+    private void onTxnDoneMsg(WorkloadMessage.TxnDoneMsg msg) {
+        metrics.timer(Metrics.Timer.INTENDED_LATENCY).recordSince(msg.intendedStart);
+        metrics.count(msg.commit ? Metrics.Counter.COMMIT : Metrics.Counter.FAILED);
+        idleClients.add(getSender());
+        dispatch();
+    }
+
+    private void onMetricsRequest(Message.MetricsRequest msg) {
+        getSender().tell(new Message.MetricsResponse(msg.round, metrics.snapshot()), getSelf());
+    }
+
+    private void onStopMsg(Message.StopMsg msg) {
+        ticker.cancel();
+        backlog.clear();
+        System.out.println("/---- LOAD GENERATOR ----/");
+        System.out.println(metrics.snapshot());
+    }
+}
@@ -0,0 +1,79 @@
+package it.unitn.ds1.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Unbounded mailbox which keeps count of the queued messages (coordinator-mailbox in application.conf),
+// so that an actor can tell how many messages are waiting for it with depth(getSelf()).
+public class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.MeteredQueue> {
+    // the queues of the actors using this mailbox
+    private static final Map<ActorRef, MeteredQueue> queues = new ConcurrentHashMap<>();
+
+    public MeteredMailbox(ActorSystem.Settings settings, Config config) {
+    }
+
+    // number of messages waiting in the mailbox of the actor, 0 if it does not use this mailbox
+    public static int depth(ActorRef owner) {
+        MeteredQueue q = queues.get(owner);
+        return q == null ? 0 : q.numberOfMessages();
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        MeteredQueue q = new MeteredQueue();
+        if (owner.isDefined())
+            queues.put(owner.get(), q);
+        return q;
+    }
+
+    public static class MeteredQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private final Queue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        // ConcurrentLinkedQueue.size() walks the whole queue
+        private final AtomicInteger size = new AtomicInteger();
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            queue.offer(handle);
+            size.incrementAndGet();
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope e = queue.poll();
+            if (e != null)
+                size.decrementAndGet();
+            return e;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return size.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            queues.remove(owner);
+            Envelope e;
+            while ((e = dequeue()) != null)
+                deadLetters.enqueue(owner, e);
+        }
+    }
+}
@@ -5,9 +5,15 @@ package it.unitn.ds1.actors;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
-import it.unitn.ds1.Main;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.failure.PhiAccrualDetector;
+import it.unitn.ds1.logging.Category;
+import it.unitn.ds1.logging.Level;
+import it.unitn.ds1.logging.Log;
 import it.unitn.ds1.messages.CoordinatorServerMessage;
 import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.metrics.RttEstimator;
 import it.unitn.ds1.transactions.Transaction;
 import scala.concurrent.duration.Duration;
 
@@ -49,7 +55,13 @@ public abstract class Node extends AbstractActor {
     public class CrashException extends Exception {
     }
 
+    // crash asked with a CrashMsg, or by the backup which took over our partition (REPLICATION)
+    public enum InducedCrash implements CrashPhase {
+        ON_REQUEST, FENCED
+    }
+
     protected int id;                       // node ID
+    protected final Config config;          // system parameters
 
     // remember the decision taken for each transaction
     protected final Map<Transaction, CoordinatorServerMessage.Decision> transaction2decision;
@@ -59,13 +71,28 @@ public abstract class Node extends AbstractActor {
     protected final CrashPhaseMap numCrashes;
     // transactions that have not been decided yet
     protected final Set<Transaction> pendingTransactions = new HashSet<>();
+    // latency histograms and counters, collected by the checker
+    protected final Metrics metrics = new Metrics();
+    // round-trip estimates of the peers, for the adaptive timeouts: of single requests (reads, writes), and of
+    // the vote and decision phase, which also waits for the other participants (or a whole COMMIT_FANOUT subtree)
+    private final Map<ActorRef, RttEstimator> rtt = new HashMap<>();
+    private final Map<ActorRef, RttEstimator> commitRtt = new HashMap<>();
+    // how many times we crashed, sent with our messages, and the last epoch we heard of from each peer: a late
+    // reply from the same epoch comes from a peer which was only slow
+    protected int epoch;
+    private final Map<ActorRef, Integer> peerEpochs = new HashMap<>();
+    // failure detection of the peers which send us heartbeats, and those currently suspected dead
+    private final Map<ActorRef, PhiAccrualDetector> detectors = new HashMap<>();
+    private final Set<ActorRef> suspected = new HashSet<>();
+    private Cancellable heartbeatTicker;
     // RNG
     protected final Random r;
 
 
-    public Node(int id, Set<CrashPhase> crashPhases) {
+    public Node(int id, Set<CrashPhase> crashPhases, Config config) {
         super();
         this.id = id;
+        this.config = config;
         this.crashPhases = crashPhases;
         transaction2decision = new HashMap<>();
         numCrashes = new CrashPhaseMap();
@@ -82,6 +109,7 @@ public abstract class Node extends AbstractActor {
         return receiveBuilder()
                 .match(CoordinatorServerMessage.RecoveryMsg.class, this::onRecoveryMsg)
                 .match(Message.CheckCorrectness.class, this::onCheckCorrectness)
+                .match(Message.MetricsRequest.class, this::onMetricsRequest)
                 .matchAny(msg -> {
                 })
                 .build();
@@ -90,8 +118,9 @@ public abstract class Node extends AbstractActor {
     // emulate a crash and a recovery in a given time
     protected void crash(int recoverIn, CrashPhase crashPhase) throws CrashException {
         getContext().become(crashed());
+        epoch++;
         numCrashes.put(crashPhase, numCrashes.getOrDefault(crashPhase, 0) + 1);
-        if (Main.NODE_DEBUG_CRASH)
+        if (Category.NODE.on(Level.INFO))
             print("CRASH IN PHASE " + crashPhase);
 
         // setting a timer to "recover"
@@ -99,16 +128,23 @@ public abstract class Node extends AbstractActor {
                 Duration.create(recoverIn, TimeUnit.MILLISECONDS),
                 getSelf(),
                 new CoordinatorServerMessage.RecoveryMsg(), // message sent to myself
-                getContext().system().dispatcher(), getSelf()
+                getContext().dispatcher(), getSelf()
         );
         throw new CrashException();
     }
 
+    public void onCrashMsg(Message.CrashMsg msg) {
+        try {
+            crash(msg.recoverIn, InducedCrash.ON_REQUEST);
+        } catch (CrashException ignored) {
+        }
+    }
+
     // crash with a certain probability if the node was told to crash in this crashPhase
     protected void maybeCrash(CrashPhase crashPhase) throws CrashException {
-        double crash_prob = getClass().equals(Coordinator.class) ? Main.COORD_CRASH_PROBABILITY : Main.SERVER_CRASH_PROBABILITY;
+        double crash_prob = getClass().equals(Coordinator.class) ? config.coordCrashProbability : config.serverCrashProbability;
         if (crashPhases.contains(crashPhase) && r.nextDouble() < crash_prob) {
-            crash(Main.MIN_RECOVERY_TIME + r.nextInt(Main.MAX_RECOVERY_TIME - Main.MIN_RECOVERY_TIME), crashPhase);
+            crash(config.minRecoveryTime + r.nextInt(config.maxRecoveryTime - config.minRecoveryTime + 1), crashPhase);
         }
     }
 
@@ -122,20 +158,21 @@ public abstract class Node extends AbstractActor {
 
     protected abstract boolean hasDecided(Transaction transaction);
 
-    // a simple logging function
+    // a simple logging function, callers check that the category is enabled before building the message
     void print(String s) {
         if (this.getClass().equals(Server.class))
-            System.out.format("Server      %2d: %s\n", id, s);
+            Log.write(String.format("Server      %2d: %s", id, s));
         else
-            System.out.format("Coordinator %2d: %s\n", id, s);
+            Log.write(String.format("Coordinator %2d: %s", id, s));
     }
 
     // send a message to 'to'
     protected void sendMessage(ActorRef to, Message msg) {
         // simulate network delay
-        Integer delay = r.nextInt(Main.MAX_NODE_DELAY);
+        Integer delay = config.maxNodeDelay > 0 ? r.nextInt(config.maxNodeDelay) : 0;
         try {
             Thread.sleep(delay);
+            msg.setSenderEpoch(epoch);
             to.tell(msg, getSelf());
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -146,13 +183,141 @@ public abstract class Node extends AbstractActor {
         sendMessage(getSender(), msg);
     }
 
+    // how long to wait for a reply from the peer: the fixed time, or the one estimated from its round trips
+    protected int timeoutFor(ActorRef peer, int fixed) {
+        if (!config.adaptiveTimeouts)
+            return fixed;
+        return estimator(rtt, peer, fixed).timeout();
+    }
+
+    // the same, for a vote or a decision
+    protected int commitTimeoutFor(ActorRef peer, int fixed) {
+        if (!config.adaptiveTimeouts)
+            return fixed;
+        return estimator(commitRtt, peer, fixed).timeout();
+    }
+
+    // a reply from the peer to a request sent at sentAt (System.nanoTime())
+    protected void sampleRtt(ActorRef peer, long sentAt, int fixed) {
+        if (config.adaptiveTimeouts)
+            estimator(rtt, peer, fixed).sample(System.nanoTime() - sentAt);
+    }
+
+    protected void sampleCommitRtt(ActorRef peer, long sentAt, int fixed) {
+        sampleCommitRtt(peer, sentAt, fixed, 1);
+    }
+
+    // the same, for a vote that went down and up a COMMIT_FANOUT subtree: the estimate is per level
+    protected void sampleCommitRtt(ActorRef peer, long sentAt, int fixed, int levels) {
+        if (config.adaptiveTimeouts)
+            estimator(commitRtt, peer, fixed).sample((System.nanoTime() - sentAt) / levels);
+    }
+
+    // the peer did not answer in time: wait longer for it next time
+    protected void backOff(ActorRef peer, boolean commit, int fixed) {
+        if (config.adaptiveTimeouts)
+            estimator(commit ? commitRtt : rtt, peer, fixed).backOff();
+    }
+
+    private RttEstimator estimator(Map<ActorRef, RttEstimator> estimators, ActorRef peer, int fixed) {
+        return estimators.computeIfAbsent(peer, p -> new RttEstimator(fixed, config.minTimeout, config.maxTimeout));
+    }
+
+    // a message from the peer
+    protected void heardFrom(ActorRef peer, Message msg) {
+        peerEpochs.merge(peer, msg.getSenderEpoch(), Math::max);
+    }
+
+    protected int epochOf(ActorRef peer) {
+        return peerEpochs.getOrDefault(peer, 0);
+    }
+
+    /*-- Failure detector ---------------------------------------------------- */
+
+    // start sending heartbeats every HEARTBEAT_INTERVAL (if enabled)
+    protected void startHeartbeats() {
+        if (config.heartbeatInterval <= 0 || heartbeatTicker != null)
+            return;
+        heartbeatTicker = getContext().system().scheduler().scheduleWithFixedDelay(
+                Duration.create(config.heartbeatInterval, TimeUnit.MILLISECONDS),
+                Duration.create(config.heartbeatInterval, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new Message.HeartbeatTick(),
+                getContext().dispatcher(), getSelf()
+        );
+    }
+
+    @Override
+    public void postStop() {
+        if (heartbeatTicker != null)
+            heartbeatTicker.cancel();
+    }
+
+    // the peers we send heartbeats to
+    protected abstract Collection<ActorRef> heartbeatTargets();
+
+    // the failure detector suspects the peer has crashed
+    protected abstract void onSuspected(ActorRef peer);
+
+    // the peers we have received heartbeats from
+    protected Collection<ActorRef> monitoredPeers() {
+        return new ArrayList<>(detectors.keySet());
+    }
+
+    protected boolean isSuspected(ActorRef peer) {
+        return suspected.contains(peer);
+    }
+
+    // forget what we knew about the peers (e.g. after a crash, when their heartbeats were not received)
+    protected void resetFailureDetector() {
+        detectors.clear();
+        suspected.clear();
+    }
+
+    public void onHeartbeatTick(Message.HeartbeatTick msg) {
+        // heartbeats are not delayed by sendMessage: a delay of the sender only looks like a slow peer
+        Message.HeartbeatMsg heartbeat = new Message.HeartbeatMsg();
+        heartbeat.setSenderEpoch(epoch);
+        for (ActorRef peer : heartbeatTargets())
+            peer.tell(heartbeat, getSelf());
+
+        long now = System.nanoTime();
+        for (Map.Entry<ActorRef, PhiAccrualDetector> entry : detectors.entrySet()) {
+            ActorRef peer = entry.getKey();
+            if (!suspected.contains(peer) && entry.getValue().phi(now) > config.phiThreshold) {
+                suspected.add(peer);
+                metrics.count(Metrics.Counter.SUSPECTED);
+                if (Category.NODE.on(Level.INFO))
+                    print("SUSPECTING " + peer.path().name());
+                onSuspected(peer);
+            }
+        }
+    }
+
+    public void onHeartbeatMsg(Message.HeartbeatMsg msg) {
+        heardFrom(getSender(), msg);
+        long now = System.nanoTime();
+        PhiAccrualDetector detector = detectors.get(getSender());
+        if (detector == null)
+            detectors.put(getSender(), new PhiAccrualDetector(config.heartbeatInterval, now));
+        else
+            detector.heartbeat(now);
+        if (suspected.remove(getSender()) && Category.NODE.on(Level.INFO))
+            print("NOT SUSPECTING " + getSender().path().name() + " ANYMORE");
+    }
+
     // schedule a timeout for the transaction and return it
     protected Cancellable newTimeout(int time, Transaction transaction) {
+        return newTimeout(time, transaction, null);
+    }
+
+    // the same, waiting for the peer
+    protected Cancellable newTimeout(int time, Transaction transaction, ActorRef peer) {
         return getContext().system().scheduler().scheduleOnce(
                 Duration.create(time, TimeUnit.MILLISECONDS),
                 getSelf(),
-                new CoordinatorServerMessage.TimeoutMsg(transaction), // the message to send
-                getContext().system().dispatcher(), getSelf()
+                new CoordinatorServerMessage.TimeoutMsg(transaction, peer), // the message to send
+                getContext().dispatcher(), getSelf()
         );
     }
 
@@ -203,14 +368,23 @@ public abstract class Node extends AbstractActor {
     protected abstract void onRecoveryMsg(CoordinatorServerMessage.RecoveryMsg msg);
 
 
-    // on termination protocol answer if the decision is known
-    public void onDecisionRequest(CoordinatorServerMessage.DecisionRequest msg) {  /* Decision Request */
-        Transaction transaction = msg.transaction;
-        if (hasDecided(transaction))
-            reply(new CoordinatorServerMessage.DecisionResponse(transaction, transaction2decision.get(transaction)));
-        // just ignore if we don't know the decision
+    // on termination protocol answer with the decisions we know
+    public void onBatchDecisionRequest(CoordinatorServerMessage.BatchDecisionRequest msg) {  /* Decision Request */
+        Map<Transaction, CoordinatorServerMessage.Decision> known = new HashMap<>();
+        for (Transaction transaction : msg.transactions) {
+            if (hasDecided(transaction))
+                known.put(transaction, transaction2decision.get(transaction));
+        }
+        // just ignore the ones we don't know
+        if (!known.isEmpty())
+            reply(new CoordinatorServerMessage.BatchDecisionResponse(known));
     }
 
     public abstract void onCheckCorrectness(Message.CheckCorrectness msg);
 
+    // answer with a snapshot of the metrics collected so far (also while crashed, the run is not affected)
+    public void onMetricsRequest(Message.MetricsRequest msg) {
+        getSender().tell(new Message.MetricsResponse(msg.round, metrics.snapshot()), getSelf());
+    }
+
 }
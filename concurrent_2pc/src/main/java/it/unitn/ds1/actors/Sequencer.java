@@ -0,0 +1,86 @@
+package it.unitn.ds1.actors;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.messages.ClientCoordinatorMessage;
+import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.messages.SequencerMessage;
+import it.unitn.ds1.transactions.Transaction;
+import scala.concurrent.duration.Duration;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Deterministic execution (EXECUTION=calvin): the transactions submitted during an epoch of EPOCH_LENGTH ms
+// take the next places of the global order, and each server gets the ones touching its partition. Since all
+// the servers run them in the same order, there is nothing to vote on. The sequencer does not crash.
+public class Sequencer extends AbstractActor {
+    private final Config config;
+    private List<ActorRef> servers;
+    private final List<SequencerMessage.Sequenced> current = new ArrayList<>();
+    private int epoch = 0;
+    private Cancellable ticker;
+
+    public Sequencer(Config config) {
+        this.config = config;
+    }
+
+    static public Props props(Config config) {
+        return Props.create(Sequencer.class, () -> new Sequencer(config));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Message.WelcomeMsg.class, this::onWelcomeMsg)
+                .match(SequencerMessage.SubmitMsg.class, this::onSubmitMsg)
+                .match(SequencerMessage.EpochTick.class, this::onEpochTick)
+                // a client gave up waiting: the transaction is in the order anyway
+                .match(ClientCoordinatorMessage.TxnEndMsg.class, msg -> {
+                })
+                .build();
+    }
+
+    @Override
+    public void postStop() {
+        if (ticker != null)
+            ticker.cancel();
+    }
+
+    private void onWelcomeMsg(Message.WelcomeMsg msg) {
+        servers = new ArrayList<>(msg.group);
+        ticker = getContext().system().scheduler().scheduleWithFixedDelay(
+                Duration.create(config.epochLength, TimeUnit.MILLISECONDS),
+                Duration.create(config.epochLength, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new SequencerMessage.EpochTick(),
+                getContext().dispatcher(), getSelf()
+        );
+    }
+
+    private void onSubmitMsg(SequencerMessage.SubmitMsg msg) {
+        current.add(new SequencerMessage.Sequenced(new Transaction.ModifiableTransaction(msg.clientId, msg.numAttemptedTxn),
+                getSender(), msg.calls, System.nanoTime()));
+    }
+
+    // close the epoch: each server gets its part of the batch (none if it has nothing to do)
+    private void onEpochTick(SequencerMessage.EpochTick msg) {
+        if (current.isEmpty())
+            return;
+        Map<Integer, List<SequencerMessage.Sequenced>> batches = new TreeMap<>();
+        for (SequencerMessage.Sequenced t : current) {
+            for (Integer key : t.keys) {
+                List<SequencerMessage.Sequenced> batch = batches.computeIfAbsent(key / config.dbSize, k -> new ArrayList<>());
+                if (batch.isEmpty() || batch.get(batch.size() - 1) != t)
+                    batch.add(t);
+            }
+        }
+        for (Map.Entry<Integer, List<SequencerMessage.Sequenced>> entry : batches.entrySet())
+            servers.get(entry.getKey()).tell(new SequencerMessage.BatchMsg(epoch, entry.getValue()), getSelf());
+        epoch++;
+        current.clear();
+    }
+}
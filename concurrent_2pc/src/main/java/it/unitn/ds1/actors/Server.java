@@ -1,17 +1,36 @@
 package it.unitn.ds1.actors;
 
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
-import it.unitn.ds1.Main;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.calvin.DeterministicScheduler;
+import it.unitn.ds1.cc.ConcurrencyControl;
+import it.unitn.ds1.cc.ConflictGraph;
+import it.unitn.ds1.cc.Dependencies;
+import it.unitn.ds1.cc.Escrow;
+import it.unitn.ds1.cc.Reservations;
+import it.unitn.ds1.commit.CommitTree;
+import it.unitn.ds1.logging.Category;
+import it.unitn.ds1.logging.Level;
+import it.unitn.ds1.messages.ClientCoordinatorMessage;
 import it.unitn.ds1.messages.CoordinatorServerMessage;
 import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.messages.ReplicationMessage;
+import it.unitn.ds1.messages.SequencerMessage;
+import it.unitn.ds1.messages.TimeoutMessages;
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.procedures.Procedure;
 import it.unitn.ds1.resources.Resource;
 import it.unitn.ds1.resources.WorkspaceResource;
 import it.unitn.ds1.transactions.ServerTransaction;
 import it.unitn.ds1.transactions.Transaction;
 import it.unitn.ds1.transactions.Workspace;
 
+import scala.concurrent.duration.Duration;
+
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 
 public class Server extends Node {
@@ -52,51 +71,212 @@ public class Server extends Node {
 
     // initial resource value
     public static final Integer DEFAULT_VALUE = 100;
-    // number of resources handled
-    public static final Integer DB_SIZE = 10;
     // server db
     private final Map<Integer, Resource> database;
     // server transaction info
     private final Map<Transaction, ServerTransaction> transactionMap = new HashMap<>();
-    // resources contained in a transaction for which the server voted commit and not decided yet
-    private final Map<Integer, Transaction> pendingResource = new HashMap<>();
+    // isolation of the transactions (CONCURRENCY_CONTROL), and the reads and writes waiting for it to let
+    // their transaction go on, in arrival order
+    private final ConcurrencyControl cc;
+    private final Escrow escrow;
+    private final Reservations reservations;
+    // speculative reads: which transactions read or validated against prepared ones, and their vote requests
+    // waiting for them to be decided
+    private final Dependencies dependencies = new Dependencies();
+    private final Map<Transaction, CoordinatorServerMessage.VoteRequest> speculativeVotes = new HashMap<>();
+
+    // tree commit (COMMIT_FANOUT): the vote of the subtree below us, for each transaction we passed the
+    // vote request down
+    private static class SubtreeVote {
+        final ActorRef parent;                          // where the vote of the whole subtree goes
+        final Map<ActorRef, List<ActorRef>> children;   // the servers we asked, with the ones below them
+        final Set<ActorRef> waiting;                    // children which did not vote YES yet
+        CoordinatorServerMessage.Vote own;              // our own vote, null until we vote
+        boolean sent;
+
+        SubtreeVote(ActorRef parent, Map<ActorRef, List<ActorRef>> children) {
+            this.parent = parent;
+            this.children = children;
+            this.waiting = new HashSet<>(children.keySet());
+        }
+    }
+
+    private final Map<Transaction, SubtreeVote> subtreeVotes = new HashMap<>();
+    // EXECUTION=calvin: the transactions of the sequencer, run in its order
+    private final DeterministicScheduler sequenced;
+    private final Map<Transaction, Deque<CoordinatorServerMessage.TransactionAction>> blocked = new HashMap<>();
+
+    // termination protocol: the READY transactions whose decision we are asking, and those to ask
+    // in the next batch. Queries go in one BatchDecisionRequest per peer and are repeated with
+    // exponential backoff until the decision is known.
+    private static class DecisionQuery {
+        final long startedAt = System.nanoTime();
+        int attempts = 0;
+        long nextAt; // System.nanoTime() of the next retry
+    }
+
+    private final Map<Transaction, DecisionQuery> decisionQueries = new HashMap<>();
+    private final Set<Transaction> toAsk = new LinkedHashSet<>();
+    private boolean flushScheduled = false;
+    private Cancellable retryTimer;
+    // batch validation (VOTE_BATCH_WINDOW): vote requests waiting for the end of the window, and when they came
+    private final Map<CoordinatorServerMessage.VoteRequest, Long> voteBatch = new LinkedHashMap<>();
+    private Cancellable voteBatchTimer;
+    private long retryAt;
+    // non-blocking commit: the coordinators which can finish a transaction as backups
+    private List<ActorRef> acceptors = new ArrayList<>();
 
-    public Server(int id, Set<Node.CrashPhase> crashPhases) {
-        super(id, crashPhases);
+    // primary-backup replication (REPLICATION=true): all the servers, and the partition (the keys of the
+    // previous server) we keep a copy of, -1 without replication
+    private List<ActorRef> servers;
+    private final int backupOf;
+    // the transactions prepared by its primary, to finish them if we take over
+    private final Map<Transaction, ServerTransaction> shadows = new HashMap<>();
+    // whether we serve that partition while its primary is down, the transactions of the primary we adopted
+    // then, and the decisions we took on them (kept for its catch-up, even if it has to ask more than once)
+    private boolean acting = false;
+    private final Set<Transaction> adopted = new HashSet<>();
+    private final Map<Transaction, CoordinatorServerMessage.Decision> resolved = new HashMap<>();
+    // a primary votes YES on its partition only until leaseUntil (System.nanoTime()), renewed by the backup;
+    // a backup grants no lease from when it fences the primary, and serves the partition once the primary
+    // acknowledged the fence of that epoch or the last lease it granted expired
+    private long leaseUntil;
+    private Cancellable leaseTicker;
+    private long lastGrantAt;
+    private boolean fencing = false;
+    private int fenceEpoch;
+    private Cancellable fenceTimer;
+    // the versions of the partition when we took it over, to find the keys we changed; and without the failure
+    // detector, until when we do not take it over again after giving it back
+    private final Map<Integer, Integer> versionsAtTakeOver = new HashMap<>();
+    private long holdDownUntil;
+    // after a crash (or a fence) we do not serve our partition until we caught up with the backup
+    private boolean catchingUp = false;
+    private long catchUpStartedAt;
+    private Cancellable catchUpTimer;
+    // crashed, so that our partition may be stale until we recover and catch up; the checker waiting for our sum
+    private boolean down = false;
+    private ActorRef checkRequester;
+
+    public Server(int id, Set<Node.CrashPhase> crashPhases, Config config) {
+        super(id, crashPhases, config);
         database = new HashMap<>();
-        for (int i = id * DB_SIZE; i < (id + 1) * DB_SIZE; i++)
+        for (int i = id * config.dbSize; i < (id + 1) * config.dbSize; i++)
             database.put(i, new Resource(DEFAULT_VALUE, 0));
+        // the copy of the previous partition starts equal to it, then gets the writes its primary commits
+        backupOf = config.replication && config.nServer > 1 ? (id + config.nServer - 1) % config.nServer : -1;
+        if (backupOf >= 0) {
+            for (int i = backupOf * config.dbSize; i < (backupOf + 1) * config.dbSize; i++)
+                database.put(i, new Resource(DEFAULT_VALUE, 0));
+        }
+        cc = ConcurrencyControl.create(config, database, metrics);
+        escrow = new Escrow(database, metrics);
+        reservations = new Reservations(config.starvationAborts, metrics);
+        sequenced = new DeterministicScheduler(id, config.dbSize, database);
     }
 
-    static public Props props(int id, Set<CrashPhase> crashPhases) {
-        return Props.create(Server.class, () -> new Server(id, crashPhases));
+    static public Props props(int id, Set<CrashPhase> crashPhases, Config config) {
+        return Props.create(Server.class, () -> new Server(id, crashPhases, config));
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(CoordinatorServerMessage.VoteRequest.class, this::onVoteRequest)
-                .match(CoordinatorServerMessage.DecisionRequest.class, this::onDecisionRequest)
+                .match(CoordinatorServerMessage.VoteResponse.class, this::onVoteResponse)
+                .match(CoordinatorServerMessage.BatchDecisionRequest.class, this::onBatchDecisionRequest)
+                .match(CoordinatorServerMessage.BatchDecisionResponse.class, this::onBatchDecisionResponse)
+                .match(TimeoutMessages.Server.FlushDecisionRequestsMsg.class, this::onFlushDecisionRequestsMsg)
+                .match(TimeoutMessages.Server.FlushVotesMsg.class, this::onFlushVotesMsg)
+                .match(TimeoutMessages.Server.ResumeVoteMsg.class, this::onResumeVoteMsg)
+                .match(TimeoutMessages.Server.RetryDecisionRequestsMsg.class, this::onRetryDecisionRequestsMsg)
                 .match(CoordinatorServerMessage.DecisionResponse.class, this::onDecisionResponse)
                 .match(CoordinatorServerMessage.TimeoutMsg.class, this::onTimeout)
                 .match(CoordinatorServerMessage.RecoveryMsg.class, this::onRecoveryMsg)
                 .match(CoordinatorServerMessage.TransactionRead.class, this::onTransactionRead)
                 .match(CoordinatorServerMessage.TransactionWrite.class, this::onTransactionWrite)
+                .match(CoordinatorServerMessage.TransactionDelta.class, this::onTransactionDelta)
+                .match(CoordinatorServerMessage.TransactionCall.class, this::onTransactionCall)
+                .match(SequencerMessage.BatchMsg.class, this::onBatchMsg)
+                .match(SequencerMessage.LocalReadsMsg.class, this::onLocalReadsMsg)
                 .match(Message.CheckCorrectness.class, this::onCheckCorrectness)
+                .match(Message.MetricsRequest.class, this::onMetricsRequest)
+                .match(Message.HeartbeatTick.class, this::onHeartbeatTick)
+                .match(Message.HeartbeatMsg.class, this::onHeartbeatMsg)
+                .match(Message.CrashMsg.class, this::onCrashMsg)
+                .match(Message.AcceptorsMsg.class, this::onAcceptorsMsg)
+                .match(Message.WelcomeMsg.class, this::onWelcomeMsg)
+                .match(ReplicationMessage.ReplicaPrepare.class, this::onReplicaPrepare)
+                .match(ReplicationMessage.ReplicaDecision.class, this::onReplicaDecision)
+                .match(ReplicationMessage.FenceMsg.class, this::onFenceMsg)
+                .match(ReplicationMessage.FenceAck.class, this::onFenceAck)
+                .match(ReplicationMessage.LeaseRequest.class, this::onLeaseRequest)
+                .match(ReplicationMessage.LeaseGrant.class, this::onLeaseGrant)
+                .match(TimeoutMessages.Server.LeaseTickMsg.class, this::onLeaseTickMsg)
+                .match(TimeoutMessages.Server.FenceTimeoutMsg.class, this::onFenceTimeoutMsg)
+                .match(ReplicationMessage.CatchUpRequest.class, this::onCatchUpRequest)
+                .match(ReplicationMessage.CatchUpResponse.class, this::onCatchUpResponse)
+                .match(TimeoutMessages.Server.RetryCatchUpMsg.class, this::onRetryCatchUpMsg)
                 .build();
     }
 
-    // schedule a Timeout message in specified time
-    void setTimeout(int time, Transaction transaction) {
-        if (Main.SERVER_DEBUG_SET_TIMEOUT)
+    @Override
+    public void preStart() {
+        startHeartbeats();
+    }
+
+    @Override
+    public void postStop() {
+        super.postStop();
+        if (leaseTicker != null)
+            leaseTicker.cancel();
+    }
+
+    @Override
+    protected void crash(int recoverIn, CrashPhase crashPhase) throws CrashException {
+        down = true;
+        super.crash(recoverIn, crashPhase);
+    }
+
+    // answer the heartbeats of the coordinators; with replication, also watch the primary of our copy
+    @Override
+    protected Collection<ActorRef> heartbeatTargets() {
+        Collection<ActorRef> targets = monitoredPeers();
+        if (replicated() && !targets.contains(servers.get(backupOf)))
+            targets.add(servers.get(backupOf));
+        return targets;
+    }
+
+    // a coordinator is suspected dead: abort its transactions we have not voted for yet,
+    // and ask for the decision of those we voted YES without waiting for the timeout
+    @Override
+    protected void onSuspected(ActorRef coordinator) {
+        for (Transaction transaction : new HashSet<>(pendingTransactions)) {
+            ServerTransaction t = transactionMap.get(transaction);
+            if (!coordinator.equals(t.getCoordinator()))
+                continue;
+            if (t.getState() == Transaction.State.INIT) {
+                metrics.count(Metrics.Counter.ABORT_SUSPECTED);
+                fixDecision(transaction, CoordinatorServerMessage.Decision.ABORT);
+            } else {
+                unsetTimeout(transaction);
+                terminationProtocol(t);
+            }
+        }
+    }
+
+    // schedule a Timeout message in specified time, waiting for the decision from the peer
+    void setTimeout(int time, Transaction transaction, ActorRef peer) {
+        if (Category.SERVER.on(Level.TRACE))
             print("SET TIMEOUT FOR TXN " + transaction.getTxnId());
         ServerTransaction t = transactionMap.get(transaction);
-        t.setTimeout(newTimeout(time, t));
+        t.setWaitingFor(peer);
+        t.setTimeout(newTimeout(time, t, peer));
     }
 
     protected void unsetTimeout(Transaction transaction) {
         ServerTransaction t = transactionMap.get(transaction);
-        if (Main.SERVER_DEBUG_UNSET_TIMEOUT)
+        if (Category.SERVER.on(Level.TRACE))
             print("UNSET TIMEOUT FOR TXN " + t.getTxnId());
         if (t.getTimeout() != null)
             t.getTimeout().cancel();
@@ -106,29 +286,39 @@ public class Server extends Node {
     protected void sendMessage(ActorRef to, CoordinatorServerMessage msg, Boolean setTimeout) {
         super.sendMessage(to, msg);
         if (setTimeout)
-            setTimeout(Main.SERVER_TIMEOUT, msg.transaction);
+            setTimeout(commitTimeoutFor(to, config.serverTimeout), msg.transaction, to);
     }
 
     protected void reply(CoordinatorServerMessage msg, Boolean setTimeout) {
         sendMessage(getSender(), msg, setTimeout);
     }
 
-    void multicast(CoordinatorServerMessage m, Collection<ActorRef> group, Boolean setTimeout, Class phase) throws CrashException {
+    // send the decision queries, one message per peer; we may crash during the sending
+    void multicast(Map<ActorRef, List<Transaction>> batches, Class phase) throws CrashException {
         CrashPhase zeroMsg = getZeroMsgCrashPhase(phase);
         CrashPhase rndMsg = getRndMsgCrashPhase(phase);
         CrashPhase allMsg = getAllMsgCrashPhase(phase);
 
         if (zeroMsg != null)
             maybeCrash(zeroMsg);
-        for (ActorRef p : group) {
-            if (rndMsg != null)
-                maybeCrash(rndMsg);
-            sendMessage(p, m);
+        for (Map.Entry<ActorRef, List<Transaction>> batch : batches.entrySet()) {
+            // without TERMINATION_BATCHING each transaction goes in a request of its own
+            List<List<Transaction>> requests = new ArrayList<>();
+            if (config.terminationBatching)
+                requests.add(batch.getValue());
+            else
+                for (Transaction transaction : batch.getValue())
+                    requests.add(Collections.singletonList(transaction));
+            for (List<Transaction> request : requests) {
+                if (rndMsg != null)
+                    maybeCrash(rndMsg);
+                sendMessage(batch.getKey(), new CoordinatorServerMessage.BatchDecisionRequest(request));
+                metrics.count(Metrics.Counter.TERMINATION_REQUESTS);
+                metrics.count(Metrics.Counter.TERMINATION_QUERIES, request.size());
+            }
         }
         if (allMsg != null)
             maybeCrash(allMsg);
-        if (setTimeout)
-            setTimeout(Main.SERVER_TIMEOUT, m.transaction);
     }
 
     @Override
@@ -139,16 +329,8 @@ public class Server extends Node {
     // check if the transaction can be committed
     private Boolean canCommit(Transaction transaction) {
         if (!hasDecided(transaction)) {
-            Workspace workspace = transactionMap.get(transaction).getWorkspace();
-
-            for (Map.Entry<Integer, WorkspaceResource> entry : workspace.entrySet()) {
-                Integer version = entry.getValue().getVersion();
-                Integer key = entry.getKey();
-                if (version != database.get(key).getVersion() || pendingResource.containsKey(key)) {
-                    return false;
-                }
-            }
-            return true;
+            ServerTransaction t = transactionMap.get(transaction);
+            return holdsLease(t) && reservations.validate(t) && cc.validate(t) && escrow.validate(t);
         } else { // server has already decided to abort
             return false;
         }
@@ -166,21 +348,80 @@ public class Server extends Node {
     // lock the resources for this transaction
     // While resources are locked, no other transaction containing them can
     // be committed, hence the server will vote abort for them
+    // (an adopted transaction may take them from transactions which did not vote yet: abort them, and tell
+    // their coordinator at once)
     private void lockResources(Transaction transaction) {
-        Workspace workspace = transactionMap.get(transaction).getWorkspace();
-        for (Integer key : workspace.keySet()) {
-            pendingResource.put(key, transaction);
+        for (Transaction preempted : cc.hold(transactionMap.get(transaction))) {
+            if (Category.SERVER.on(Level.DEBUG))
+                print("ADOPTED TXN " + transaction.getTxnId() + " TAKES THE LOCKS OF TXN " + preempted.getTxnId());
+            fixDecision(preempted, CoordinatorServerMessage.Decision.ABORT);
+            sendMessage(transactionMap.get(preempted).getCoordinator(), new CoordinatorServerMessage.ConflictAbortMsg(preempted));
         }
+        escrow.hold(transactionMap.get(transaction));
+        transactionMap.get(transaction).setLockedAt(System.nanoTime());
     }
 
-    // unlocks the resources for this transaction
+    // unlocks the resources for this transaction, and let go on the transactions waiting for them
     private void unlockResources(Transaction transaction) {
-        Workspace workspace = transactionMap.get(transaction).getWorkspace();
-        for (Integer key : workspace.keySet()) {
-            if (pendingResource.get(key) != null && pendingResource.get(key).equals(transaction)) {
-                pendingResource.remove(key);
+        ServerTransaction t = transactionMap.get(transaction);
+        escrow.release(t);
+        reservations.release(t);
+        for (Transaction waiting : cc.release(t))
+            resume(waiting);
+        if (t.getLockedAt() != 0) {
+            metrics.timer(Metrics.Timer.LOCK_HOLD).recordSince(t.getLockedAt());
+            t.setLockedAt(0);
+        }
+    }
+
+    // concurrency control: queue the action behind those of the transaction still waiting, or if it has to
+    // wait itself; abort the transaction (and tell the coordinator at once) if it cannot go on
+    private boolean mustWait(CoordinatorServerMessage.TransactionAction msg) {
+        Deque<CoordinatorServerMessage.TransactionAction> queue = blocked.get(msg.transaction);
+        if (queue != null) {
+            queue.add(msg);
+            return true;
+        }
+        // deltas commute: the escrow checks them at the vote
+        if (msg instanceof CoordinatorServerMessage.TransactionDelta || (msg instanceof CoordinatorServerMessage.TransactionCall
+                && Procedure.get(((CoordinatorServerMessage.TransactionCall) msg).procedure).onlyAdds()))
+            return false;
+        ServerTransaction t = getOrCreateTransaction(msg.transaction);
+        // a procedure may write any of its keys
+        boolean write = !(msg instanceof CoordinatorServerMessage.TransactionRead);
+        for (Integer key : keysOf(msg)) {
+            switch (cc.access(t, key, write)) {
+                case WAIT:
+                    if (Category.SERVER.on(Level.TRACE))
+                        print("TXN " + msg.transaction.getTxnId() + " WAITS FOR KEY " + key);
+                    blocked.computeIfAbsent(msg.transaction, k -> new ArrayDeque<>()).add(msg);
+                    return true;
+                case ABORT:
+                    if (Category.SERVER.on(Level.DEBUG))
+                        print("CONFLICT ON KEY " + key + ", ABORTING TXN " + msg.transaction.getTxnId());
+                    fixDecision(msg.transaction, CoordinatorServerMessage.Decision.ABORT);
+                    reply(new CoordinatorServerMessage.ConflictAbortMsg(msg.transaction));
+                    return true;
             }
         }
+        return false;
+    }
+
+    // the keys a read, write, delta or procedure call accesses
+    private List<Integer> keysOf(CoordinatorServerMessage.TransactionAction msg) {
+        if (msg instanceof CoordinatorServerMessage.TransactionCall)
+            return ((CoordinatorServerMessage.TransactionCall) msg).keys;
+        return Collections.singletonList(msg.key);
+    }
+
+    // the transaction can go on: handle again its waiting actions, in order, as if they came from the coordinator
+    private void resume(Transaction transaction) {
+        Deque<CoordinatorServerMessage.TransactionAction> queue = blocked.remove(transaction);
+        if (queue == null)
+            return;
+        ActorRef coordinator = transactionMap.get(transaction).getCoordinator();
+        for (CoordinatorServerMessage.TransactionAction msg : queue)
+            getSelf().tell(msg, coordinator);
     }
 
     // updates the 'official' database with the values contained in the private workspace for the transaction
@@ -193,84 +434,524 @@ public class Server extends Node {
             Integer version = entry.getValue().getVersion();
             Boolean changed = entry.getValue().getChanged();
 
-            assert (version.equals(database.get(key).getVersion()));
+            // the versions written are current; those read too, unless the engine commits over overwritten reads
+            assert (version.equals(database.get(key).getVersion()) || (!changed && !cc.readsStayCurrent()));
             if (changed) {
                 database.get(key).setValue(value);
                 // increment version number only if the value has been written.
                 database.get(key).setVersion(version + 1);
             }
         }
+        applyDeltas(transactionMap.get(transaction));
+        cc.committed(transactionMap.get(transaction));
+    }
+
+    // add the deltas of a committed transaction to the values, whatever they are now (a new version anyway,
+    // so that the transactions which read the old value do not validate)
+    private void applyDeltas(ServerTransaction t) {
+        for (Map.Entry<Integer, Integer> entry : t.getDeltas().entrySet()) {
+            Resource r = database.get(entry.getKey());
+            r.setValue(r.getValue() + entry.getValue());
+            r.setVersion(r.getVersion() + 1);
+        }
     }
 
     private void fixDecision(Transaction transaction, CoordinatorServerMessage.Decision d) {
+        boolean prepared = transactionMap.containsKey(transaction)
+                && transactionMap.get(transaction).getState() == Transaction.State.READY;
+        // with the priority mailbox an abort may overtake the first reads and writes of the transaction:
+        // remember it, so that they are ignored when they arrive
+        if (!hasDecided(transaction) && !transactionMap.containsKey(transaction)) {
+            transaction2decision.put(transaction, d);
+            if (Category.SERVER.on(Level.DEBUG))
+                print("DECIDED " + d + " ON UNKNOWN TXN " + transaction.getTxnId());
+        }
         if (!hasDecided(transaction) && transactionMap.containsKey(transaction)) {
             transaction2decision.put(transaction, d);
             transactionMap.get(transaction).setState(Transaction.State.DECIDED);
 
-            if (Main.SERVER_DEBUG_DECIDED)
+            if (Category.SERVER.on(Level.DEBUG))
                 print("DECIDED " + d + " ON TXN " + transaction.getTxnId());
             if (d == CoordinatorServerMessage.Decision.COMMIT) {
                 commitWorkspace(transaction);
+                metrics.count(Metrics.Counter.COMMIT);
             }
+            transactionMap.get(transaction).setDeferredVote(null);
+            blocked.remove(transaction);
             freeWorkspace(transaction);
+            DecisionQuery query = decisionQueries.remove(transaction);
+            if (query != null)
+                metrics.timer(Metrics.Timer.TERMINATION).recordSince(query.startedAt);
+            toAsk.remove(transaction);
+            // replication: our backup applies the writes we prepared, or keeps the decision for our catch-up
+            // if we prepared them for our own crashed primary
+            if (adopted.remove(transaction))
+                resolved.put(transaction, d);
+            else if (prepared && replicated())
+                sendMessage(backup(), new ReplicationMessage.ReplicaDecision(transaction, d));
+            speculativeVotes.remove(transaction);
+            subtreeVotes.remove(transaction);
+            resolveDependents(transaction, d);
         }
 
     }
 
-    private void terminationProtocol(Transaction transaction) throws CrashException {
-        ServerTransaction t = transactionMap.get(transaction);
-        // ask the decision to everyone server of the transaction and the coordinator too
-        List<ActorRef> dest = new ArrayList<>(t.getServers());
-        dest.add(t.getCoordinator());
-        multicast(new CoordinatorServerMessage.DecisionRequest(t), dest, true, CrashDuring2PC.CrashDuringTermination.class);
+    // speculative reads: the transactions which depended on a decided one abort with it (and tell their
+    // coordinator at once), or vote if it was the last one they were waiting for
+    private void resolveDependents(Transaction transaction, CoordinatorServerMessage.Decision d) {
+        for (Transaction dependent : dependencies.resolve(transaction)) {
+            if (hasDecided(dependent))
+                continue;
+            if (d == CoordinatorServerMessage.Decision.ABORT) {
+                if (Category.SERVER.on(Level.DEBUG))
+                    print("ABORTING TXN " + dependent.getTxnId() + " WITH TXN " + transaction.getTxnId());
+                metrics.count(Metrics.Counter.ABORT_CASCADE);
+                fixDecision(dependent, CoordinatorServerMessage.Decision.ABORT);
+                sendMessage(transactionMap.get(dependent).getCoordinator(), new CoordinatorServerMessage.ConflictAbortMsg(dependent));
+            } else if (!dependencies.isWaiting(dependent) && speculativeVotes.containsKey(dependent)) {
+                getSelf().tell(new TimeoutMessages.Server.ResumeVoteMsg(dependent), getSelf());
+            }
+        }
+    }
+
+    private void onResumeVoteMsg(TimeoutMessages.Server.ResumeVoteMsg msg) {
+        CoordinatorServerMessage.VoteRequest request = speculativeVotes.get(msg.transaction);
+        if (request == null || dependencies.isWaiting(msg.transaction))
+            return;
+        speculativeVotes.remove(msg.transaction);
+        try {
+            castVote(request, transactionMap.get(msg.transaction).getCoordinator());
+        } catch (CrashException e) {
+        }
+    }
+
+    // speculative reads: instead of voting NO on the keys held by prepared transactions, wait for their decision,
+    // if the transaction comes after them and read what they are going to write (or the same versions, for the keys
+    // they only read); true if it has to wait
+    private boolean waitsForPrepared(ServerTransaction t) {
+        List<Transaction> holders = new ArrayList<>();
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            Integer key = entry.getKey();
+            Transaction holder = cc.preparedHolder(key);
+            if (holder == null || holder.equals(t)) {
+                if (!entry.getValue().getVersion().equals(database.get(key).getVersion()))
+                    return false;
+                continue;
+            }
+            WorkspaceResource prepared = transactionMap.get(holder).getWorkspace().get(key);
+            int version = prepared.getVersion() + (prepared.getChanged() ? 1 : 0);
+            if (!Dependencies.precedes(holder, t) || entry.getValue().getVersion() != version)
+                return false;
+            holders.add(holder);
+        }
+        for (Transaction holder : holders)
+            dependencies.add(t, holder);
+        return dependencies.isWaiting(t);
+    }
+
+    // speculative reads: the value a prepared transaction wrote on the key, as it will be once it commits
+    // (the reader then depends on it); null to read the database
+    private Resource speculativeRead(ServerTransaction t, int key) {
+        Transaction holder = cc.preparedHolder(key);
+        if (holder == null || holder.equals(t) || !Dependencies.precedes(holder, t))
+            return null;
+        WorkspaceResource written = transactionMap.get(holder).getWorkspace().get(key);
+        if (!written.getChanged())
+            return null;
+        dependencies.add(t, holder);
+        metrics.count(Metrics.Counter.SPECULATIVE_READ);
+        return new Resource(written.getValue(), written.getVersion() + 1);
+    }
+
+    // ask the decision to every other server of the transaction and the coordinator too, together with
+    // the other queries collected while handling this message; nothing to do if we are already asking
+    private void terminationProtocol(Transaction transaction) {
+        if (decisionQueries.containsKey(transaction))
+            return;
+        decisionQueries.put(transaction, new DecisionQuery());
+        toAsk.add(transaction);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            getSelf().tell(new TimeoutMessages.Server.FlushDecisionRequestsMsg(), getSelf());
+        }
+    }
+
+    // how long to wait for the answers before asking again: SERVER_TIMEOUT doubling at each attempt
+    // up to MAX_TERMINATION_BACKOFF, with some jitter so that the servers do not ask all together
+    private long backoff(int attempts) {
+        long ms = Math.min((long) config.serverTimeout << Math.min(attempts, 20), config.maxTerminationBackoff);
+        return (ms + r.nextInt(config.serverTimeout / 2 + 1)) * 1_000_000L;
+    }
+
+    // send the queries in toAsk, grouped by peer
+    private void askDecisions() {
+        Map<ActorRef, List<Transaction>> batches = new HashMap<>();
+        long now = System.nanoTime();
+        for (Transaction transaction : toAsk) {
+            if (hasDecided(transaction))
+                continue;
+            ServerTransaction t = transactionMap.get(transaction);
+            Set<ActorRef> dest = new HashSet<>(t.getServers());
+            dest.remove(getSelf());
+            dest.add(t.getCoordinator());
+            DecisionQuery query = decisionQueries.get(transaction);
+            // if the coordinator did not answer the first time (or is suspected), ask a backup too
+            if (config.nonBlockingCommit && (query.attempts > 0 || isSuspected(t.getCoordinator()))) {
+                ActorRef backup = backup(t.getCoordinator(), query.attempts);
+                if (backup != null)
+                    dest.add(backup);
+            }
+            for (ActorRef peer : dest)
+                batches.computeIfAbsent(peer, p -> new ArrayList<>()).add(transaction);
+            query.nextAt = now + backoff(query.attempts++);
+        }
+        toAsk.clear();
+        scheduleRetry();
+        if (Category.SERVER.on(Level.DEBUG) && !batches.isEmpty())
+            print("ASKING DECISIONS TO " + batches.size() + " PEER(S)");
+        try {
+            multicast(batches, CrashDuring2PC.CrashDuringTermination.class);
+        } catch (CrashException ignored) {
+        }
+    }
+
+    // a coordinator other than the one of the transaction, a different one at each attempt in case it
+    // crashed too; every server blocked on the transaction asks the same one, so that they do not compete
+    private ActorRef backup(ActorRef coordinator, int attempt) {
+        List<ActorRef> others = new ArrayList<>(acceptors);
+        others.remove(coordinator);
+        return others.isEmpty() ? null : others.get(attempt % others.size());
+    }
+
+    public void onAcceptorsMsg(Message.AcceptorsMsg msg) {
+        acceptors = new ArrayList<>(msg.acceptors);
+    }
+
+    // make sure we wake up for the earliest retry
+    private void scheduleRetry() {
+        long earliest = Long.MAX_VALUE;
+        for (DecisionQuery query : decisionQueries.values())
+            earliest = Math.min(earliest, query.nextAt);
+        if (earliest == Long.MAX_VALUE || (retryTimer != null && retryAt <= earliest))
+            return;
+        if (retryTimer != null)
+            retryTimer.cancel();
+        retryAt = earliest;
+        retryTimer = getContext().system().scheduler().scheduleOnce(
+                Duration.create(Math.max(0, earliest - System.nanoTime()), TimeUnit.NANOSECONDS),
+                getSelf(),
+                new TimeoutMessages.Server.RetryDecisionRequestsMsg(),
+                getContext().dispatcher(), getSelf()
+        );
+    }
+
+    private void onFlushDecisionRequestsMsg(TimeoutMessages.Server.FlushDecisionRequestsMsg msg) {
+        flushScheduled = false;
+        askDecisions();
+    }
+
+    private void onRetryDecisionRequestsMsg(TimeoutMessages.Server.RetryDecisionRequestsMsg msg) {
+        retryTimer = null;
+        long now = System.nanoTime();
+        for (Map.Entry<Transaction, DecisionQuery> entry : decisionQueries.entrySet()) {
+            if (entry.getValue().nextAt <= now)
+                toAsk.add(entry.getKey());
+        }
+        askDecisions();
+    }
+
+    // get the transaction, creating it if it is new (the sender is its coordinator)
+    private ServerTransaction getOrCreateTransaction(Transaction transaction) {
+        return getOrCreateTransaction(transaction, getSender());
+    }
+
+    private ServerTransaction getOrCreateTransaction(Transaction transaction, ActorRef coordinator) {
+        if (!transactionMap.containsKey(transaction)) {
+            ServerTransaction t = new ServerTransaction(transaction, coordinator);
+            transactionMap.put(transaction, t);
+            pendingTransactions.add(t);
+        }
+        return transactionMap.get(transaction);
     }
 
     // create workspace if the transaction is new, copy the resource in private workspace if
     // it is the first time it is accessed
     private WorkspaceResource processWorkspace(CoordinatorServerMessage.TransactionAction msg) {
-        // create workspace if the transaction is new
-        if (!transactionMap.containsKey(msg.transaction)) {
-            Integer clientId = msg.transaction.getClientId();
-            Integer clientAttemptedTxn = msg.transaction.getNumAttemptedTxn();
-            ServerTransaction transaction = new ServerTransaction(clientId, clientAttemptedTxn, getSender());
-            transactionMap.put(msg.transaction, transaction);
-            pendingTransactions.add(transaction);
+        ServerTransaction transaction = getOrCreateTransaction(msg.transaction);
+        transaction.countAction();
+        return workspaceResource(transaction, msg.key);
+    }
+
+    private WorkspaceResource workspaceResource(ServerTransaction transaction, int key) {
+        if (!transaction.getWorkspace().containsKey(key)) {
+            Resource r = config.speculativeReads ? speculativeRead(transaction, key) : null;
+            if (r == null)
+                r = (Resource) database.get(key).clone();
+            transaction.getWorkspace().put(key, new WorkspaceResource(r, false));
+            reservations.access(transaction, key);
         }
 
-        ServerTransaction transaction = transactionMap.get(msg.transaction);
-        if (!transaction.getWorkspace().containsKey(msg.key)) {
-            Resource r = (Resource) database.get(msg.key).clone();
-            transaction.getWorkspace().put(msg.key, new WorkspaceResource(r, false));
+        return transaction.getWorkspace().get(key);
+    }
+
+    // the value the transaction reads: with a delta on the key, the current value plus the delta (not validated)
+    private int readValue(ServerTransaction t, int key) {
+        if (t.getDeltas().containsKey(key))
+            return database.get(key).getValue() + t.getDeltas().get(key);
+        return workspaceResource(t, key).getValue();
+    }
+
+    private void addDelta(ServerTransaction t, int key, int delta) {
+        WorkspaceResource resource = t.getWorkspace().get(key);
+        if (resource != null && resource.getChanged()) {
+            // we overwrote the key already: add to what we wrote
+            resource.setValue(resource.getValue() + delta);
+        } else {
+            // a value we only read to choose the amount need not be validated any more
+            t.getWorkspace().remove(key);
+            t.getDeltas().merge(key, delta, Integer::sum);
         }
+    }
+
+    // admission control: refuse (and abort) a new transaction if we have too many pending
+    private boolean rejectIfBusy(CoordinatorServerMessage.TransactionAction msg) {
+        if (config.maxPendingServer <= 0 || transactionMap.containsKey(msg.transaction)
+                || pendingTransactions.size() < config.maxPendingServer)
+            return false;
+        if (Category.SERVER.on(Level.DEBUG))
+            print("BUSY, REJECTING TXN " + msg.transaction.getTxnId());
+        reject(msg);
+        return true;
+    }
 
-        return transaction.getWorkspace().get(msg.key);
+    // abort the transaction and tell the coordinator at once
+    private void reject(CoordinatorServerMessage.TransactionAction msg) {
+        fixDecision(msg.transaction, CoordinatorServerMessage.Decision.ABORT);
+        reply(new CoordinatorServerMessage.ServerBusyMsg(msg.transaction));
+    }
+
+    // replication: we get the keys of the previous server when the coordinators suspect it, then we fence it
+    // if we suspect it too, and serve its partition once it is fenced; our own keys are not served while we
+    // catch up after a crash
+    private boolean rejectIfNotServing(CoordinatorServerMessage.TransactionAction msg) {
+        for (Integer key : keysOf(msg)) {
+            int partition = key / config.dbSize;
+            if (partition == backupOf && !acting && !fencing && replicated() && primaryDown())
+                fence();
+            if ((partition == id && !catchingUp) || (partition == backupOf && acting))
+                continue;
+            if (Category.SERVER.on(Level.DEBUG))
+                print("NOT SERVING KEY " + key + ", REJECTING TXN " + msg.transaction.getTxnId());
+            reject(msg);
+            return true;
+        }
+        return false;
     }
 
     public void onTransactionRead(CoordinatorServerMessage.TransactionRead msg) {
+        // the transaction was aborted before this read got out of the mailbox
+        if (hasDecided(msg.transaction) || rejectIfBusy(msg) || rejectIfNotServing(msg) || mustWait(msg))
+            return;
         try {
             maybeCrash(CrashBefore2PC.ON_COORD_MSG);
-            int valueRead = processWorkspace(msg).getValue();
-            if (Main.SERVER_DEBUG_READ)
+            ServerTransaction t = getOrCreateTransaction(msg.transaction);
+            t.countAction();
+            int valueRead = readValue(t, msg.key);
+            if (Category.SERVER.on(Level.TRACE))
                 print("READ OPERATION ON KEY " + valueRead + " FOR TXN " + msg.transaction.getTxnId());
-            reply(new CoordinatorServerMessage.TxnReadResponseMsg(msg.transaction, msg.key, valueRead));
+            if (msg.client != null) // the coordinator only needs to know we are a participant, and it does
+                sendMessage(msg.client, new ClientCoordinatorMessage.ReadResultMsg(
+                        msg.transaction.getClientId(), msg.transaction.getNumAttemptedTxn(), msg.key, valueRead));
+            else
+                reply(new CoordinatorServerMessage.TxnReadResponseMsg(msg.transaction, msg.key, valueRead, msg.sentAt));
+            maybeDeferredVote(msg.transaction);
         } catch (CrashException e) {
         }
     }
 
     public void onTransactionWrite(CoordinatorServerMessage.TransactionWrite msg) {
+        if (hasDecided(msg.transaction) || rejectIfBusy(msg) || rejectIfNotServing(msg) || mustWait(msg))
+            return;
         WorkspaceResource resource = processWorkspace(msg);
         resource.setValue(msg.value);
         resource.setChanged(true);
         try {
             maybeCrash(CrashBefore2PC.ON_COORD_MSG);
+            maybeDeferredVote(msg.transaction);
+        } catch (CrashException e) {
+        }
+    }
+
+    public void onTransactionDelta(CoordinatorServerMessage.TransactionDelta msg) {
+        if (hasDecided(msg.transaction) || rejectIfBusy(msg) || rejectIfNotServing(msg) || mustWait(msg))
+            return;
+        ServerTransaction t = getOrCreateTransaction(msg.transaction);
+        addDelta(t, msg.key, msg.delta);
+        t.countAction();
+        try {
+            maybeCrash(CrashBefore2PC.ON_COORD_MSG);
+            maybeDeferredVote(msg.transaction);
         } catch (CrashException e) {
         }
     }
 
+    // run our part of a stored procedure: its reads and writes go to the workspace as if the coordinator sent them
+    public void onTransactionCall(CoordinatorServerMessage.TransactionCall msg) {
+        if (hasDecided(msg.transaction) || rejectIfBusy(msg) || rejectIfNotServing(msg) || mustWait(msg))
+            return;
+        ServerTransaction t = getOrCreateTransaction(msg.transaction);
+        Procedure.get(msg.procedure).run(new Procedure.Context() {
+            @Override
+            public boolean isLocal(int key) {
+                return msg.keys.contains(key);
+            }
+
+            @Override
+            public int read(int key) {
+                return readValue(t, key);
+            }
+
+            @Override
+            public void write(int key, int value) {
+                WorkspaceResource resource = workspaceResource(t, key);
+                resource.setValue(value);
+                resource.setChanged(true);
+            }
+
+            @Override
+            public void add(int key, int delta) {
+                addDelta(t, key, delta);
+            }
+        }, msg.args);
+        t.countAction();
+        try {
+            maybeCrash(CrashBefore2PC.ON_COORD_MSG);
+            maybeDeferredVote(msg.transaction);
+        } catch (CrashException e) {
+        }
+    }
+
+    // vote if the vote request was waiting for the last read or write of the transaction
+    private void maybeDeferredVote(Transaction transaction) {
+        ServerTransaction t = transactionMap.get(transaction);
+        CoordinatorServerMessage.VoteRequest vote = t.getDeferredVote();
+        if (vote != null && t.getNumActions() >= vote.numActions.getOrDefault(getSelf(), 0)) {
+            t.setDeferredVote(null);
+            vote(vote);
+        }
+    }
+
     public void onVoteRequest(CoordinatorServerMessage.VoteRequest msg) {
+        Transaction transaction = msg.transaction;
+        heardFrom(getSender(), msg);
+        if (!msg.subtree.isEmpty() && !hasDecided(transaction) && !subtreeVotes.containsKey(transaction))
+            askSubtree(msg);
+        // the vote request may overtake reads and writes of the transaction: wait for them before validating
+        ServerTransaction t = hasDecided(transaction) ? null
+                : getOrCreateTransaction(transaction, msg.coordinator != null ? msg.coordinator : getSender());
+        if (t != null && t.getNumActions() < msg.numActions.getOrDefault(getSelf(), 0)) {
+            if (Category.SERVER.on(Level.TRACE))
+                print("VOTE REQUEST FOR TXN " + transaction.getTxnId() + " WAITS FOR "
+                        + (msg.numActions.get(getSelf()) - t.getNumActions()) + " OPERATION(S)");
+            t.setDeferredVote(msg);
+            return;
+        }
+        vote(msg);
+    }
+
+    // tree commit: pass the vote request down to the first server of each group of the servers below us,
+    // while we validate the transaction ourselves
+    private void askSubtree(CoordinatorServerMessage.VoteRequest msg) {
+        Map<ActorRef, List<ActorRef>> children = CommitTree.split(msg.subtree, config.commitFanout);
+        subtreeVotes.put(msg.transaction, new SubtreeVote(msg.parent != null ? msg.parent : getSender(), children));
+        ActorRef coordinator = msg.coordinator != null ? msg.coordinator : getSender();
+        for (Map.Entry<ActorRef, List<ActorRef>> child : children.entrySet())
+            sendMessage(child.getKey(), new CoordinatorServerMessage.VoteRequest(msg.transaction,
+                    Collections.singleton(getSelf()), CommitTree.restrict(msg.numActions, child.getKey(), child.getValue()),
+                    getSelf(), coordinator, child.getValue()));
+    }
+
+    // tree commit: the vote of the subtree of one of our children
+    public void onVoteResponse(CoordinatorServerMessage.VoteResponse msg) {
+        SubtreeVote subtree = subtreeVotes.get(msg.transaction);
+        if (subtree == null || subtree.sent)
+            return;
+        if (msg.vote == CoordinatorServerMessage.Vote.NO) {
+            // the transaction aborts: say it at once, and abort it here too
+            subtree.sent = true;
+            sendMessage(subtree.parent, new CoordinatorServerMessage.VoteResponse(msg.transaction, msg.vote));
+            fixDecision(msg.transaction, CoordinatorServerMessage.Decision.ABORT);
+            return;
+        }
+        subtree.waiting.remove(getSender());
+        maybeSubtreeYes(msg.transaction, subtree);
+    }
+
+    // tree commit: YES for the whole subtree once we and all the children voted YES
+    private void maybeSubtreeYes(Transaction transaction, SubtreeVote subtree) {
+        if (!subtree.sent && subtree.own == CoordinatorServerMessage.Vote.YES && subtree.waiting.isEmpty()) {
+            subtree.sent = true;
+            sendMessage(subtree.parent, new CoordinatorServerMessage.VoteResponse(transaction, CoordinatorServerMessage.Vote.YES));
+        }
+    }
+
+    // validate the transaction and reply with the vote, or with batch validation wait for the end of the window
+    private void vote(CoordinatorServerMessage.VoteRequest msg) {
+        if (config.voteBatchWindow > 0 && !hasDecided(msg.transaction)) {
+            voteBatch.put(msg, System.nanoTime());
+            if (voteBatchTimer == null)
+                voteBatchTimer = getContext().system().scheduler().scheduleOnce(
+                        Duration.create(config.voteBatchWindow, TimeUnit.MILLISECONDS),
+                        getSelf(),
+                        new TimeoutMessages.Server.FlushVotesMsg(),
+                        getContext().dispatcher(), getSelf()
+                );
+            return;
+        }
+        try {
+            castVote(msg, getSender());
+        } catch (CrashException e) {
+        }
+    }
+
+    // the window is over: validate first a large set of the requests which do not conflict with each other,
+    // then the others (they vote NO unless the concurrency control still lets them commit)
+    private void onFlushVotesMsg(TimeoutMessages.Server.FlushVotesMsg msg) {
+        voteBatchTimer = null;
+        // transactions aborted while waiting (timeout, suspected coordinator) just vote NO
+        Map<ServerTransaction, CoordinatorServerMessage.VoteRequest> requests = new LinkedHashMap<>();
+        List<CoordinatorServerMessage.VoteRequest> order = new ArrayList<>();
+        for (CoordinatorServerMessage.VoteRequest request : voteBatch.keySet()) {
+            if (hasDecided(request.transaction))
+                order.add(request);
+            else
+                requests.put(transactionMap.get(request.transaction), request);
+        }
+        for (ServerTransaction t : ConflictGraph.validationOrder(new ArrayList<>(requests.keySet()), cc))
+            order.add(requests.get(t));
+        if (Category.SERVER.on(Level.DEBUG))
+            print("VALIDATING A BATCH OF " + order.size() + " VOTE REQUEST(S)");
+        try {
+            for (CoordinatorServerMessage.VoteRequest request : order) {
+                metrics.timer(Metrics.Timer.VOTE_BATCH_WAIT).recordSince(voteBatch.remove(request));
+                castVote(request, transactionMap.get(request.transaction).getCoordinator());
+            }
+        } catch (CrashException e) {
+        }
+    }
+
+    private void castVote(CoordinatorServerMessage.VoteRequest msg, ActorRef coordinator) throws CrashException {
         Transaction transaction = msg.transaction;
         CoordinatorServerMessage.Vote vote = null;
 
+        if (config.speculativeReads && !hasDecided(transaction) && waitsForPrepared(transactionMap.get(transaction))) {
+            if (Category.SERVER.on(Level.DEBUG))
+                print("VOTE ON TXN " + transaction.getTxnId() + " WAITS FOR PREPARED TRANSACTIONS");
+            metrics.count(Metrics.Counter.SPECULATIVE_WAIT);
+            speculativeVotes.put(transaction, msg);
+            return;
+        }
+
         //if (id==2) {crash(5000); return;}    // simulate a crash
         //if (id==2) delay(4000);              // simulate a delay
         if (!canCommit(transaction)) {
@@ -278,36 +959,51 @@ public class Server extends Node {
             vote = CoordinatorServerMessage.Vote.NO;
         } else { // vote commit
             lockResources(transaction);
+            transactionMap.get(msg.transaction).setVotedAt(System.nanoTime());
             transactionMap.get(msg.transaction).setState(Transaction.State.READY);
-            transactionMap.get(msg.transaction).setServers(msg.servers);
+            // tree commit: the peers for the termination protocol are our parent and children
+            List<ActorRef> peers = new ArrayList<>(msg.servers);
+            if (subtreeVotes.containsKey(transaction))
+                peers.addAll(subtreeVotes.get(transaction).children.keySet());
+            transactionMap.get(msg.transaction).setServers(peers);
             vote = CoordinatorServerMessage.Vote.YES;
         }
-        if (Main.SERVER_DEBUG_SEND_VOTE)
+        if (Category.SERVER.on(Level.DEBUG))
             print("SENDING VOTE " + vote);
-        try {
-            // tell the decision to coordinator
-            maybeCrash(CrashDuring2PC.CrashDuringVote.NO_VOTE);
-            reply(new CoordinatorServerMessage.VoteResponse(transaction, vote), true);
-            maybeCrash(CrashDuring2PC.CrashDuringVote.AFTER_VOTE);
-        } catch (CrashException e) {
+        // tell the decision to coordinator, and wait for its decision if we voted YES
+        // (after a NO we have already decided, possibly on a transaction we never saw)
+        maybeCrash(CrashDuring2PC.CrashDuringVote.NO_VOTE);
+        if (vote == CoordinatorServerMessage.Vote.YES)
+            replicatePrepare(transactionMap.get(transaction));
+        SubtreeVote subtree = subtreeVotes.get(transaction);
+        if (subtree != null) { // tree commit: vote for the whole subtree (after a NO we have dropped it)
+            setTimeout(commitTimeoutFor(subtree.parent, config.serverTimeout), transaction, subtree.parent);
+            subtree.own = vote;
+            maybeSubtreeYes(transaction, subtree);
+        } else {
+            sendMessage(msg.parent != null ? msg.parent : coordinator, new CoordinatorServerMessage.VoteResponse(transaction, vote),
+                    vote == CoordinatorServerMessage.Vote.YES);
         }
+        maybeCrash(CrashDuring2PC.CrashDuringVote.AFTER_VOTE);
     }
 
     public void onTimeout(CoordinatorServerMessage.TimeoutMsg msg) {
         if (!hasDecided(msg.transaction)) {
-            if (Main.SERVER_DEBUG_TIMEOUT)
+            if (Category.SERVER.on(Level.INFO))
                 print("TIMEOUT FOR TXN " + msg.transaction.getTxnId());
+            metrics.count(Metrics.Counter.TIMEOUT);
             ServerTransaction t = transactionMap.get(msg.transaction);
+            if (t.getWaitingFor() != null) {
+                t.setTimedOut(t.getWaitingFor(), epochOf(t.getWaitingFor()));
+                backOff(t.getWaitingFor(), true, config.serverTimeout);
+            }
             assert t.getState() != Transaction.State.DECIDED;
             if (t.getState() == Transaction.State.INIT) // this should never happen since we do not set timeouts before 2pc
                 fixDecision(msg.transaction, CoordinatorServerMessage.Decision.ABORT);
             else {
                 // if voted commit do termination protocol:
                 // ask decision to coordinator and fellow servers
-                try {
-                    terminationProtocol(t);
-                } catch (CrashException e) {
-                }
+                terminationProtocol(t);
             }
         }
     }
@@ -315,20 +1011,41 @@ public class Server extends Node {
     @Override
     public void onRecoveryMsg(CoordinatorServerMessage.RecoveryMsg msg) {
         getContext().become(createReceive());
+        down = false;
+        resetFailureDetector();
+        // the flush and retry messages were lost while crashed, start the queries again
+        decisionQueries.clear();
+        toAsk.clear();
+        flushScheduled = false;
+        if (retryTimer != null)
+            retryTimer.cancel();
+        retryTimer = null;
+        // the batched vote requests are aborted below with the other transactions we have not voted for
+        voteBatch.clear();
+        speculativeVotes.clear();
+        dependencies.clear();
+        // the fence timeout was lost: we will fence again if the coordinators still send us the partition
+        fencing = false;
+        if (voteBatchTimer != null)
+            voteBatchTimer.cancel();
+        voteBatchTimer = null;
 
         for (Transaction t : new HashSet<>(pendingTransactions)) {
             // decide to abort every transaction for which we have not voted yet
             if (transactionMap.get(t).getState() == Transaction.State.INIT)
                 fixDecision(t, CoordinatorServerMessage.Decision.ABORT);
-            else { // it is in READY
-                try {
-                    terminationProtocol(t);
-                } catch (CrashException e) {
-                }
+            else { // it is in READY: all of them are asked in one batch per peer
+                terminationProtocol(t);
             }
         }
+        // our backup may have served our partition meanwhile
+        if (replicated()) {
+            catchingUp = true;
+            catchUpStartedAt = System.nanoTime();
+            requestCatchUp();
+        }
 
-        if (Main.SERVER_DEBUG_RECOVERY) {
+        if (Category.SERVER.on(Level.INFO)) {
             print("RECOVERED");
 //            print("KEYSET: " + pendingResource.keySet().toString());
 //            print("PENDING TXN: " + pendingTransactions.toString());
@@ -337,18 +1054,406 @@ public class Server extends Node {
 
     public void onDecisionResponse(CoordinatorServerMessage.DecisionResponse msg) { /* Decision Response */
         Transaction transaction = msg.transaction;
+        ServerTransaction t = transactionMap.get(transaction);
+        // the time from our vote to the decision of the peer we voted to; if we timed out and it answers anyway
+        // without having crashed meanwhile, it was only slow, and the time is a sample too
+        heardFrom(getSender(), msg);
+        if (t != null && t.getVotedAt() != 0 && getSender().equals(t.getWaitingFor())) {
+            if (t.isSpuriousTimeout(getSender(), msg.getSenderEpoch())) {
+                metrics.count(Metrics.Counter.TIMEOUT_SPURIOUS);
+                t.setTimedOut(null, 0);
+                sampleCommitRtt(getSender(), t.getVotedAt(), config.serverTimeout);
+            } else if (!t.isTimedOut() && !hasDecided(transaction)) {
+                sampleCommitRtt(getSender(), t.getVotedAt(), config.serverTimeout);
+            }
+        }
+        // tree commit: pass a COMMIT down to the servers we asked to vote (an ABORT goes to all of them)
+        SubtreeVote subtree = subtreeVotes.get(transaction);
+        if (subtree != null && msg.decision == CoordinatorServerMessage.Decision.COMMIT)
+            for (ActorRef child : subtree.children.keySet())
+                sendMessage(child, new CoordinatorServerMessage.DecisionResponse(transaction, msg.decision));
         // store the decision
         fixDecision(transaction, msg.decision);
     }
 
+    public void onBatchDecisionResponse(CoordinatorServerMessage.BatchDecisionResponse msg) {
+        for (Map.Entry<Transaction, CoordinatorServerMessage.Decision> entry : msg.decisions.entrySet())
+            fixDecision(entry.getKey(), entry.getValue());
+    }
+
+
+    /*-- Primary-backup replication ------------------------------------------ */
+
+    public void onWelcomeMsg(Message.WelcomeMsg msg) {
+        servers = new ArrayList<>(msg.group);
+        if (replicated() && leaseTicker == null)
+            leaseTicker = getContext().system().scheduler().scheduleWithFixedDelay(
+                    Duration.create(0, TimeUnit.MILLISECONDS),
+                    Duration.create(Math.max(1, config.replicationLease / 3), TimeUnit.MILLISECONDS),
+                    getSelf(),
+                    new TimeoutMessages.Server.LeaseTickMsg(),
+                    getContext().dispatcher(), getSelf()
+            );
+    }
+
+    private boolean replicated() {
+        return backupOf >= 0 && servers != null;
+    }
+
+    // the server with a copy of our partition
+    private ActorRef backup() {
+        return servers.get((id + 1) % servers.size());
+    }
+
+    // before voting YES, tell the backup what we will write on our partition if the transaction commits
+    private void replicatePrepare(ServerTransaction t) {
+        if (!replicated())
+            return;
+        Map<Integer, ReplicationMessage.Write> writes = new HashMap<>();
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            if (entry.getValue().getChanged() && entry.getKey() / config.dbSize == id)
+                writes.put(entry.getKey(), new ReplicationMessage.Write(entry.getValue().getValue(), entry.getValue().getVersion()));
+        }
+        Map<Integer, Integer> deltas = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : t.getDeltas().entrySet()) {
+            if (entry.getKey() / config.dbSize == id)
+                deltas.put(entry.getKey(), entry.getValue());
+        }
+        if (!writes.isEmpty() || !deltas.isEmpty())
+            sendMessage(backup(), new ReplicationMessage.ReplicaPrepare(t, t.getCoordinator(), t.getServers(), writes, deltas));
+    }
+
+    public void onReplicaPrepare(ReplicationMessage.ReplicaPrepare msg) {
+        ServerTransaction shadow = new ServerTransaction(msg.transaction, msg.coordinator);
+        shadow.setServers(msg.servers);
+        for (Map.Entry<Integer, ReplicationMessage.Write> entry : msg.writes.entrySet())
+            shadow.getWorkspace().put(entry.getKey(), new WorkspaceResource(new Resource(entry.getValue().value, entry.getValue().version), true));
+        shadow.getDeltas().putAll(msg.deltas);
+        if (acting) // the primary is being fenced
+            adopt(shadow);
+        else
+            shadows.put(shadow, shadow);
+    }
+
+    // the primary decided a transaction it prepared: apply its writes to our copy
+    public void onReplicaDecision(ReplicationMessage.ReplicaDecision msg) {
+        ServerTransaction shadow = shadows.remove(msg.transaction);
+        if (shadow != null && msg.decision == CoordinatorServerMessage.Decision.COMMIT) {
+            for (Map.Entry<Integer, WorkspaceResource> entry : shadow.getWorkspace().entrySet()) {
+                database.get(entry.getKey()).setValue(entry.getValue().getValue());
+                database.get(entry.getKey()).setVersion(entry.getValue().getVersion() + 1);
+            }
+            applyDeltas(shadow);
+        } else if (shadow == null && adopted.contains(msg.transaction)) {
+            // we took over while the decision was on its way: it is the decision
+            fixDecision(msg.transaction, msg.decision);
+        }
+    }
+
+    // the previous server is down: the failure detector suspects it, or without it we did not just give its
+    // partition back (a coordinator may still route its keys to us)
+    private boolean primaryDown() {
+        if (config.heartbeatInterval > 0)
+            return isSuspected(servers.get(backupOf));
+        return holdDownUntil == 0 || System.nanoTime() > holdDownUntil;
+    }
+
+    // a primary which may have been fenced does not validate transactions on its partition
+    private boolean holdsLease(ServerTransaction t) {
+        if (!replicated() || System.nanoTime() < leaseUntil)
+            return true;
+        for (Integer key : t.getWorkspace().keySet()) {
+            if (key / config.dbSize == id) {
+                metrics.count(Metrics.Counter.VALIDATION_LEASE);
+                return false;
+            }
+        }
+        for (Integer key : t.getDeltas().keySet()) {
+            if (key / config.dbSize == id) {
+                metrics.count(Metrics.Counter.VALIDATION_LEASE);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // as primary: ask the backup to renew the lease (not delayed by sendMessage, as the heartbeats)
+    public void onLeaseTickMsg(TimeoutMessages.Server.LeaseTickMsg msg) {
+        if (!catchingUp)
+            backup().tell(new ReplicationMessage.LeaseRequest(System.nanoTime()), getSelf());
+    }
+
+    // as backup: renew the lease, unless we are taking over the partition
+    public void onLeaseRequest(ReplicationMessage.LeaseRequest msg) {
+        if (fencing || acting)
+            return;
+        lastGrantAt = System.nanoTime();
+        getSender().tell(new ReplicationMessage.LeaseGrant(msg.sentAt), getSelf());
+    }
+
+    // as primary: the lease counts from when we asked, before the backup granted it
+    public void onLeaseGrant(ReplicationMessage.LeaseGrant msg) {
+        leaseUntil = Math.max(leaseUntil, msg.sentAt + TimeUnit.MILLISECONDS.toNanos(config.replicationLease));
+    }
+
+    // the coordinators and we suspect the previous server: fence it, and serve its partition once it acknowledged
+    // or the last lease we granted it expired, so that it never validates on the partition while we do
+    private void fence() {
+        fencing = true;
+        fenceEpoch++;
+        if (Category.SERVER.on(Level.INFO))
+            print("FENCING SERVER " + backupOf);
+        sendMessage(servers.get(backupOf), new ReplicationMessage.FenceMsg(fenceEpoch));
+        long expiresIn = lastGrantAt + TimeUnit.MILLISECONDS.toNanos(config.replicationLease) - System.nanoTime();
+        fenceTimer = getContext().system().scheduler().scheduleOnce(
+                Duration.create(Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresIn) + 1), TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutMessages.Server.FenceTimeoutMsg(fenceEpoch),
+                getContext().dispatcher(), getSelf()
+        );
+    }
+
+    public void onFenceAck(ReplicationMessage.FenceAck msg) {
+        if (fencing && msg.epoch == fenceEpoch)
+            takeOver();
+    }
+
+    public void onFenceTimeoutMsg(TimeoutMessages.Server.FenceTimeoutMsg msg) {
+        if (fencing && msg.epoch == fenceEpoch) {
+            if (Category.SERVER.on(Level.INFO))
+                print("LEASE OF SERVER " + backupOf + " EXPIRED");
+            takeOver();
+        }
+    }
+
+    // the primary is fenced: serve its partition from our copy, and finish the transactions it prepared
+    private void takeOver() {
+        fencing = false;
+        if (fenceTimer != null)
+            fenceTimer.cancel();
+        fenceTimer = null;
+        acting = true;
+        metrics.count(Metrics.Counter.FAILOVER);
+        if (Category.SERVER.on(Level.INFO))
+            print("TAKING OVER THE PARTITION OF SERVER " + backupOf);
+        versionsAtTakeOver.clear();
+        for (int key = backupOf * config.dbSize; key < (backupOf + 1) * config.dbSize; key++)
+            versionsAtTakeOver.put(key, database.get(key).getVersion());
+        for (ServerTransaction shadow : shadows.values())
+            adopt(shadow);
+        shadows.clear();
+    }
+
+    // make a transaction prepared by the primary ours: its keys stay locked until we know the decision
+    private void adopt(ServerTransaction shadow) {
+        if (hasDecided(shadow)) {
+            // we are one of its participants and already know the decision
+            if (transaction2decision.get(shadow) == CoordinatorServerMessage.Decision.COMMIT) {
+                for (Map.Entry<Integer, WorkspaceResource> entry : shadow.getWorkspace().entrySet()) {
+                    database.get(entry.getKey()).setValue(entry.getValue().getValue());
+                    database.get(entry.getKey()).setVersion(entry.getValue().getVersion() + 1);
+                }
+                applyDeltas(shadow);
+            }
+            resolved.put(shadow, transaction2decision.get(shadow));
+            return;
+        }
+        adopted.add(shadow);
+        ServerTransaction t = transactionMap.get(shadow);
+        if (t == null) {
+            transactionMap.put(shadow, shadow);
+            pendingTransactions.add(shadow);
+            shadow.setState(Transaction.State.READY);
+            lockResources(shadow);
+            terminationProtocol(shadow);
+        } else {
+            // we are one of its participants too: validate (or keep locked) the keys of both partitions
+            t.getWorkspace().putAll(shadow.getWorkspace());
+            t.getDeltas().putAll(shadow.getDeltas());
+            if (t.getState() == Transaction.State.READY)
+                lockResources(t);
+        }
+    }
+
+    // the backup takes over our partition while we are alive: give up the lease, acknowledge after all the
+    // prepared transactions we replicated, stop, and catch up as after a crash
+    public void onFenceMsg(ReplicationMessage.FenceMsg msg) {
+        leaseUntil = 0;
+        reply(new ReplicationMessage.FenceAck(msg.epoch));
+        if (catchingUp)
+            return;
+        try {
+            crash(config.minRecoveryTime, InducedCrash.FENCED);
+        } catch (CrashException ignored) {
+        }
+    }
+
+    // ask the backup the keys it wrote while serving our partition, until it answers
+    private void requestCatchUp() {
+        Map<Integer, Integer> versions = new HashMap<>();
+        for (int key = id * config.dbSize; key < (id + 1) * config.dbSize; key++)
+            versions.put(key, database.get(key).getVersion());
+        List<Transaction> prepared = new ArrayList<>();
+        for (Transaction t : pendingTransactions) {
+            if (transactionMap.get(t).getState() == Transaction.State.READY)
+                prepared.add(t);
+        }
+        sendMessage(backup(), new ReplicationMessage.CatchUpRequest(versions, prepared));
+        if (catchUpTimer != null)
+            catchUpTimer.cancel();
+        catchUpTimer = getContext().system().scheduler().scheduleOnce(
+                Duration.create(config.serverTimeout, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutMessages.Server.RetryCatchUpMsg(),
+                getContext().dispatcher(), getSelf()
+        );
+    }
+
+    public void onRetryCatchUpMsg(TimeoutMessages.Server.RetryCatchUpMsg msg) {
+        catchUpTimer = null;
+        if (catchingUp)
+            requestCatchUp();
+    }
+
+    // as backup: give the partition back once the transactions on its keys are decided (the primary asks again)
+    public void onCatchUpRequest(ReplicationMessage.CatchUpRequest msg) {
+        if (fencing) {
+            // the primary crashed and recovered before we served the partition: it is still its own
+            fencing = false;
+            if (fenceTimer != null)
+                fenceTimer.cancel();
+            fenceTimer = null;
+        }
+        if (acting) {
+            for (Transaction t : pendingTransactions) {
+                for (Integer key : transactionMap.get(t).getWorkspace().keySet()) {
+                    if (key / config.dbSize == backupOf)
+                        return;
+                }
+                for (Integer key : transactionMap.get(t).getDeltas().keySet()) {
+                    if (key / config.dbSize == backupOf)
+                        return;
+                }
+            }
+        }
+        Map<Integer, ReplicationMessage.Write> writes = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : msg.versions.entrySet()) {
+            Resource r = database.get(entry.getKey());
+            boolean changed = acting && !r.getVersion().equals(versionsAtTakeOver.get(entry.getKey()));
+            if (changed || r.getVersion() > entry.getValue())
+                writes.put(entry.getKey(), new ReplicationMessage.Write(r.getValue(), r.getVersion()));
+        }
+        Map<Transaction, CoordinatorServerMessage.Decision> decisions = new HashMap<>();
+        for (Transaction t : msg.prepared) {
+            if (resolved.containsKey(t))
+                decisions.put(t, resolved.get(t));
+        }
+        if (acting && Category.SERVER.on(Level.INFO))
+            print("GIVING BACK THE PARTITION OF SERVER " + backupOf + ", " + writes.size() + " KEY(S) CHANGED");
+        if (acting)
+            holdDownUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.serverTimeout);
+        acting = false;
+        reply(new ReplicationMessage.CatchUpResponse(writes, decisions));
+    }
+
+    // as primary: take the keys the backup changed, and the decisions it took for us (their writes are among those)
+    public void onCatchUpResponse(ReplicationMessage.CatchUpResponse msg) {
+        if (!catchingUp)
+            return;
+        catchingUp = false;
+        if (catchUpTimer != null)
+            catchUpTimer.cancel();
+        catchUpTimer = null;
+        for (Map.Entry<Integer, ReplicationMessage.Write> entry : msg.writes.entrySet()) {
+            // the backup adopted every transaction we prepared before the fence, so its copy of a key we both
+            // changed has our commits too and wins; the version never goes back, so that transactions which
+            // read our value do not validate against the backup's
+            Resource r = database.get(entry.getKey());
+            ReplicationMessage.Write w = entry.getValue();
+            if (w.version > r.getVersion())
+                r.setVersion(w.version);
+            else if (!w.value.equals(r.getValue()))
+                r.setVersion(r.getVersion() + 1);
+            r.setValue(w.value);
+        }
+        for (Map.Entry<Transaction, CoordinatorServerMessage.Decision> entry : msg.resolved.entrySet()) {
+            Transaction transaction = entry.getKey();
+            if (hasDecided(transaction) || !transactionMap.containsKey(transaction))
+                continue;
+            transaction2decision.put(transaction, entry.getValue());
+            transactionMap.get(transaction).setState(Transaction.State.DECIDED);
+            freeWorkspace(transaction);
+            decisionQueries.remove(transaction);
+            toAsk.remove(transaction);
+        }
+        metrics.timer(Metrics.Timer.CATCH_UP).recordSince(catchUpStartedAt);
+        if (Category.SERVER.on(Level.INFO))
+            print("CAUGHT UP, " + msg.writes.size() + " KEY(S) CHANGED");
+        if (checkRequester != null)
+            answerCheck(checkRequester);
+    }
+
+    // EXECUTION=calvin: the next transactions in the global order touching our partition
+    public void onBatchMsg(SequencerMessage.BatchMsg msg) {
+        for (SequencerMessage.Sequenced txn : msg.transactions)
+            sequenced.add(txn);
+        runSequenced();
+    }
+
+    public void onLocalReadsMsg(SequencerMessage.LocalReadsMsg msg) {
+        sequenced.remoteReads(msg.transaction, msg.values);
+        runSequenced();
+    }
+
+    // share the values of the transactions which got their keys, and run those which have all the values,
+    // until none can go on
+    private void runSequenced() {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            Map.Entry<SequencerMessage.Sequenced, Map<Integer, Integer>> reads;
+            while ((reads = sequenced.nextToRead()) != null) {
+                progress = true;
+                for (Integer partition : sequenced.otherParticipants(reads.getKey()))
+                    sendMessage(servers.get(partition), new SequencerMessage.LocalReadsMsg(reads.getKey().transaction, reads.getValue()));
+            }
+            SequencerMessage.Sequenced txn;
+            while ((txn = sequenced.nextToRun()) != null) {
+                progress = true;
+                boolean commit = sequenced.run(txn);
+                if (Category.SERVER.on(Level.TRACE))
+                    print("RAN SEQUENCED TXN " + txn.transaction.getTxnId() + ": " + (commit ? "COMMIT" : "ABORT"));
+                if (sequenced.reports(txn)) {
+                    metrics.count(commit ? Metrics.Counter.SEQUENCED_COMMIT : Metrics.Counter.SEQUENCED_ABORT);
+                    metrics.timer(Metrics.Timer.SEQUENCED_LATENCY).recordSince(txn.submittedAt);
+                    sendMessage(txn.client, new ClientCoordinatorMessage.TxnResultMsg(txn.transaction.getClientId(),
+                            txn.transaction.getNumAttemptedTxn(), commit, null));
+                }
+            }
+        }
+    }
 
     @Override
     public void onCheckCorrectness(Message.CheckCorrectness msg) {
+        // with replication our partition is stale while we are down or catching up (the backup may have served
+        // it): answer once we caught up
+        if (replicated() && (down || catchingUp)) {
+            if (Category.SERVER.on(Level.INFO))
+                print("CHECK DEFERRED UNTIL CAUGHT UP");
+            checkRequester = getSender();
+            return;
+        }
+        answerCheck(getSender());
+    }
+
+    private void answerCheck(ActorRef checker) {
         Integer result = 0;
+        // only our partition: the copy of the previous one is counted by its primary
         for (Integer key : database.keySet()) {
-            result += database.get(key).getValue();
+            if (key / config.dbSize == id)
+                result += database.get(key).getValue();
         }
-        reply(new Message.CheckCorrectnessResponse(id, result, numCrashes));
+        sendMessage(checker, new Message.CheckCorrectnessResponse(id, result, numCrashes, metrics.snapshot()));
         getContext().stop(getSelf());
     }
 }
\ No newline at end of file
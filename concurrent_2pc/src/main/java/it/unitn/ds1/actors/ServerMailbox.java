@@ -0,0 +1,37 @@
+package it.unitn.ds1.actors;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.PriorityGenerator;
+import akka.dispatch.UnboundedStablePriorityMailbox;
+import com.typesafe.config.Config;
+import it.unitn.ds1.messages.CoordinatorServerMessage;
+import it.unitn.ds1.messages.ReplicationMessage;
+
+// Mailbox of the servers (server-mailbox in application.conf): decisions are handled first, so that the
+// keys locked in pendingResource are released as soon as possible (together with the replication of the
+// prepared transactions, which must not be overtaken by their decisions, the leases and the fence acknowledgement,
+// which must not overtake the prepared transactions the primary sent before), then vote requests, then reads,
+// writes and everything else. Messages with the same priority keep their order, so the reads and writes
+// of a coordinator are processed as sent; a vote request overtaking them is deferred by the server until
+// they arrive (VoteRequest.numActions), and an abort overtaking them makes the server ignore them.
+public class ServerMailbox extends UnboundedStablePriorityMailbox {
+    public ServerMailbox(ActorSystem.Settings settings, Config config) {
+        super(new PriorityGenerator() {
+            @Override
+            public int gen(Object message) {
+                if (message instanceof CoordinatorServerMessage.DecisionResponse
+                        || message instanceof CoordinatorServerMessage.BatchDecisionResponse
+                        || message instanceof CoordinatorServerMessage.BatchDecisionRequest
+                        || message instanceof ReplicationMessage.ReplicaPrepare
+                        || message instanceof ReplicationMessage.ReplicaDecision
+                        || message instanceof ReplicationMessage.LeaseRequest
+                        || message instanceof ReplicationMessage.LeaseGrant
+                        || message instanceof ReplicationMessage.FenceAck)
+                    return 0;
+                if (message instanceof CoordinatorServerMessage.VoteRequest)
+                    return 1;
+                return 2;
+            }
+        });
+    }
+}
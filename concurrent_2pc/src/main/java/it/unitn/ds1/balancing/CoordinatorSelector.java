@@ -0,0 +1,99 @@
+package it.unitn.ds1.balancing;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.messages.ClientCoordinatorMessage;
+
+import java.util.*;
+
+// Chooses the coordinator of a new transaction according to COORDINATOR_SELECTION:
+// random, least-loaded (the lowest load among all coordinators) or power-of-two (the lower load of
+// two random coordinators, which avoids every client rushing to the same one on stale reports).
+// The load of a coordinator is the last one it reported (pending transactions and queued messages,
+// piggybacked on TxnAcceptMsg and TxnResultMsg) plus the transactions we started on it since.
+// A coordinator that did not answer in time is avoided for CLIENT_TIMEOUT ms.
+public class CoordinatorSelector {
+    public enum Policy {RANDOM, LEAST_LOADED, POWER_OF_TWO}
+
+    private final Policy policy;
+    private final int suspicionTime; // ms
+    private List<ActorRef> coordinators;
+    private final Map<ActorRef, Integer> reported;
+    private final Map<ActorRef, Integer> startedSinceReport;
+    private final Map<ActorRef, Long> suspectedUntil; // System.nanoTime()
+
+    public CoordinatorSelector(Policy policy, int suspicionTime) {
+        this.policy = policy;
+        this.suspicionTime = suspicionTime;
+        this.coordinators = new ArrayList<>();
+        this.reported = new HashMap<>();
+        this.startedSinceReport = new HashMap<>();
+        this.suspectedUntil = new HashMap<>();
+    }
+
+    public static CoordinatorSelector create(Config config) {
+        switch (config.coordinatorSelection) {
+            case "random":
+                return new CoordinatorSelector(Policy.RANDOM, config.clientTimeout);
+            case "least-loaded":
+                return new CoordinatorSelector(Policy.LEAST_LOADED, config.clientTimeout);
+            case "power-of-two":
+                return new CoordinatorSelector(Policy.POWER_OF_TWO, config.clientTimeout);
+            default:
+                throw new IllegalArgumentException("unknown COORDINATOR_SELECTION " + config.coordinatorSelection);
+        }
+    }
+
+    // the coordinators new transactions can go to (the pool may change at runtime)
+    public void setCoordinators(List<ActorRef> coordinators) {
+        this.coordinators = new ArrayList<>(coordinators);
+    }
+
+    public ActorRef next(Random r) {
+        // leave out the suspected coordinators, unless there are only them
+        long now = System.nanoTime();
+        List<ActorRef> candidates = new ArrayList<>();
+        for (ActorRef c : coordinators)
+            if (suspectedUntil.getOrDefault(c, 0L) <= now)
+                candidates.add(c);
+        if (candidates.isEmpty())
+            candidates = coordinators;
+
+        ActorRef chosen;
+        switch (policy) {
+            case LEAST_LOADED:
+                // start from a random one, so that ties are broken at random
+                int start = r.nextInt(candidates.size());
+                chosen = candidates.get(start);
+                for (int i = 1; i < candidates.size(); i++) {
+                    ActorRef c = candidates.get((start + i) % candidates.size());
+                    if (load(c) < load(chosen))
+                        chosen = c;
+                }
+                break;
+            case POWER_OF_TWO:
+                ActorRef a = candidates.get(r.nextInt(candidates.size()));
+                ActorRef b = candidates.get(r.nextInt(candidates.size()));
+                chosen = load(b) < load(a) ? b : a;
+                break;
+            default:
+                chosen = candidates.get(r.nextInt(candidates.size()));
+        }
+        startedSinceReport.merge(chosen, 1, Integer::sum);
+        return chosen;
+    }
+
+    private int load(ActorRef coordinator) {
+        return reported.getOrDefault(coordinator, 0) + startedSinceReport.getOrDefault(coordinator, 0);
+    }
+
+    public void onLoad(ActorRef coordinator, ClientCoordinatorMessage.Load load) {
+        reported.put(coordinator, load.pending + load.queueDepth);
+        startedSinceReport.remove(coordinator);
+        suspectedUntil.remove(coordinator);
+    }
+
+    public void onTimeout(ActorRef coordinator) {
+        suspectedUntil.put(coordinator, System.nanoTime() + suspicionTime * 1_000_000L);
+    }
+}
@@ -0,0 +1,38 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Goodput of the open workload at increasing arrival rates (multiples of ARRIVAL_RATE), without
+// admission control and with MAX_PENDING_COORDINATOR / MAX_PENDING_SERVER (50 each if not configured).
+// Without limits goodput collapses past saturation into timeout aborts, with them it should stay flat.
+public class AdmissionBenchmark {
+    private static final double[] LOAD_FACTORS = {0.5, 1, 2, 4, 8};
+    private static final String DEFAULT_LIMIT = "50";
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null).with("WORKLOAD", "open");
+        Config limited = config;
+        if (config.maxPendingCoordinator <= 0)
+            limited = limited.with("MAX_PENDING_COORDINATOR", DEFAULT_LIMIT);
+        if (config.maxPendingServer <= 0)
+            limited = limited.with("MAX_PENDING_SERVER", DEFAULT_LIMIT);
+        Config unlimited = config.with("MAX_PENDING_COORDINATOR", "0").with("MAX_PENDING_SERVER", "0");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        System.out.println("admission,arrival_rate,goodput,abort_rate,abort_timeout,rejected,abort_busy,intended_p99_us");
+        for (double factor : LOAD_FACTORS) {
+            String rate = String.valueOf(config.arrivalRate * factor);
+            print("off", rate, run.run("admission-off", unlimited.with("ARRIVAL_RATE", rate)));
+            print("on", rate, run.run("admission-on", limited.with("ARRIVAL_RATE", rate)));
+        }
+    }
+
+    private static void print(String mode, String rate, BenchmarkRun.Result r) {
+        System.out.format("%s,%s,%.1f,%.3f,%d,%d,%d,%d\n", mode, rate, r.throughput(), r.abortRate(),
+                r.coordinators.counter(Metrics.Counter.ABORT_TIMEOUT),
+                r.coordinators.counter(Metrics.Counter.REJECTED),
+                r.coordinators.counter(Metrics.Counter.ABORT_BUSY),
+                r.generator.timer(Metrics.Timer.INTENDED_LATENCY).percentile(0.99));
+    }
+}
@@ -0,0 +1,107 @@
+package it.unitn.ds1.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.Main;
+import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the system in a fresh actor system: waits for a warm-up period, then measures
+// the metrics collected by the checker over a fixed window.
+public class BenchmarkRun {
+    private static final Duration ASK_TIMEOUT = Duration.ofSeconds(10);
+
+    private final int warmupMs;
+    private final int measureMs;
+
+    public BenchmarkRun(int warmupMs, int measureMs) {
+        this.warmupMs = warmupMs;
+        this.measureMs = measureMs;
+    }
+
+    public static class Result {
+        public final double seconds;
+        public final Metrics.Snapshot coordinators; // only what happened during the measurement window
+        public final Metrics.Snapshot servers;
+        public final Metrics.Snapshot generator; // empty with the closed workload
+        public final Metrics.Snapshot clients;
+
+        Result(double seconds, Metrics.Snapshot coordinators, Metrics.Snapshot servers, Metrics.Snapshot generator,
+               Metrics.Snapshot clients) {
+            this.seconds = seconds;
+            this.coordinators = coordinators;
+            this.servers = servers;
+            this.generator = generator;
+            this.clients = clients;
+        }
+
+        public double throughput() {
+            return coordinators.counter(Metrics.Counter.COMMIT) / seconds;
+        }
+
+        public double abortRate() {
+            long commits = coordinators.counter(Metrics.Counter.COMMIT);
+            long aborts = 0;
+            for (Metrics.Counter c : Arrays.asList(Metrics.Counter.ABORT_CLIENT, Metrics.Counter.ABORT_VOTE,
+                    Metrics.Counter.ABORT_TIMEOUT, Metrics.Counter.ABORT_RECOVERY, Metrics.Counter.ABORT_BUSY,
+                    Metrics.Counter.ABORT_SUSPECTED, Metrics.Counter.ABORT_TAKEOVER,
+                    Metrics.Counter.ABORT_CONFLICT))
+                aborts += coordinators.counter(c);
+            return commits + aborts == 0 ? 0 : (double) aborts / (commits + aborts);
+        }
+    }
+
+    public Result run(String name, Config config) throws Exception {
+        ActorSystem system = ActorSystem.create(name);
+        try {
+            Main.Deployment d = Main.deploy(system, config);
+            Thread.sleep(warmupMs);
+            Message.MetricsReport before = collect(d.checker);
+            Metrics.Snapshot generatorBefore = collectGenerator(d.generator);
+            Metrics.Snapshot clientsBefore = collectClients(d.clients);
+            long start = System.nanoTime();
+            Thread.sleep(measureMs);
+            Message.MetricsReport after = collect(d.checker);
+            Metrics.Snapshot generatorAfter = collectGenerator(d.generator);
+            Metrics.Snapshot clientsAfter = collectClients(d.clients);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (ActorRef client : d.clients)
+                client.tell(new Message.StopMsg(), ActorRef.noSender());
+            return new Result(seconds, Metrics.Snapshot.diff(after.coordinators, before.coordinators),
+                    Metrics.Snapshot.diff(after.servers, before.servers),
+                    Metrics.Snapshot.diff(generatorAfter, generatorBefore),
+                    Metrics.Snapshot.diff(clientsAfter, clientsBefore));
+        } finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get();
+        }
+    }
+
+    private Metrics.Snapshot collectGenerator(ActorRef generator) throws Exception {
+        if (generator == null)
+            return new Metrics().snapshot();
+        return ((Message.MetricsResponse) Patterns.ask(generator, new Message.MetricsRequest(0), ASK_TIMEOUT)
+                .toCompletableFuture().get()).metrics;
+    }
+
+    private Metrics.Snapshot collectClients(List<ActorRef> clients) throws Exception {
+        List<Metrics.Snapshot> snapshots = new ArrayList<>();
+        for (ActorRef client : clients)
+            snapshots.add(((Message.MetricsResponse) Patterns.ask(client, new Message.MetricsRequest(0), ASK_TIMEOUT)
+                    .toCompletableFuture().get()).metrics);
+        return Metrics.Snapshot.merge(snapshots);
+    }
+
+    // the metrics of coordinators and servers so far
+    static Message.MetricsReport collect(ActorRef checker) throws Exception {
+        return (Message.MetricsReport) Patterns.ask(checker, new Message.MetricsRequest(0), ASK_TIMEOUT)
+                .toCompletableFuture().get();
+    }
+}
@@ -0,0 +1,35 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Histogram;
+import it.unitn.ds1.metrics.Metrics;
+
+// The transfer workload on highly skewed keys, run by the clients through 2PC (reading and writing the keys),
+// as stored procedures through 2PC, and deterministically after a sequencer (EXECUTION=calvin). Random
+// crashes are disabled, since the deterministic mode does not handle them.
+public class CalvinBenchmark {
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("WRITE_PROBABILITY", "1").with("KEYS_PER_OP", "2")
+                .with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.99");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        BenchmarkRun.Result interactive = run.run("calvin-2pc", config);
+        BenchmarkRun.Result stored = run.run("calvin-2pc-procedures", config.with("STORED_PROCEDURES", "true"));
+        BenchmarkRun.Result calvin = run.run("calvin-sequenced", config.with("EXECUTION", "calvin"));
+
+        System.out.println("mode,commits_per_s,abort_rate,txn_p50_us,txn_p99_us");
+        print("2pc", interactive.throughput(), interactive.abortRate(), interactive.coordinators.timer(Metrics.Timer.TXN_LATENCY));
+        print("2pc-procedures", stored.throughput(), stored.abortRate(), stored.coordinators.timer(Metrics.Timer.TXN_LATENCY));
+        // the outcome of a sequenced transaction is counted by one of its servers
+        long commits = calvin.servers.counter(Metrics.Counter.SEQUENCED_COMMIT);
+        long aborts = calvin.servers.counter(Metrics.Counter.SEQUENCED_ABORT);
+        print("calvin", commits / calvin.seconds, commits + aborts == 0 ? 0 : (double) aborts / (commits + aborts),
+                calvin.servers.timer(Metrics.Timer.SEQUENCED_LATENCY));
+    }
+
+    private static void print(String mode, double throughput, double abortRate, Histogram.Snapshot latency) {
+        System.out.format("%s,%.1f,%.3f,%d,%d\n", mode, throughput, abortRate, latency.percentile(0.5), latency.percentile(0.99));
+    }
+}
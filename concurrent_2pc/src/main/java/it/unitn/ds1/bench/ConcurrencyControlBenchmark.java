@@ -0,0 +1,38 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Throughput and abort rate of each CONCURRENCY_CONTROL as contention grows: uniform keys, then
+// zipfian with increasing skew, then a hotspot. Random crashes are disabled.
+public class ConcurrencyControlBenchmark {
+    private static final String[] ENGINES = {"occ", "2pl", "tictoc"};
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        Config[] profiles = {
+                config.with("KEY_DISTRIBUTION", "uniform"),
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.5"),
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.9"),
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.99"),
+                config.with("KEY_DISTRIBUTION", "hotspot"),
+        };
+        String[] names = {"uniform", "zipf-0.5", "zipf-0.9", "zipf-0.99", "hotspot"};
+
+        System.out.println("contention,engine,commits_per_s,abort_rate,validation_aborts,lock_waits,deadlocks,txn_p99_us");
+        for (int i = 0; i < profiles.length; i++) {
+            for (String engine : ENGINES) {
+                BenchmarkRun.Result r = run.run("cc-" + engine + "-" + i, profiles[i].with("CONCURRENCY_CONTROL", engine));
+                System.out.format("%s,%s,%.1f,%.3f,%d,%d,%d,%d\n", names[i], engine, r.throughput(), r.abortRate(),
+                        r.servers.counter(Metrics.Counter.VALIDATION_VERSION)
+                                + r.servers.counter(Metrics.Counter.VALIDATION_LOCKED),
+                        r.servers.counter(Metrics.Counter.LOCK_WAIT),
+                        r.servers.counter(Metrics.Counter.DEADLOCK),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Reads relayed by the coordinators against reads answered by the servers straight to the clients (DIRECT_READS),
+// with the network delay of the configuration and with none. Transactions only read, and the clients time each
+// operation from its reads sent to all their values received; the read responses the coordinators no longer
+// handle are the work they save. Random crashes are disabled.
+public class DirectReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("WRITE_PROBABILITY", "0");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        Config[] profiles = {config, config.with("MAX_NODE_DELAY", "0")};
+        String[] names = {"delay-" + config.maxNodeDelay, "delay-0"};
+
+        System.out.println("network,direct_reads,commits_per_s,abort_rate,relayed_reads,direct_reads,read_mean_us,read_p50_us,read_p99_us");
+        for (int i = 0; i < profiles.length; i++) {
+            for (String direct : new String[]{"false", "true"}) {
+                BenchmarkRun.Result r = run.run("direct-reads-" + direct + "-" + i, profiles[i].with("DIRECT_READS", direct));
+                System.out.format("%s,%s,%.1f,%.3f,%d,%d,%.0f,%d,%d\n", names[i], direct, r.throughput(), r.abortRate(),
+                        r.coordinators.timer(Metrics.Timer.READ_RTT).count,
+                        r.coordinators.counter(Metrics.Counter.DIRECT_READ),
+                        r.clients.timer(Metrics.Timer.READ_LATENCY).mean(),
+                        r.clients.timer(Metrics.Timer.READ_LATENCY).percentile(0.5),
+                        r.clients.timer(Metrics.Timer.READ_LATENCY).percentile(0.99));
+            }
+        }
+    }
+}
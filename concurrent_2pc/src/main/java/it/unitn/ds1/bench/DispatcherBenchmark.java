@@ -0,0 +1,31 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Histogram;
+import it.unitn.ds1.metrics.Metrics;
+
+// Tail latency with every actor on the default dispatcher and with a thread pool per role
+// (application.conf). Run it with WORKLOAD=open to also see the latency from the intended start.
+public class DispatcherBenchmark {
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null);
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        BenchmarkRun.Result shared = run.run("dispatchers-default", config.with("DISPATCHERS", "default"));
+        BenchmarkRun.Result dedicated = run.run("dispatchers-dedicated", config.with("DISPATCHERS", "dedicated"));
+
+        System.out.println("dispatchers,commits_per_s,abort_rate,"
+                + "txn_p50_us,txn_p99_us,txn_p999_us,vote_p99_us,read_rtt_p99_us,intended_p99_us");
+        print("default", shared);
+        print("dedicated", dedicated);
+    }
+
+    private static void print(String mode, BenchmarkRun.Result r) {
+        Histogram.Snapshot txn = r.coordinators.timer(Metrics.Timer.TXN_LATENCY);
+        System.out.format("%s,%.1f,%.3f,%d,%d,%d,%d,%d,%d\n", mode, r.throughput(), r.abortRate(),
+                txn.percentile(0.5), txn.percentile(0.99), txn.percentile(0.999),
+                r.coordinators.timer(Metrics.Timer.VOTE_COLLECTION).percentile(0.99),
+                r.coordinators.timer(Metrics.Timer.READ_RTT).percentile(0.99),
+                r.generator.timer(Metrics.Timer.INTENDED_LATENCY).percentile(0.99));
+    }
+}
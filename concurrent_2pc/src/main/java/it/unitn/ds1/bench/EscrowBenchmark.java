@@ -0,0 +1,29 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Transfers between hot keys with plain writes and with deltas (DELTA_WRITES): plain writes of a hot key
+// conflict on its version, deltas only fail when an amount is no longer available. Every write is a transfer,
+// random crashes are disabled.
+public class EscrowBenchmark {
+    private static final String[] SKEWS = {"0.5", "0.9", "0.99"};
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("WRITE_PROBABILITY", "1").with("KEY_DISTRIBUTION", "zipfian");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        System.out.println("zipf_theta,writes,commits_per_s,abort_rate,validation_version,validation_escrow");
+        for (String theta : SKEWS) {
+            for (boolean deltas : new boolean[]{false, true}) {
+                BenchmarkRun.Result r = run.run("escrow-" + deltas + "-" + theta,
+                        config.with("ZIPF_THETA", theta).with("DELTA_WRITES", String.valueOf(deltas)));
+                System.out.format("%s,%s,%.1f,%.3f,%d,%d\n", theta, deltas ? "delta" : "plain", r.throughput(), r.abortRate(),
+                        r.servers.counter(Metrics.Counter.VALIDATION_VERSION),
+                        r.servers.counter(Metrics.Counter.VALIDATION_ESCROW));
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.logging.Log;
+import it.unitn.ds1.metrics.Metrics;
+
+// Throughput of the system with logging disabled, with every DEBUG line written through the
+// asynchronous ring buffer, and with the same lines written synchronously by the actors.
+public class LoggingBenchmark {
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null);
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        Log.configure("ALL=OFF");
+        BenchmarkRun.Result off = run.run("logging-off", config);
+
+        Log.configure("ALL=DEBUG");
+        Log.setMode(Log.Mode.ASYNC);
+        BenchmarkRun.Result async = run.run("logging-async", config);
+
+        Log.setMode(Log.Mode.SYNC);
+        BenchmarkRun.Result sync = run.run("logging-sync", config);
+        Log.setMode(Log.Mode.ASYNC);
+
+        System.out.println("mode,commits_per_s,abort_rate,read_rtt_p99_us");
+        print("off", off);
+        print("async_debug", async);
+        print("sync_debug", sync);
+        System.out.println("dropped log lines: " + Log.getDropped());
+    }
+
+    private static void print(String mode, BenchmarkRun.Result r) {
+        System.out.format("%s,%.1f,%.3f,%d\n", mode, r.throughput(), r.abortRate(),
+                r.coordinators.timer(Metrics.Timer.READ_RTT).percentile(0.99));
+    }
+}
@@ -0,0 +1,30 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Histogram;
+import it.unitn.ds1.metrics.Metrics;
+
+// Lock hold time and abort rate with the servers handling messages in arrival order and with
+// the priority mailbox (decisions, then votes, then reads and writes). Run it under load, e.g.
+// with a larger CLIENT_WINDOW or a skewed KEY_DISTRIBUTION.
+public class MailboxBenchmark {
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null);
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        BenchmarkRun.Result fifo = run.run("mailbox-fifo", config.with("SERVER_MAILBOX", "fifo"));
+        BenchmarkRun.Result priority = run.run("mailbox-priority", config.with("SERVER_MAILBOX", "priority"));
+
+        System.out.println("mailbox,commits_per_s,abort_rate,validation_locked,lock_hold_p50_us,lock_hold_p99_us,txn_p99_us");
+        print("fifo", fifo);
+        print("priority", priority);
+    }
+
+    private static void print(String mode, BenchmarkRun.Result r) {
+        Histogram.Snapshot lockHold = r.servers.timer(Metrics.Timer.LOCK_HOLD);
+        System.out.format("%s,%.1f,%.3f,%d,%d,%d,%d\n", mode, r.throughput(), r.abortRate(),
+                r.servers.counter(Metrics.Counter.VALIDATION_LOCKED),
+                lockHold.percentile(0.5), lockHold.percentile(0.99),
+                r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+    }
+}
@@ -0,0 +1,33 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Throughput with coordinators crashing during 2PC (at increasing COORD_CRASH_PROBABILITY, servers do
+// not crash), with the plain protocol and with NON_BLOCKING_COMMIT. With the plain one the servers in READY
+// keep their keys locked until the crashed coordinator recovers; with the other a backup finishes the
+// transaction after the first unanswered termination query, so lock hold and termination times should
+// shrink and throughput on the hot keys hold up.
+public class NonBlockingCommitBenchmark {
+    private static final String[] CRASH_PROBABILITIES = {"0", "0.005", "0.01", "0.02", "0.05"};
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null).with("SERVER_CRASH_PROBABILITY", "0");
+        BenchmarkRun run = new BenchmarkRun(2000, 15000);
+
+        System.out.println("mode,coord_crash_probability,commits_per_s,abort_rate,takeovers,termination_p99_us,lock_hold_p99_us,consensus_p50_us");
+        for (String p : CRASH_PROBABILITIES) {
+            Config crashing = config.with("COORD_CRASH_PROBABILITY", p);
+            print("blocking", p, run.run("blocking", crashing.with("NON_BLOCKING_COMMIT", "false")));
+            print("non-blocking", p, run.run("non-blocking", crashing.with("NON_BLOCKING_COMMIT", "true")));
+        }
+    }
+
+    private static void print(String mode, String p, BenchmarkRun.Result r) {
+        System.out.format("%s,%s,%.1f,%.3f,%d,%d,%d,%d\n", mode, p, r.throughput(), r.abortRate(),
+                r.coordinators.counter(Metrics.Counter.TAKEOVER),
+                r.servers.timer(Metrics.Timer.TERMINATION).percentile(0.99),
+                r.servers.timer(Metrics.Timer.LOCK_HOLD).percentile(0.99),
+                r.coordinators.timer(Metrics.Timer.CONSENSUS).percentile(0.5));
+    }
+}
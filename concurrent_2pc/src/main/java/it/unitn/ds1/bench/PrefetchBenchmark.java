@@ -0,0 +1,34 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Transaction latency and throughput with keys chosen one operation at a time and with the read set declared at
+// the begin and prefetched by the coordinator (DECLARED_READS), for short and long transactions. Random crashes
+// are disabled.
+public class PrefetchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        Config[] profiles = {
+                config.with("MIN_TXN_LENGTH", "2").with("MAX_TXN_LENGTH", "5"),
+                config.with("MIN_TXN_LENGTH", "20").with("MAX_TXN_LENGTH", "40"),
+        };
+        String[] names = {"short", "long"};
+
+        System.out.println("length,declared_reads,commits_per_s,abort_rate,prefetched,prefetch_hits,txn_p50_us,txn_p99_us");
+        for (int i = 0; i < profiles.length; i++) {
+            for (String declared : new String[]{"false", "true"}) {
+                BenchmarkRun.Result r = run.run("prefetch-" + declared + "-" + i, profiles[i].with("DECLARED_READS", declared));
+                System.out.format("%s,%s,%.1f,%.3f,%d,%d,%d,%d\n", names[i], declared, r.throughput(), r.abortRate(),
+                        r.coordinators.counter(Metrics.Counter.PREFETCH),
+                        r.coordinators.counter(Metrics.Counter.PREFETCH_HIT),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.5),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+            }
+        }
+    }
+}
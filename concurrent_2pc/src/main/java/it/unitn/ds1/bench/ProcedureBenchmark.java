@@ -0,0 +1,30 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Transfers run interactively (the client reads both keys through the coordinator, then sends the deltas) and
+// as stored procedures (one call per transfer, no reads). Both use deltas, so the difference is in the round
+// trips; the re-executions count how often the coordinator ran the calls again instead of telling the client.
+public class ProcedureBenchmark {
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("WRITE_PROBABILITY", "1").with("KEYS_PER_OP", "2").with("DELTA_WRITES", "true");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        BenchmarkRun.Result interactive = run.run("procedures-off", config.with("STORED_PROCEDURES", "false"));
+        BenchmarkRun.Result stored = run.run("procedures-on", config.with("STORED_PROCEDURES", "true"));
+
+        System.out.println("mode,commits_per_s,abort_rate,reexecutions,txn_p50_us,txn_p99_us");
+        print("interactive", interactive);
+        print("stored", stored);
+    }
+
+    private static void print(String mode, BenchmarkRun.Result r) {
+        System.out.format("%s,%.1f,%.3f,%d,%d,%d\n", mode, r.throughput(), r.abortRate(),
+                r.coordinators.counter(Metrics.Counter.REEXECUTION),
+                r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.5),
+                r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+    }
+}
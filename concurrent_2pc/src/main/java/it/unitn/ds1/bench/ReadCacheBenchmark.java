@@ -0,0 +1,33 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Throughput and latency with and without the coordinators' READ_CACHE, on a large key space (few repeated reads)
+// and on a small one, where long transactions read the same keys many times. Random crashes are disabled.
+public class ReadCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        Config[] profiles = {
+                config.with("KEY_DISTRIBUTION", "uniform"),
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.99"),
+        };
+        String[] names = {"uniform", "zipf-0.99"};
+
+        System.out.println("keys,read_cache,commits_per_s,abort_rate,cache_hits,read_rtt_p50_us,txn_p50_us,txn_p99_us");
+        for (int i = 0; i < profiles.length; i++) {
+            for (String cache : new String[]{"false", "true"}) {
+                BenchmarkRun.Result r = run.run("read-cache-" + cache + "-" + i, profiles[i].with("READ_CACHE", cache));
+                System.out.format("%s,%s,%.1f,%.3f,%d,%d,%d,%d\n", names[i], cache, r.throughput(), r.abortRate(),
+                        r.coordinators.counter(Metrics.Counter.READ_CACHE_HIT),
+                        r.coordinators.timer(Metrics.Timer.READ_RTT).percentile(0.5),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.5),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+            }
+        }
+    }
+}
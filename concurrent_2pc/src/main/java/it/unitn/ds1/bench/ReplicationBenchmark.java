@@ -0,0 +1,62 @@
+package it.unitn.ds1.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.Main;
+import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.metrics.Metrics;
+
+// Throughput over time around a long crash of a server, without and with REPLICATION: without it every
+// transaction touching the crashed partition aborts until the server recovers, with it the coordinators
+// move to the backup once they suspect the primary. Random crashes are disabled, the failure detector on.
+public class ReplicationBenchmark {
+    private static final int WARMUP = 2000;   // ms
+    private static final int SAMPLE = 250;    // ms
+    private static final int SAMPLES = 40;
+    private static final int CRASH_AT = 8;    // sample
+    private static final int RECOVER_IN = 5000; // ms
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0");
+        if (config.heartbeatInterval <= 0)
+            config = config.with("HEARTBEAT_INTERVAL", "100");
+
+        double[] off = timeline("replication-off", config.with("REPLICATION", "false"));
+        double[] on = timeline("replication-on", config.with("REPLICATION", "true"));
+
+        System.out.println("time_ms,commits_per_s_off,commits_per_s_on");
+        for (int i = 0; i < SAMPLES; i++)
+            System.out.format("%d,%.1f,%.1f\n", (i - CRASH_AT) * SAMPLE, off[i], on[i]);
+    }
+
+    // commits per second in each sample, server 0 crashes at the beginning of sample CRASH_AT
+    private static double[] timeline(String name, Config config) throws Exception {
+        ActorSystem system = ActorSystem.create(name);
+        try {
+            Main.Deployment d = Main.deploy(system, config);
+            Thread.sleep(WARMUP);
+            double[] throughput = new double[SAMPLES];
+            Message.MetricsReport before = BenchmarkRun.collect(d.checker);
+            long start = System.nanoTime();
+            for (int i = 0; i < SAMPLES; i++) {
+                if (i == CRASH_AT)
+                    d.servers.get(0).tell(new Message.CrashMsg(RECOVER_IN), ActorRef.noSender());
+                Thread.sleep(SAMPLE);
+                Message.MetricsReport after = BenchmarkRun.collect(d.checker);
+                long now = System.nanoTime();
+                throughput[i] = (after.coordinators.counter(Metrics.Counter.COMMIT)
+                        - before.coordinators.counter(Metrics.Counter.COMMIT)) / ((now - start) / 1e9);
+                before = after;
+                start = now;
+            }
+            for (ActorRef client : d.clients)
+                client.tell(new Message.StopMsg(), ActorRef.noSender());
+            return throughput;
+        } finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Throughput on hot keys with occ, with and without SPECULATIVE_READS, from moderate skew to a hotspot: how many
+// reads see prepared values, how many votes wait instead of NO, and how many transactions abort in cascade.
+// Random crashes are disabled.
+public class SpeculationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("CONCURRENCY_CONTROL", "occ");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        Config[] profiles = {
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.9"),
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.99"),
+                config.with("KEY_DISTRIBUTION", "hotspot"),
+        };
+        String[] names = {"zipf-0.9", "zipf-0.99", "hotspot"};
+
+        System.out.println("contention,speculative,commits_per_s,abort_rate,validation_aborts,speculative_reads,speculative_waits,cascade_aborts,txn_p99_us");
+        for (int i = 0; i < profiles.length; i++) {
+            for (String speculative : new String[]{"false", "true"}) {
+                BenchmarkRun.Result r = run.run("speculation-" + speculative + "-" + i,
+                        profiles[i].with("SPECULATIVE_READS", speculative));
+                System.out.format("%s,%s,%.1f,%.3f,%d,%d,%d,%d,%d\n", names[i], speculative, r.throughput(), r.abortRate(),
+                        r.servers.counter(Metrics.Counter.VALIDATION_VERSION)
+                                + r.servers.counter(Metrics.Counter.VALIDATION_LOCKED),
+                        r.servers.counter(Metrics.Counter.SPECULATIVE_READ),
+                        r.servers.counter(Metrics.Counter.SPECULATIVE_WAIT),
+                        r.servers.counter(Metrics.Counter.ABORT_CASCADE),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+            }
+        }
+    }
+}
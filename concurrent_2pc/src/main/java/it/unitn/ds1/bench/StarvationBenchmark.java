@@ -0,0 +1,34 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Tail latency of long transactions (up to 40 operations) on a hotspot in the open workload, where they keep
+// losing to the short ones: without retries, retrying with backoff only, and with the keys reserved after
+// 1 or 3 aborts (STARVATION_ABORTS). The intended latency covers all the attempts. Random crashes are disabled.
+public class StarvationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("WORKLOAD", "open").with("KEY_DISTRIBUTION", "hotspot")
+                .with("MIN_TXN_LENGTH", "1").with("MAX_TXN_LENGTH", "40");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        System.out.println("mode,goodput,abort_rate,failed,reserved_aborts,intended_p50_us,intended_p99_us,intended_p999_us");
+        print("no-retry", run.run("starvation-off", config.with("RETRY_ABORTED", "false")));
+        print("backoff", run.run("starvation-backoff", config.with("RETRY_ABORTED", "true").with("STARVATION_ABORTS", "0")));
+        for (String aborts : new String[]{"3", "1"})
+            print("reserve-" + aborts, run.run("starvation-" + aborts,
+                    config.with("RETRY_ABORTED", "true").with("STARVATION_ABORTS", aborts)));
+    }
+
+    private static void print(String mode, BenchmarkRun.Result r) {
+        System.out.format("%s,%.1f,%.3f,%d,%d,%d,%d,%d\n", mode, r.throughput(), r.abortRate(),
+                r.generator.counter(Metrics.Counter.FAILED),
+                r.servers.counter(Metrics.Counter.VALIDATION_RESERVED),
+                r.generator.timer(Metrics.Timer.INTENDED_LATENCY).percentile(0.5),
+                r.generator.timer(Metrics.Timer.INTENDED_LATENCY).percentile(0.99),
+                r.generator.timer(Metrics.Timer.INTENDED_LATENCY).percentile(0.999));
+    }
+}
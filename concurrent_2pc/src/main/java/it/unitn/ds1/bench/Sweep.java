@@ -0,0 +1,117 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Histogram;
+import it.unitn.ds1.metrics.Metrics;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs every combination of the given parameter values, each in a fresh actor system, and writes
+// one CSV row per run. Usage:
+//   Sweep [--base config.properties] [--out sweep.csv] [--parallel 1] [--warmup 2000] [--measure 10000]
+//         N_CLIENTS=5,10,20 N_SERVER=5,10 ...
+// Runs executed in parallel share the CPUs, keep --parallel at 1 when measuring latency.
+public class Sweep {
+
+    public static void main(String[] args) throws Exception {
+        String base = null;
+        String out = "sweep.csv";
+        int parallel = 1, warmup = 2000, measure = 10000;
+        Map<String, List<String>> grid = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--base": base = args[++i]; break;
+                case "--out": out = args[++i]; break;
+                case "--parallel": parallel = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--measure": measure = Integer.parseInt(args[++i]); break;
+                default:
+                    String[] kv = args[i].split("=", 2);
+                    if (kv.length != 2 || !Config.keys().contains(kv[0]))
+                        throw new IllegalArgumentException("expected PARAMETER=v1,v2,... got " + args[i]);
+                    grid.put(kv[0], Arrays.asList(kv[1].split(",")));
+            }
+        }
+
+        // the clients on their own pool, so that the load does not take the cores measured, unless swept
+        Config baseConfig = Config.load(base);
+        if (!grid.containsKey("DISPATCHERS"))
+            baseConfig = baseConfig.with("DISPATCHERS", "dedicated");
+        List<Config> configs = expand(baseConfig, grid);
+        System.out.println("Sweep over " + configs.size() + " configurations");
+        BenchmarkRun run = new BenchmarkRun(warmup, measure);
+        List<String> keys = new ArrayList<>(grid.keySet());
+
+        try (PrintWriter csv = new PrintWriter(new FileWriter(out))) {
+            csv.println(header(keys));
+            csv.flush();
+            ExecutorService executor = Executors.newFixedThreadPool(parallel);
+            List<Future<?>> runs = new ArrayList<>();
+            for (int i = 0; i < configs.size(); i++) {
+                final int runId = i;
+                final Config config = configs.get(i);
+                runs.add(executor.submit(() -> {
+                    try {
+                        BenchmarkRun.Result r = run.run("sweep" + runId, config);
+                        synchronized (csv) {
+                            csv.println(row(runId, keys, config, r));
+                            csv.flush();
+                        }
+                    } catch (Exception e) {
+                        System.err.println("run " + runId + " failed: " + e);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : runs)
+                f.get();
+            executor.shutdown();
+        }
+        System.out.println("Results written to " + out);
+    }
+
+    // cartesian product of the parameter values, applied to the base configuration
+    static List<Config> expand(Config base, Map<String, List<String>> grid) {
+        List<Config> configs = new ArrayList<>();
+        configs.add(base);
+        for (Map.Entry<String, List<String>> parameter : grid.entrySet()) {
+            List<Config> next = new ArrayList<>();
+            for (Config c : configs)
+                for (String value : parameter.getValue())
+                    next.add(c.with(parameter.getKey(), value.trim()));
+            configs = next;
+        }
+        return configs;
+    }
+
+    static String header(List<String> keys) {
+        StringBuilder res = new StringBuilder("run");
+        for (String key : keys)
+            res.append(',').append(key);
+        res.append(",seconds,commits,throughput,abort_rate");
+        for (String timer : Arrays.asList("txn", "read_rtt", "vote", "lock_hold", "intended"))
+            res.append(',').append(timer).append("_p50_us,").append(timer).append("_p99_us");
+        return res.toString();
+    }
+
+    static String row(int runId, List<String> keys, Config config, BenchmarkRun.Result r) {
+        StringBuilder res = new StringBuilder().append(runId);
+        for (String key : keys)
+            res.append(',').append(config.get(key));
+        res.append(String.format(Locale.ROOT, ",%.2f,%d,%.1f,%.4f", r.seconds,
+                r.coordinators.counter(Metrics.Counter.COMMIT), r.throughput(), r.abortRate()));
+        for (Histogram.Snapshot h : Arrays.asList(
+                r.coordinators.timer(Metrics.Timer.TXN_LATENCY),
+                r.coordinators.timer(Metrics.Timer.READ_RTT),
+                r.coordinators.timer(Metrics.Timer.VOTE_COLLECTION),
+                r.servers.timer(Metrics.Timer.LOCK_HOLD),
+                r.generator.timer(Metrics.Timer.INTENDED_LATENCY)))
+            res.append(',').append(h.percentile(0.5)).append(',').append(h.percentile(0.99));
+        return res.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package it.unitn.ds1.bench;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import it.unitn.ds1.Config;
+import it.unitn.ds1.Main;
+import it.unitn.ds1.messages.Message;
+import it.unitn.ds1.metrics.Histogram;
+import it.unitn.ds1.metrics.Metrics;
+
+// Recovery of the servers blocked by a crashed coordinator, with and without TERMINATION_BATCHING. Many clients
+// run short transactions on few coordinators, so that the crashed one leaves many transactions in READY on every
+// server; the servers ask their decisions at once (they suspect the coordinator) and again until it recovers.
+// Coordinator 0 is crashed CRASHES times; the termination requests and queries sent meanwhile are counted, and
+// the TERMINATION timer is how long each blocked transaction took to learn its decision. Random crashes are
+// disabled.
+public class TerminationBenchmark {
+    private static final int WARMUP = 2000;      // ms
+    private static final int CRASHES = 5;
+    private static final int RECOVER_IN = 2000;  // ms
+    private static final int SETTLE = 3000;      // ms after the recovery, before the next crash
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("N_CLIENTS", "40").with("CLIENT_WINDOW", "4").with("N_COORDINATORS", "2").with("N_SERVER", "10")
+                .with("MIN_TXN_LENGTH", "2").with("MAX_TXN_LENGTH", "4");
+
+        System.out.println("batching,termination_requests,termination_queries,queries_per_request,termination_p50_us,termination_p99_us,termination_max_us,lock_hold_p99_us");
+        for (String batching : new String[]{"false", "true"}) {
+            Metrics.Snapshot s = crashes("termination-" + batching, config.with("TERMINATION_BATCHING", batching));
+            long requests = s.counter(Metrics.Counter.TERMINATION_REQUESTS);
+            long queries = s.counter(Metrics.Counter.TERMINATION_QUERIES);
+            Histogram.Snapshot termination = s.timer(Metrics.Timer.TERMINATION);
+            System.out.format("%s,%d,%d,%.1f,%d,%d,%d,%d\n", batching, requests, queries,
+                    requests == 0 ? 0 : (double) queries / requests,
+                    termination.percentile(0.5), termination.percentile(0.99), termination.max,
+                    s.timer(Metrics.Timer.LOCK_HOLD).percentile(0.99));
+        }
+    }
+
+    // the metrics of the servers from the first crash to the end of the last recovery
+    private static Metrics.Snapshot crashes(String name, Config config) throws Exception {
+        ActorSystem system = ActorSystem.create(name);
+        try {
+            Main.Deployment d = Main.deploy(system, config);
+            Thread.sleep(WARMUP);
+            Message.MetricsReport before = BenchmarkRun.collect(d.checker);
+            for (int i = 0; i < CRASHES; i++) {
+                d.coordinators.get(0).tell(new Message.CrashMsg(RECOVER_IN), ActorRef.noSender());
+                Thread.sleep(RECOVER_IN + SETTLE);
+            }
+            Message.MetricsReport after = BenchmarkRun.collect(d.checker);
+            for (ActorRef client : d.clients)
+                client.tell(new Message.StopMsg(), ActorRef.noSender());
+            return Metrics.Snapshot.diff(after.servers, before.servers);
+        } finally {
+            system.terminate();
+            system.getWhenTerminated().toCompletableFuture().get();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Histogram;
+import it.unitn.ds1.metrics.Metrics;
+
+// Commit rate and coordinator times of flat 2PC and of tree 2PC (COMMIT_FANOUT) with transactions that span most of
+// 50 to 500 servers. Each transaction reads about as many keys as there are servers, out of 100 per server, and
+// rarely writes, so that transactions seldom conflict and the comparison is of committing ones; the commit ratio is
+// printed next to the times to check it. The timeouts are far above the run times and the failure detector is off,
+// so that nothing aborts for being slow. Random crashes are disabled.
+public class TreeCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0")
+                .with("DB_SIZE", "100").with("KEYS_PER_OP", "10").with("WRITE_PROBABILITY", "0.05")
+                .with("ADAPTIVE_TIMEOUTS", "false").with("HEARTBEAT_INTERVAL", "0")
+                .with("COORD_TIMEOUT", "60000").with("SERVER_TIMEOUT", "60000").with("CLIENT_TIMEOUT", "60000");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        System.out.println("servers,fanout,commits_per_s,commit_ratio,vote_collection_p50_us,vote_collection_p99_us,decision_fanout_p99_us,txn_p99_us");
+        for (int nServer : new int[]{50, 100, 200, 500}) {
+            String length = String.valueOf(nServer / 10);
+            for (String fanout : new String[]{"0", "4", "8"}) {
+                BenchmarkRun.Result r = run.run("tree-" + nServer + "-" + fanout, config.with("N_SERVER", String.valueOf(nServer))
+                        .with("MIN_TXN_LENGTH", length).with("MAX_TXN_LENGTH", length).with("COMMIT_FANOUT", fanout));
+                Histogram.Snapshot votes = r.coordinators.timer(Metrics.Timer.VOTE_COLLECTION);
+                System.out.format("%d,%s,%.1f,%.3f,%d,%d,%d,%d\n", nServer, fanout, r.throughput(), 1 - r.abortRate(),
+                        votes.percentile(0.5), votes.percentile(0.99),
+                        r.coordinators.timer(Metrics.Timer.DECISION_FANOUT).percentile(0.99),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+            }
+        }
+    }
+}
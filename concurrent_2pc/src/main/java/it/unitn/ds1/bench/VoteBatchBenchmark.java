@@ -0,0 +1,37 @@
+package it.unitn.ds1.bench;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+
+// Commit rate of batch validation (VOTE_BATCH_WINDOW) against the latency it adds to the votes, as the window grows,
+// with little and much contention. Random crashes are disabled.
+public class VoteBatchBenchmark {
+    private static final int[] WINDOWS = {0, 1, 2, 5, 10};
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.load(args.length > 0 ? args[0] : null)
+                .with("COORD_CRASH_PROBABILITY", "0").with("SERVER_CRASH_PROBABILITY", "0");
+        BenchmarkRun run = new BenchmarkRun(2000, 10000);
+
+        Config[] profiles = {
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.5"),
+                config.with("KEY_DISTRIBUTION", "zipfian").with("ZIPF_THETA", "0.99"),
+                config.with("KEY_DISTRIBUTION", "hotspot"),
+        };
+        String[] names = {"zipf-0.5", "zipf-0.99", "hotspot"};
+
+        System.out.println("contention,window_ms,commits_per_s,abort_rate,validation_aborts,batch_wait_p50_us,batch_wait_p99_us,txn_p99_us");
+        for (int i = 0; i < profiles.length; i++) {
+            for (int window : WINDOWS) {
+                BenchmarkRun.Result r = run.run("vote-batch-" + window + "-" + i,
+                        profiles[i].with("VOTE_BATCH_WINDOW", String.valueOf(window)));
+                System.out.format("%s,%d,%.1f,%.3f,%d,%d,%d,%d\n", names[i], window, r.throughput(), r.abortRate(),
+                        r.servers.counter(Metrics.Counter.VALIDATION_VERSION)
+                                + r.servers.counter(Metrics.Counter.VALIDATION_LOCKED),
+                        r.servers.timer(Metrics.Timer.VOTE_BATCH_WAIT).percentile(0.5),
+                        r.servers.timer(Metrics.Timer.VOTE_BATCH_WAIT).percentile(0.99),
+                        r.coordinators.timer(Metrics.Timer.TXN_LATENCY).percentile(0.99));
+            }
+        }
+    }
+}
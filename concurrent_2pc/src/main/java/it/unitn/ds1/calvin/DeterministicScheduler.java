@@ -0,0 +1,161 @@
+package it.unitn.ds1.calvin;
+
+import it.unitn.ds1.messages.ClientCoordinatorMessage;
+import it.unitn.ds1.messages.SequencerMessage;
+import it.unitn.ds1.procedures.Procedure;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.*;
+
+// Runs the sequenced transactions of a server in the global order (EXECUTION=calvin). Each key has a queue of
+// the transactions accessing it; a transaction holds its keys once it is first in all their queues, so the
+// values it reads are those left by the transactions before it in the order, on every server. It then shares
+// them with the other participants, and runs when it has the values of all its keys: every participant runs
+// the whole transaction on the same values, so they all commit or all abort (if a value would go negative)
+// without voting, and each one writes its own keys.
+public class DeterministicScheduler {
+    private static class Entry {
+        final SequencerMessage.Sequenced txn;
+        final List<Integer> localKeys = new ArrayList<>();
+        final Map<Integer, Integer> values = new HashMap<>();
+        boolean read;
+
+        Entry(SequencerMessage.Sequenced txn) {
+            this.txn = txn;
+        }
+    }
+
+    private final int partition;
+    private final int dbSize;
+    private final Map<Integer, Resource> database;
+    // transactions not run yet, in the global order, and the queue of each key
+    private final Map<Transaction, Entry> entries = new LinkedHashMap<>();
+    private final Map<Integer, Deque<Transaction>> queues = new HashMap<>();
+    // values shared by the other participants before we got the batch of the transaction
+    private final Map<Transaction, Map<Integer, Integer>> early = new HashMap<>();
+
+    public DeterministicScheduler(int partition, int dbSize, Map<Integer, Resource> database) {
+        this.partition = partition;
+        this.dbSize = dbSize;
+        this.database = database;
+    }
+
+    public boolean isLocal(int key) {
+        return key / dbSize == partition;
+    }
+
+    // the partitions of the other participants of the transaction
+    public Set<Integer> otherParticipants(SequencerMessage.Sequenced txn) {
+        Set<Integer> res = new TreeSet<>();
+        for (Integer key : txn.keys)
+            res.add(key / dbSize);
+        res.remove(partition);
+        return res;
+    }
+
+    // the participant which tells the client the outcome
+    public boolean reports(SequencerMessage.Sequenced txn) {
+        return txn.keys.first() / dbSize == partition;
+    }
+
+    // the next transaction in the order
+    public void add(SequencerMessage.Sequenced txn) {
+        Entry e = new Entry(txn);
+        for (Integer key : txn.keys) {
+            if (isLocal(key)) {
+                e.localKeys.add(key);
+                queues.computeIfAbsent(key, k -> new ArrayDeque<>()).add(txn.transaction);
+            }
+        }
+        Map<Integer, Integer> values = early.remove(txn.transaction);
+        if (values != null)
+            e.values.putAll(values);
+        entries.put(txn.transaction, e);
+    }
+
+    // values of another participant
+    public void remoteReads(Transaction transaction, Map<Integer, Integer> values) {
+        Entry e = entries.get(transaction);
+        if (e != null)
+            e.values.putAll(values);
+        else
+            early.computeIfAbsent(transaction, k -> new HashMap<>()).putAll(values);
+    }
+
+    private boolean holdsKeys(Entry e) {
+        for (Integer key : e.localKeys) {
+            if (!queues.get(key).peek().equals(e.txn.transaction))
+                return false;
+        }
+        return true;
+    }
+
+    // a transaction which got its keys and has not read them yet: read them, and return it with its local
+    // values (to share with the other participants), or null if there is none
+    public Map.Entry<SequencerMessage.Sequenced, Map<Integer, Integer>> nextToRead() {
+        for (Entry e : entries.values()) {
+            if (e.read || !holdsKeys(e))
+                continue;
+            e.read = true;
+            Map<Integer, Integer> local = new HashMap<>();
+            for (Integer key : e.localKeys)
+                local.put(key, database.get(key).getValue());
+            e.values.putAll(local);
+            return new AbstractMap.SimpleEntry<>(e.txn, local);
+        }
+        return null;
+    }
+
+    // a transaction with the values of all its keys, or null if there is none
+    public SequencerMessage.Sequenced nextToRun() {
+        for (Entry e : entries.values()) {
+            if (e.read && e.values.keySet().containsAll(e.txn.keys))
+                return e.txn;
+        }
+        return null;
+    }
+
+    // run the calls of the transaction on its values, write our keys if it commits, and release them
+    public boolean run(SequencerMessage.Sequenced txn) {
+        Entry e = entries.remove(txn.transaction);
+        Map<Integer, Integer> values = new HashMap<>(e.values);
+        Procedure.Context ctx = new Procedure.Context() {
+            @Override
+            public boolean isLocal(int key) {
+                return values.containsKey(key);
+            }
+
+            @Override
+            public int read(int key) {
+                return values.get(key);
+            }
+
+            @Override
+            public void write(int key, int value) {
+                values.put(key, value);
+            }
+
+            @Override
+            public void add(int key, int delta) {
+                values.merge(key, delta, Integer::sum);
+            }
+        };
+        for (ClientCoordinatorMessage.CallMsg call : txn.calls)
+            Procedure.get(call.procedure).run(ctx, call.args);
+        boolean commit = true;
+        for (Integer value : values.values())
+            commit &= value >= 0;
+        for (Integer key : e.localKeys) {
+            if (commit && !values.get(key).equals(e.values.get(key))) {
+                Resource r = database.get(key);
+                r.setValue(values.get(key));
+                r.setVersion(r.getVersion() + 1);
+            }
+            queues.get(key).poll();
+            if (queues.get(key).isEmpty())
+                queues.remove(key);
+        }
+        return commit;
+    }
+}
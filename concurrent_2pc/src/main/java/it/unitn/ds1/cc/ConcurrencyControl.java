@@ -0,0 +1,74 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.Config;
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// How a server isolates the transactions on its keys, according to CONCURRENCY_CONTROL. The server calls
+// access before every read and write, validate and hold when it votes, committed after writing a committed
+// workspace to the database, and release when the transaction is decided.
+public interface ConcurrencyControl {
+
+    enum Access {OK, WAIT, ABORT}
+
+    // the transaction reads or writes the key: go on, wait (the server keeps the action until release
+    // lets the transaction go on), or abort it
+    Access access(ServerTransaction t, int key, boolean write);
+
+    // vote: can the transaction commit?
+    boolean validate(ServerTransaction t);
+
+    // the transaction is prepared: protect its keys until the decision, and return the transactions which
+    // lost them to it and must abort (it may be prepared elsewhere and adopted by a backup)
+    List<Transaction> hold(ServerTransaction t);
+
+    // the keys hold protects for the prepared transaction: the others on them cannot validate until it is
+    // decided (by default those it writes)
+    default Set<Integer> lockedKeys(ServerTransaction t) {
+        Set<Integer> keys = new HashSet<>();
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet())
+            if (entry.getValue().getChanged())
+                keys.add(entry.getKey());
+        return keys;
+    }
+
+    // the versions a committing transaction read are still the current ones
+    default boolean readsStayCurrent() {
+        return true;
+    }
+
+    // the workspace of the transaction has been written to the database
+    default void committed(ServerTransaction t) {
+    }
+
+    // the prepared transaction holding the key, if the engine lets others read what it is going to
+    // write (SPECULATIVE_READS), null otherwise
+    default Transaction preparedHolder(int key) {
+        return null;
+    }
+
+    // the transaction is decided (or aborted before voting): release its keys, and return the
+    // transactions which were waiting for them and can go on
+    List<Transaction> release(ServerTransaction t);
+
+    static ConcurrencyControl create(Config config, Map<Integer, Resource> database, Metrics metrics) {
+        switch (config.concurrencyControl) {
+            case "occ":
+                return new Optimistic(database, metrics);
+            case "2pl":
+                return new TwoPhaseLocking(metrics);
+            case "tictoc":
+                return new TicToc(database, metrics);
+            default:
+                throw new IllegalArgumentException("unknown concurrency control " + config.concurrencyControl);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+
+import java.util.*;
+
+// Batch validation (VOTE_BATCH_WINDOW): two transactions of a batch conflict if validating one first would make the
+// other vote NO: they access a same key and one of them writes it, or one accesses a key the concurrency control
+// locks for the other once prepared (with occ also the keys it only read). Validating first an independent set of
+// the graph, none of its transactions makes another one vote NO; they may still vote NO on their own (a version
+// changed before the batch, a key held by a transaction prepared earlier). The largest set is hard to find, we take
+// the greedy one made by choosing each time the transaction with the fewest conflicts left (among those which
+// aborted most times before, see RETRY_ABORTED). Deltas commute and are checked by the escrow, so they do not count
+// as conflicts.
+public class ConflictGraph {
+
+    // the batch in the order to validate it with the given concurrency control: the independent set, then the
+    // others (in the batch order)
+    public static List<ServerTransaction> validationOrder(List<ServerTransaction> batch, ConcurrencyControl cc) {
+        Map<ServerTransaction, Set<Integer>> locked = new HashMap<>();
+        for (ServerTransaction t : batch)
+            locked.put(t, cc.lockedKeys(t));
+        Map<ServerTransaction, Set<ServerTransaction>> conflicts = new LinkedHashMap<>();
+        for (ServerTransaction t : batch)
+            conflicts.put(t, new HashSet<>());
+        for (int i = 0; i < batch.size(); i++)
+            for (int j = i + 1; j < batch.size(); j++)
+                if (conflict(batch.get(i), batch.get(j), locked)) {
+                    conflicts.get(batch.get(i)).add(batch.get(j));
+                    conflicts.get(batch.get(j)).add(batch.get(i));
+                }
+
+        List<ServerTransaction> order = new ArrayList<>();
+        Set<ServerTransaction> left = new LinkedHashSet<>(batch);
+        while (!left.isEmpty()) {
+            ServerTransaction chosen = null;
+            for (ServerTransaction t : left)
+                if (chosen == null || t.getPriority() > chosen.getPriority() || (t.getPriority() == chosen.getPriority()
+                        && degree(t, conflicts, left) < degree(chosen, conflicts, left)))
+                    chosen = t;
+            order.add(chosen);
+            left.remove(chosen);
+            left.removeAll(conflicts.get(chosen));
+        }
+        for (ServerTransaction t : batch)
+            if (!order.contains(t))
+                order.add(t);
+        return order;
+    }
+
+    private static boolean conflict(ServerTransaction a, ServerTransaction b, Map<ServerTransaction, Set<Integer>> locked) {
+        for (Map.Entry<Integer, WorkspaceResource> entry : a.getWorkspace().entrySet()) {
+            Integer key = entry.getKey();
+            WorkspaceResource other = b.getWorkspace().get(key);
+            if (other == null)
+                continue;
+            if (entry.getValue().getChanged() || other.getChanged()
+                    || locked.get(a).contains(key) || locked.get(b).contains(key))
+                return true;
+        }
+        return false;
+    }
+
+    // conflicts with the transactions still candidates for the set
+    private static int degree(ServerTransaction t, Map<ServerTransaction, Set<ServerTransaction>> conflicts,
+                              Set<ServerTransaction> left) {
+        int degree = 0;
+        for (ServerTransaction other : conflicts.get(t))
+            if (left.contains(other))
+                degree++;
+        return degree;
+    }
+}
@@ -0,0 +1,66 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.*;
+
+// Commit dependencies of speculative reads (SPECULATIVE_READS): a transaction which read what a prepared transaction
+// is going to write, or validated against the keys it holds, depends on it. It votes only once the prepared one is
+// decided, and aborts with it. A transaction can only depend on those which precede it, so the dependencies of the
+// servers never close a cycle in which nobody votes.
+public class Dependencies {
+    private final Map<Transaction, Set<Transaction>> dependsOn = new HashMap<>();
+    private final Map<Transaction, Set<Transaction>> dependents = new HashMap<>();
+
+    // the order of the dependencies: aborted more times first, then begun earlier; client, attempt and
+    // incarnation only break the ties, so that it is total
+    public static boolean precedes(Transaction a, Transaction b) {
+        if (a.getPriority() != b.getPriority())
+            return a.getPriority() > b.getPriority();
+        if (a.getTimestamp() != b.getTimestamp())
+            return a.getTimestamp() < b.getTimestamp();
+        if (!a.getClientId().equals(b.getClientId()))
+            return a.getClientId() < b.getClientId();
+        if (!a.getNumAttemptedTxn().equals(b.getNumAttemptedTxn()))
+            return a.getNumAttemptedTxn() < b.getNumAttemptedTxn();
+        return a.getIncarnation() < b.getIncarnation();
+    }
+
+    public void add(Transaction dependent, Transaction on) {
+        dependsOn.computeIfAbsent(dependent, k -> new HashSet<>()).add(on);
+        dependents.computeIfAbsent(on, k -> new HashSet<>()).add(dependent);
+    }
+
+    // some transaction it depends on is not decided yet
+    public boolean isWaiting(Transaction t) {
+        return dependsOn.containsKey(t);
+    }
+
+    // the transaction is decided: forget its dependencies, and return the transactions which depended on it
+    public Set<Transaction> resolve(Transaction t) {
+        Set<Transaction> on = dependsOn.remove(t);
+        if (on != null) {
+            for (Transaction other : on) {
+                Set<Transaction> others = dependents.get(other);
+                others.remove(t);
+                if (others.isEmpty())
+                    dependents.remove(other);
+            }
+        }
+        Set<Transaction> waiting = dependents.remove(t);
+        if (waiting == null)
+            return Collections.emptySet();
+        for (Transaction dependent : waiting) {
+            Set<Transaction> others = dependsOn.get(dependent);
+            others.remove(t);
+            if (others.isEmpty())
+                dependsOn.remove(dependent);
+        }
+        return waiting;
+    }
+
+    public void clear() {
+        dependsOn.clear();
+        dependents.clear();
+    }
+}
@@ -0,0 +1,67 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Escrow for the delta operations (DELTA_WRITES): deltas commute, so they are not validated against the
+// versions, only against the invariant that no value goes below zero. A transaction taking an amount from a key
+// is prepared only if the value stays non-negative even if all the prepared transactions taking from it commit;
+// what they add is not counted until they commit. Deltas are not isolated from plain writes of the same key.
+public class Escrow {
+    private final Map<Integer, Resource> database;
+    private final Metrics metrics;
+    // sum of the amounts taken from each key by the prepared transactions, and what each of them took
+    private final Map<Integer, Integer> reserved = new HashMap<>();
+    private final Map<Transaction, Map<Integer, Integer>> reservations = new HashMap<>();
+
+    public Escrow(Map<Integer, Resource> database, Metrics metrics) {
+        this.database = database;
+        this.metrics = metrics;
+    }
+
+    // vote: the lower bound of each key the transaction takes from stays non-negative
+    public boolean validate(ServerTransaction t) {
+        for (Map.Entry<Integer, Integer> entry : t.getDeltas().entrySet()) {
+            int key = entry.getKey();
+            if (entry.getValue() < 0
+                    && database.get(key).getValue() - reserved.getOrDefault(key, 0) + entry.getValue() < 0) {
+                metrics.count(Metrics.Counter.VALIDATION_ESCROW);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the transaction is prepared: reserve the amounts it takes (again, if its deltas changed)
+    public void hold(ServerTransaction t) {
+        release(t);
+        Map<Integer, Integer> taken = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : t.getDeltas().entrySet()) {
+            if (entry.getValue() < 0) {
+                taken.put(entry.getKey(), -entry.getValue());
+                reserved.merge(entry.getKey(), -entry.getValue(), Integer::sum);
+            }
+        }
+        if (!taken.isEmpty())
+            reservations.put(t, taken);
+    }
+
+    // the transaction is decided: its amounts are taken from the values, or given back
+    public void release(ServerTransaction t) {
+        Map<Integer, Integer> taken = reservations.remove(t);
+        if (taken == null)
+            return;
+        for (Map.Entry<Integer, Integer> entry : taken.entrySet()) {
+            int left = reserved.get(entry.getKey()) - entry.getValue();
+            if (left == 0)
+                reserved.remove(entry.getKey());
+            else
+                reserved.put(entry.getKey(), left);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.*;
+
+// Backward validation: a transaction can commit if no key it accessed got a new version since it read it,
+// and no key it accessed is held by a prepared transaction. Prepared transactions hold all their keys.
+public class Optimistic implements ConcurrencyControl {
+    private final Map<Integer, Resource> database;
+    private final Metrics metrics;
+    // keys of the transactions which voted YES and are not decided yet
+    private final Map<Integer, Transaction> pendingResource = new HashMap<>();
+
+    public Optimistic(Map<Integer, Resource> database, Metrics metrics) {
+        this.database = database;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Access access(ServerTransaction t, int key, boolean write) {
+        return Access.OK;
+    }
+
+    @Override
+    public boolean validate(ServerTransaction t) {
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            Integer version = entry.getValue().getVersion();
+            Integer key = entry.getKey();
+            if (!version.equals(database.get(key).getVersion())) {
+                metrics.count(Metrics.Counter.VALIDATION_VERSION);
+                return false;
+            }
+            if (pendingResource.containsKey(key)) {
+                metrics.count(Metrics.Counter.VALIDATION_LOCKED);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<Transaction> hold(ServerTransaction t) {
+        for (Integer key : t.getWorkspace().keySet())
+            pendingResource.put(key, t);
+        return Collections.emptyList();
+    }
+
+    // also the keys it only read
+    @Override
+    public Set<Integer> lockedKeys(ServerTransaction t) {
+        return new HashSet<>(t.getWorkspace().keySet());
+    }
+
+    @Override
+    public Transaction preparedHolder(int key) {
+        return pendingResource.get(key);
+    }
+
+    @Override
+    public List<Transaction> release(ServerTransaction t) {
+        for (Integer key : t.getWorkspace().keySet()) {
+            if (pendingResource.get(key) != null && pendingResource.get(key).equals(t))
+                pendingResource.remove(key);
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,63 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Key reservations against starvation (STARVATION_ABORTS): a transaction that aborted that many times reserves the
+// keys it accesses until it is decided, and the other transactions accessing them vote NO, so that they neither
+// overwrite what it read nor hold the keys when it validates. A key reserved twice goes to the transaction that
+// aborted more times (to the first one on a tie). Deltas are left to the escrow.
+public class Reservations {
+    private final int threshold;
+    private final Metrics metrics;
+    private final Map<Integer, Transaction> owners = new HashMap<>();
+    private final Map<Transaction, Set<Integer>> reserved = new HashMap<>();
+
+    public Reservations(int threshold, Metrics metrics) {
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    // the transaction read or wrote the key: reserve it, if the transaction is old enough
+    public void access(ServerTransaction t, int key) {
+        if (threshold <= 0 || t.getPriority() < threshold)
+            return;
+        Transaction owner = owners.get(key);
+        if (owner != null && (owner.equals(t) || owner.getPriority() >= t.getPriority()))
+            return;
+        if (owner != null)
+            reserved.get(owner).remove(key);
+        owners.put(key, t);
+        reserved.computeIfAbsent(t, k -> new HashSet<>()).add(key);
+    }
+
+    // vote: no key of the transaction is reserved by another one
+    public boolean validate(ServerTransaction t) {
+        if (owners.isEmpty())
+            return true;
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            Transaction owner = owners.get(entry.getKey());
+            if (owner != null && !owner.equals(t)) {
+                metrics.count(Metrics.Counter.VALIDATION_RESERVED);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the transaction is decided: the keys are free again
+    public void release(ServerTransaction t) {
+        Set<Integer> keys = reserved.remove(t);
+        if (keys == null)
+            return;
+        for (Integer key : keys)
+            owners.remove(key);
+    }
+}
@@ -0,0 +1,135 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.*;
+
+// TicToc (Yu et al., SIGMOD 2016): each version of a key is valid from the timestamp of its write (wts) to
+// the last timestamp it has been read at (rts). At validation the transaction gets the smallest commit
+// timestamp after the rts of the keys it writes and the wts of those it reads, and commits if every version it
+// read is (or can be extended to be) valid at that timestamp: unlike the backward validation, a transaction
+// which read a version overwritten since can still commit before the overwrite. Prepared transactions hold
+// only the keys they write. Timestamps are local to each server, so the order is only guaranteed per partition.
+public class TicToc implements ConcurrencyControl {
+    private final Map<Integer, Resource> database;
+    private final Metrics metrics;
+    // wts and rts of the current version of each key, {0, 0} until the first commit
+    private final Map<Integer, long[]> timestamps = new HashMap<>();
+    // wts and rts of the versions each transaction read, and its commit timestamp once validated
+    private final Map<Transaction, Map<Integer, long[]>> readSets = new HashMap<>();
+    private final Map<Transaction, Long> commitTs = new HashMap<>();
+    // keys written by the prepared transactions
+    private final Map<Integer, Transaction> locked = new HashMap<>();
+
+    public TicToc(Map<Integer, Resource> database, Metrics metrics) {
+        this.database = database;
+        this.metrics = metrics;
+    }
+
+    private long[] timestamps(int key) {
+        return timestamps.computeIfAbsent(key, k -> new long[]{0, 0});
+    }
+
+    private boolean lockedByOthers(int key, Transaction t) {
+        return locked.containsKey(key) && !locked.get(key).equals(t);
+    }
+
+    // remember the timestamps of the version read the first time (it is copied in the workspace then)
+    @Override
+    public Access access(ServerTransaction t, int key, boolean write) {
+        readSets.computeIfAbsent(t, k -> new HashMap<>()).computeIfAbsent(key, k -> timestamps(k).clone());
+        return Access.OK;
+    }
+
+    @Override
+    public boolean validate(ServerTransaction t) {
+        Map<Integer, long[]> readSet = readSets.getOrDefault(t, Collections.emptyMap());
+        long ts = 0;
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            int key = entry.getKey();
+            if (entry.getValue().getChanged()) {
+                if (lockedByOthers(key, t)) {
+                    metrics.count(Metrics.Counter.VALIDATION_LOCKED);
+                    return false;
+                }
+                // a write must follow the last read of the version it replaces, which must be the one read
+                if (!entry.getValue().getVersion().equals(database.get(key).getVersion())) {
+                    metrics.count(Metrics.Counter.VALIDATION_VERSION);
+                    return false;
+                }
+                ts = Math.max(ts, timestamps(key)[1] + 1);
+            } else if (readSet.containsKey(key)) {
+                ts = Math.max(ts, readSet.get(key)[0]);
+            }
+        }
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            int key = entry.getKey();
+            long[] read = readSet.get(key);
+            if (entry.getValue().getChanged() || read == null || read[1] >= ts)
+                continue;
+            // extend the validity of the version read up to ts, if it is still the current one
+            long[] current = timestamps(key);
+            if (current[0] != read[0] || !entry.getValue().getVersion().equals(database.get(key).getVersion())) {
+                metrics.count(Metrics.Counter.VALIDATION_VERSION);
+                return false;
+            }
+            if (lockedByOthers(key, t)) {
+                metrics.count(Metrics.Counter.VALIDATION_LOCKED);
+                return false;
+            }
+            current[1] = Math.max(current[1], ts);
+        }
+        commitTs.put(t, ts);
+        return true;
+    }
+
+    @Override
+    public List<Transaction> hold(ServerTransaction t) {
+        long ts = 0;
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            if (entry.getValue().getChanged()) {
+                locked.put(entry.getKey(), t);
+                ts = Math.max(ts, timestamps(entry.getKey())[1] + 1);
+            }
+        }
+        // prepared elsewhere (adopted by a backup): any timestamp after the keys it writes
+        commitTs.putIfAbsent(t, ts);
+        return Collections.emptyList();
+    }
+
+    // a transaction may commit before the overwrite of a version it read
+    @Override
+    public boolean readsStayCurrent() {
+        return false;
+    }
+
+    // the new versions are valid from the commit timestamp
+    @Override
+    public void committed(ServerTransaction t) {
+        long ts = commitTs.getOrDefault(t, 0L);
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            if (entry.getValue().getChanged())
+                timestamps.put(entry.getKey(), new long[]{ts, ts});
+        }
+    }
+
+    // the commit timestamp chosen at the validation, null before it and after the release
+    Long commitTimestamp(Transaction t) {
+        return commitTs.get(t);
+    }
+
+    @Override
+    public List<Transaction> release(ServerTransaction t) {
+        for (Integer key : t.getWorkspace().keySet()) {
+            if (locked.get(key) != null && locked.get(key).equals(t))
+                locked.remove(key);
+        }
+        readSets.remove(t);
+        commitTs.remove(t);
+        return Collections.emptyList();
+    }
+}
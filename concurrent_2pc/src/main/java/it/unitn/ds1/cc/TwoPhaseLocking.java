@@ -0,0 +1,204 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.*;
+
+// Strict two-phase locking: a read takes a shared lock, a write an exclusive one, and all of them are kept
+// until the decision, so validation always succeeds. A transaction waits for a lock held by others behind the
+// requests already queued (a holder upgrading its lock goes first); if waiting would close a cycle in the
+// wait-for graph the transaction is aborted instead. Deadlocks across servers are broken by the timeouts.
+// A transaction prepared elsewhere and adopted by a backup takes its locks from the holders which have not
+// voted yet, which abort; it queues first behind those already prepared.
+public class TwoPhaseLocking implements ConcurrencyControl {
+    private static class Request {
+        final Transaction transaction;
+        final boolean write;
+
+        Request(Transaction transaction, boolean write) {
+            this.transaction = transaction;
+            this.write = write;
+        }
+    }
+
+    private static class Lock {
+        final Set<Transaction> shared = new HashSet<>();
+        Transaction exclusive;
+        final Deque<Request> queue = new ArrayDeque<>();
+
+        boolean isFree() {
+            return exclusive == null && shared.isEmpty() && queue.isEmpty();
+        }
+
+        boolean holds(Transaction t) {
+            return t.equals(exclusive) || shared.contains(t);
+        }
+
+        boolean compatible(Transaction t, boolean write) {
+            if (exclusive != null && !exclusive.equals(t))
+                return false;
+            return !write || shared.isEmpty() || (shared.size() == 1 && shared.contains(t));
+        }
+
+        void grant(Transaction t, boolean write) {
+            if (write) {
+                exclusive = t;
+                shared.remove(t);
+            } else if (!t.equals(exclusive)) {
+                shared.add(t);
+            }
+        }
+
+        // the transactions t waits for: the holders, and those queued before it
+        Set<Transaction> blocking(Transaction t) {
+            Set<Transaction> res = new HashSet<>(shared);
+            if (exclusive != null)
+                res.add(exclusive);
+            for (Request r : queue) {
+                if (r.transaction.equals(t))
+                    break;
+                res.add(r.transaction);
+            }
+            res.remove(t);
+            return res;
+        }
+    }
+
+    private final Metrics metrics;
+    private final Map<Integer, Lock> locks = new HashMap<>();
+    // keys each transaction holds a lock on, and the key it is waiting for
+    private final Map<Transaction, Set<Integer>> held = new HashMap<>();
+    private final Map<Transaction, Integer> waitingFor = new HashMap<>();
+    // keys an adopted transaction is queued for, behind prepared holders
+    private final Map<Transaction, Set<Integer>> adopting = new HashMap<>();
+
+    public TwoPhaseLocking(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Access access(ServerTransaction t, int key, boolean write) {
+        Lock lock = locks.computeIfAbsent(key, k -> new Lock());
+        if (lock.compatible(t, write) && (lock.queue.isEmpty() || lock.holds(t))) {
+            lock.grant(t, write);
+            held.computeIfAbsent(t, k -> new HashSet<>()).add(key);
+            return Access.OK;
+        }
+        if (closesCycle(t, lock.blocking(t))) {
+            metrics.count(Metrics.Counter.DEADLOCK);
+            if (lock.isFree())
+                locks.remove(key);
+            return Access.ABORT;
+        }
+        metrics.count(Metrics.Counter.LOCK_WAIT);
+        lock.queue.add(new Request(t, write));
+        waitingFor.put(t, key);
+        return Access.WAIT;
+    }
+
+    // would t waiting for these transactions make them (transitively) wait for t?
+    private boolean closesCycle(Transaction t, Set<Transaction> blocking) {
+        Deque<Transaction> toVisit = new ArrayDeque<>(blocking);
+        Set<Transaction> visited = new HashSet<>();
+        while (!toVisit.isEmpty()) {
+            Transaction u = toVisit.poll();
+            if (u.equals(t))
+                return true;
+            if (!visited.add(u) || !waitingFor.containsKey(u))
+                continue;
+            toVisit.addAll(locks.get(waitingFor.get(u)).blocking(u));
+        }
+        return false;
+    }
+
+    // the locks were taken while reading and writing
+    @Override
+    public boolean validate(ServerTransaction t) {
+        return true;
+    }
+
+    // the transaction is prepared without having taken the locks here (adopted by a backup): take them now,
+    // from the holders which have not voted (they must abort), or queue first behind the prepared ones
+    @Override
+    public List<Transaction> hold(ServerTransaction t) {
+        List<Transaction> preempted = new ArrayList<>();
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            Integer key = entry.getKey();
+            boolean write = entry.getValue().getChanged();
+            Lock lock = locks.computeIfAbsent(key, k -> new Lock());
+            if (lock.holds(t) && lock.compatible(t, write))
+                continue;
+            for (Transaction holder : conflicting(lock, t, write)) {
+                if (holder.getState() == Transaction.State.READY)
+                    continue;
+                lock.shared.remove(holder);
+                if (holder.equals(lock.exclusive))
+                    lock.exclusive = null;
+                held.get(holder).remove(key);
+                if (!preempted.contains(holder))
+                    preempted.add(holder);
+            }
+            if (lock.compatible(t, write)) {
+                lock.grant(t, write);
+                held.computeIfAbsent(t, k -> new HashSet<>()).add(key);
+            } else {
+                lock.queue.addFirst(new Request(t, write));
+                adopting.computeIfAbsent(t, k -> new HashSet<>()).add(key);
+            }
+        }
+        return preempted;
+    }
+
+    // the holders of the lock t cannot share it with
+    private static List<Transaction> conflicting(Lock lock, Transaction t, boolean write) {
+        List<Transaction> res = new ArrayList<>();
+        if (lock.exclusive != null && !lock.exclusive.equals(t))
+            res.add(lock.exclusive);
+        if (write)
+            for (Transaction holder : lock.shared)
+                if (!holder.equals(t))
+                    res.add(holder);
+        return res;
+    }
+
+    @Override
+    public List<Transaction> release(ServerTransaction t) {
+        Set<Integer> keys = held.remove(t);
+        if (keys == null)
+            keys = new HashSet<>();
+        Integer waiting = waitingFor.remove(t);
+        if (waiting != null) {
+            locks.get(waiting).queue.removeIf(r -> r.transaction.equals(t));
+            keys.add(waiting);
+        }
+        for (Integer key : adopting.getOrDefault(t, Collections.emptySet())) {
+            locks.get(key).queue.removeIf(r -> r.transaction.equals(t));
+            keys.add(key);
+        }
+        adopting.remove(t);
+        List<Transaction> resumed = new ArrayList<>();
+        for (Integer key : keys) {
+            Lock lock = locks.get(key);
+            lock.shared.remove(t);
+            if (t.equals(lock.exclusive))
+                lock.exclusive = null;
+            // grant the queued requests in order, as long as they are compatible
+            while (!lock.queue.isEmpty() && lock.compatible(lock.queue.peek().transaction, lock.queue.peek().write)) {
+                Request r = lock.queue.poll();
+                lock.grant(r.transaction, r.write);
+                held.computeIfAbsent(r.transaction, k -> new HashSet<>()).add(key);
+                waitingFor.remove(r.transaction);
+                if (adopting.containsKey(r.transaction) && adopting.get(r.transaction).remove(key)
+                        && adopting.get(r.transaction).isEmpty())
+                    adopting.remove(r.transaction);
+                resumed.add(r.transaction);
+            }
+            if (lock.isFree())
+                locks.remove(key);
+        }
+        return resumed;
+    }
+}
@@ -0,0 +1,41 @@
+package it.unitn.ds1.commit;
+
+import it.unitn.ds1.messages.CoordinatorServerMessage.Decision;
+
+// What an acceptor remembers about the decision of one transaction: the highest ballot it promised
+// and the decision it accepted last. Crashes are simulated, so it survives them as on stable storage.
+public class AcceptorState {
+    private Ballot promised;
+    private Ballot acceptedBallot;
+    private Decision accepted;
+
+    // prepare phase: promise to ignore the lower ballots, unless we promised a higher one
+    public boolean prepare(Ballot ballot) {
+        if (promised != null && ballot.compareTo(promised) < 0)
+            return false;
+        promised = ballot;
+        return true;
+    }
+
+    // accept phase: accept the decision, unless we promised a higher ballot
+    public boolean accept(Ballot ballot, Decision decision) {
+        if (promised != null && ballot.compareTo(promised) < 0)
+            return false;
+        promised = ballot;
+        acceptedBallot = ballot;
+        accepted = decision;
+        return true;
+    }
+
+    public Ballot getPromised() {
+        return promised;
+    }
+
+    public Ballot getAcceptedBallot() {
+        return acceptedBallot;
+    }
+
+    public Decision getAccepted() {
+        return accepted;
+    }
+}
@@ -0,0 +1,48 @@
+package it.unitn.ds1.commit;
+
+import java.io.Serializable;
+
+// Ballot of the consensus on the decision of a transaction: a round, and the coordinator proposing
+// in it to break ties. Round 0 belongs to the coordinator of the transaction, which skips the prepare
+// phase in it; backups (and the coordinator after a crash) use the following rounds.
+public class Ballot implements Comparable<Ballot>, Serializable {
+    public final int round;
+    public final int proposer;
+
+    public Ballot(int round, int proposer) {
+        this.round = round;
+        this.proposer = proposer;
+    }
+
+    public static Ballot first(int coordinatorId) {
+        return new Ballot(0, coordinatorId);
+    }
+
+    // the ballot of the proposer in the round after this one
+    public Ballot next(int proposer) {
+        return new Ballot(round + 1, proposer);
+    }
+
+    @Override
+    public int compareTo(Ballot o) {
+        return round != o.round ? Integer.compare(round, o.round) : Integer.compare(proposer, o.proposer);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Ballot)) return false;
+        Ballot ballot = (Ballot) o;
+        return round == ballot.round && proposer == ballot.proposer;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * round + proposer;
+    }
+
+    @Override
+    public String toString() {
+        return round + "." + proposer;
+    }
+}
@@ -0,0 +1,44 @@
+package it.unitn.ds1.commit;
+
+import akka.actor.ActorRef;
+
+import java.util.*;
+
+// Tree-structured 2PC (COMMIT_FANOUT): the coordinator splits the participants into at most COMMIT_FANOUT groups
+// and sends the vote request only to the first server of each, which splits the rest of its group in the same way.
+// Each server answers with the vote of its whole subtree, and passes a COMMIT down to the servers it asked. With n
+// participants every node sends at most COMMIT_FANOUT messages per phase, and the tree is log(n) levels deep.
+public class CommitTree {
+
+    // the first server of each group, with the servers below it
+    public static Map<ActorRef, List<ActorRef>> split(Collection<ActorRef> servers, int fanout) {
+        List<ActorRef> list = new ArrayList<>(servers);
+        Map<ActorRef, List<ActorRef>> groups = new LinkedHashMap<>();
+        int numGroups = Math.min(fanout, list.size());
+        int from = 0;
+        for (int i = 0; i < numGroups; i++) {
+            // the first list.size() % numGroups groups get one server more
+            int to = from + list.size() / numGroups + (i < list.size() % numGroups ? 1 : 0);
+            groups.put(list.get(from), new ArrayList<>(list.subList(from + 1, to)));
+            from = to;
+        }
+        return groups;
+    }
+
+    // the levels of a subtree with the given number of servers below its first one: the vote of its first server
+    // waits for that many hops down and up
+    public static int levels(int below, int fanout) {
+        if (below == 0)
+            return 1;
+        return 1 + levels((below + fanout - 1) / fanout - 1, fanout);
+    }
+
+    // the actions sent to the servers of a subtree, out of those of the whole transaction
+    public static Map<ActorRef, Integer> restrict(Map<ActorRef, Integer> numActions, ActorRef head, List<ActorRef> below) {
+        Map<ActorRef, Integer> restricted = new HashMap<>();
+        for (ActorRef server : below)
+            restricted.put(server, numActions.getOrDefault(server, 0));
+        restricted.put(head, numActions.getOrDefault(head, 0));
+        return restricted;
+    }
+}
@@ -0,0 +1,83 @@
+package it.unitn.ds1.commit;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import it.unitn.ds1.messages.CoordinatorServerMessage.Decision;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// A coordinator trying to have a decision chosen by a majority of the acceptors. The decision is the
+// one accepted with the highest ballot among the promises, or our own if no acceptor accepted any:
+// COMMIT for the coordinator which got all the YES votes, ABORT for a backup.
+public class Proposal {
+    private final Decision own;
+    private final int quorum;
+    private final long startedAt = System.nanoTime();
+    private Ballot ballot;
+    private Ballot highestSeen;
+    private final Set<ActorRef> promised = new HashSet<>();
+    private final Set<ActorRef> accepted = new HashSet<>();
+    private Ballot adoptedBallot;
+    private Decision adopted;
+    private Cancellable timeout;
+
+    public Proposal(Ballot ballot, Decision own, int quorum) {
+        this.ballot = ballot;
+        this.highestSeen = ballot;
+        this.own = own;
+        this.quorum = quorum;
+    }
+
+    // move to a ballot higher than every one seen so far, and forget the answers of the previous round
+    public void newRound(int proposer) {
+        ballot = highestSeen.next(proposer);
+        highestSeen = ballot;
+        promised.clear();
+        accepted.clear();
+        adoptedBallot = null;
+        adopted = null;
+    }
+
+    // a promise for the current ballot, true when it completes the majority
+    public boolean onPromise(ActorRef acceptor, Ballot ballot, Ballot acceptedBallot, Decision acceptedDecision) {
+        if (!ballot.equals(this.ballot) || !promised.add(acceptor))
+            return false;
+        if (acceptedBallot != null && (adoptedBallot == null || acceptedBallot.compareTo(adoptedBallot) > 0)) {
+            adoptedBallot = acceptedBallot;
+            adopted = acceptedDecision;
+        }
+        return promised.size() == quorum;
+    }
+
+    // an acceptance of the current ballot, true when it completes the majority
+    public boolean onAccepted(ActorRef acceptor, Ballot ballot) {
+        return ballot.equals(this.ballot) && accepted.add(acceptor) && accepted.size() == quorum;
+    }
+
+    // an acceptor promised a higher ballot, the next round has to go above it
+    public void onNack(Ballot promised) {
+        if (promised.compareTo(highestSeen) > 0)
+            highestSeen = promised;
+    }
+
+    public Decision value() {
+        return adopted != null ? adopted : own;
+    }
+
+    public Ballot getBallot() {
+        return ballot;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public Cancellable getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Cancellable timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,52 @@
+package it.unitn.ds1.failure;
+
+// Phi accrual failure detector (Hayashibara et al.), as in Akka: from the mean and standard deviation
+// of the last inter-arrival times of the heartbeats of a peer, phi is -log10 of the probability that
+// the next heartbeat arrives later than now. phi 1 means a 10% chance of a mistake, 8 one in 10^8.
+// Not thread safe, each actor owns its detectors.
+public class PhiAccrualDetector {
+    private static final int WINDOW = 100;         // inter-arrival times kept
+    private static final double MIN_STD_DEV = 10;  // ms, so that a very regular peer is not suspected on a small delay
+
+    private final long[] intervals = new long[WINDOW]; // ms
+    private int size, next;
+    private double sum, sumSquares;
+    private long lastHeartbeat; // System.nanoTime()
+
+    // expectedInterval (ms) seeds the history, so that the first heartbeats are enough to judge
+    public PhiAccrualDetector(int expectedInterval, long now) {
+        add(expectedInterval - expectedInterval / 4);
+        add(expectedInterval + expectedInterval / 4);
+        lastHeartbeat = now;
+    }
+
+    private void add(long interval) {
+        if (size == WINDOW) {
+            sum -= intervals[next];
+            sumSquares -= (double) intervals[next] * intervals[next];
+        } else {
+            size++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % WINDOW;
+        sum += interval;
+        sumSquares += (double) interval * interval;
+    }
+
+    public void heartbeat(long now) {
+        add((now - lastHeartbeat) / 1_000_000);
+        lastHeartbeat = now;
+    }
+
+    public double phi(long now) {
+        double elapsed = (now - lastHeartbeat) / 1e6;
+        double mean = sum / size;
+        double stdDev = Math.max(MIN_STD_DEV, Math.sqrt(Math.max(0, sumSquares / size - mean * mean)));
+        // logistic approximation of the cumulative normal distribution
+        double y = (elapsed - mean) / stdDev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean)
+            return -Math.log10(e / (1.0 + e));
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+}
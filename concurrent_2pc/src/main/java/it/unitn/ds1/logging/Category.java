@@ -0,0 +1,22 @@
+package it.unitn.ds1.logging;
+
+// a logging category with its own threshold, which can be changed while the system runs.
+// Checking whether a line should be printed is a single volatile read, so guarded log calls
+// cost nothing in the handlers when the category is disabled.
+public enum Category {
+    NODE, CLIENT, COORDINATOR, SERVER;
+
+    private volatile int threshold = Level.INFO.ordinal();
+
+    public boolean on(Level level) {
+        return level.ordinal() <= threshold;
+    }
+
+    public Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    public void setLevel(Level level) {
+        this.threshold = level.ordinal();
+    }
+}
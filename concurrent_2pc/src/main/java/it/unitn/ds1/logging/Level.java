@@ -0,0 +1,6 @@
+package it.unitn.ds1.logging;
+
+// severity of a log line, a category prints the lines up to its threshold
+public enum Level {
+    OFF, ERROR, WARN, INFO, DEBUG, TRACE
+}
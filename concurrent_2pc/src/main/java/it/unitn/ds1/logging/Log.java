@@ -0,0 +1,114 @@
+package it.unitn.ds1.logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Log lines are put in a ring buffer by the actors and written to stdout by a background thread,
+// so that the actors never wait for the console. If the buffer is full the line is dropped and counted.
+// Thresholds can be given with the system property log.levels, e.g. -Dlog.levels=CLIENT=DEBUG,SERVER=WARN
+public class Log {
+    public enum Mode {ASYNC, SYNC}
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final RingBuffer buffer = new RingBuffer(BUFFER_SIZE);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile Mode mode = Mode.ASYNC;
+    private static volatile Thread writer;
+    // true while the writer may hold lines it has not flushed yet
+    private static volatile boolean draining;
+
+    static {
+        String levels = System.getProperty("log.levels");
+        if (levels != null)
+            configure(levels);
+    }
+
+    private Log() {
+    }
+
+    // parse a comma separated list of CATEGORY=LEVEL, ALL=LEVEL sets every category
+    public static void configure(String spec) {
+        for (String entry : spec.split(",")) {
+            String[] kv = entry.trim().split("=");
+            if (kv.length != 2)
+                continue;
+            Level level = Level.valueOf(kv[1].trim().toUpperCase());
+            if (kv[0].trim().equalsIgnoreCase("ALL")) {
+                for (Category c : Category.values())
+                    c.setLevel(level);
+            } else {
+                Category.valueOf(kv[0].trim().toUpperCase()).setLevel(level);
+            }
+        }
+    }
+
+    // SYNC writes on the calling thread as System.out.format did, kept to compare the two
+    public static void setMode(Mode mode) {
+        flush();
+        Log.mode = mode;
+    }
+
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    public static void write(String line) {
+        if (mode == Mode.SYNC) {
+            System.out.println(line);
+            return;
+        }
+        startWriter();
+        if (!buffer.offer(line))
+            dropped.incrementAndGet();
+    }
+
+    // wait until the background thread has written everything
+    public static void flush() {
+        while (writer != null && writer.isAlive() && pending()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static boolean pending() {
+        return draining || !buffer.isEmpty();
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null)
+            return;
+        writer = new Thread(Log::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private static void drain() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        long reportedDropped = 0;
+        while (true) {
+            try {
+                draining = true;
+                String line = buffer.poll();
+                if (line == null) {
+                    long d = dropped.get();
+                    if (d > reportedDropped) {
+                        out.write("[log] " + (d - reportedDropped) + " lines dropped\n");
+                        reportedDropped = d;
+                    }
+                    out.flush();
+                    draining = false;
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+                    continue;
+                }
+                out.write(line);
+                out.write('\n');
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package it.unitn.ds1.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// bounded lock-free queue with many producers (the actor threads) and a single consumer (the writer)
+class RingBuffer {
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim, shared by the producers
+    private volatile long head;                       // next slot to read, owned by the consumer
+
+    RingBuffer(int capacity) {
+        // round up to a power of two so that slot = index & mask
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    // add a line, return false if the buffer is full
+    boolean offer(String line) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head > mask)
+                return false;
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.set((int) (t & mask), line);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return head == tail.get();
+    }
+
+    // remove the oldest line, null if there is none (or it is still being published)
+    String poll() {
+        int slot = (int) (head & mask);
+        String line = slots.get(slot);
+        if (line == null)
+            return null;
+        slots.set(slot, null);
+        head = head + 1;
+        return line;
+    }
+}
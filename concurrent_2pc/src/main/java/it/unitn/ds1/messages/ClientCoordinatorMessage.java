@@ -1,5 +1,10 @@
 package it.unitn.ds1.messages;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public abstract class ClientCoordinatorMessage extends Message {
     public final Integer clientId;
     public final Integer numAttemptedTxn;
@@ -11,15 +16,48 @@ public abstract class ClientCoordinatorMessage extends Message {
 
     // message the client sends to a coordinator to begin the TXN
     public static class TxnBeginMsg extends ClientCoordinatorMessage {
-        public TxnBeginMsg(int clientId, int numAttemptedTxn) {
+        // times the transaction aborted before, to favour it on the servers (RETRY_ABORTED)
+        public final Integer priority;
+        // DECLARED_READS: the keys the transaction is going to read, empty if not known
+        public final List<Integer> readSet;
+
+        public TxnBeginMsg(int clientId, int numAttemptedTxn, int priority, List<Integer> readSet) {
             super(clientId, numAttemptedTxn);
+            this.priority = priority;
+            this.readSet = Collections.unmodifiableList(new ArrayList<>(readSet));
+        }
+    }
+
+    // load of a coordinator, piggybacked on its replies so that clients can choose the least loaded one
+    public static class Load implements Serializable {
+        public final Integer pending;    // transactions not decided yet
+        public final Integer queueDepth; // messages waiting in the mailbox
+
+        public Load(Integer pending, Integer queueDepth) {
+            this.pending = pending;
+            this.queueDepth = queueDepth;
         }
     }
 
     // reply from the coordinator receiving TxnBeginMsg
     public static class TxnAcceptMsg extends ClientCoordinatorMessage {
-        public TxnAcceptMsg(Integer clientId, Integer numAttemptedTxn) {
+        public final Load load;
+
+        public TxnAcceptMsg(Integer clientId, Integer numAttemptedTxn, Load load) {
+            super(clientId, numAttemptedTxn);
+            this.load = load;
+        }
+    }
+
+    // reply from a coordinator with too many pending transactions to accept another one
+    public static class TxnRejectMsg extends ClientCoordinatorMessage {
+        public final Integer retryAfter; // ms, hint on when to try again
+        public final Load load;
+
+        public TxnRejectMsg(Integer clientId, Integer numAttemptedTxn, Integer retryAfter, Load load) {
             super(clientId, numAttemptedTxn);
+            this.retryAfter = retryAfter;
+            this.load = load;
         }
     }
 
@@ -56,6 +94,32 @@ public abstract class ClientCoordinatorMessage extends Message {
         }
     }
 
+    // DELTA request from the client to the coordinator (DELTA_WRITES): add an amount to the value of a key,
+    // whatever it is when the transaction commits
+    public static class DeltaMsg extends ClientCoordinatorMessage {
+        public final Integer key;
+        public final Integer delta; // negative to take the amount from the value
+
+        public DeltaMsg(Integer clientId, Integer numAttemptedTxn, Integer key, Integer delta) {
+            super(clientId, numAttemptedTxn);
+            this.key = key;
+            this.delta = delta;
+        }
+    }
+
+    // CALL of a stored procedure (STORED_PROCEDURES), e.g. transfer(from, to, amount); nothing is returned
+    // but the outcome of the transaction
+    public static class CallMsg extends ClientCoordinatorMessage {
+        public final String procedure;
+        public final List<Integer> args;
+
+        public CallMsg(Integer clientId, Integer numAttemptedTxn, String procedure, List<Integer> args) {
+            super(clientId, numAttemptedTxn);
+            this.procedure = procedure;
+            this.args = Collections.unmodifiableList(new ArrayList<>(args));
+        }
+    }
+
     // reply from the coordinator when requested a READ on a given key
     public static class ReadResultMsg extends ClientCoordinatorMessage {
         public final Integer key; // the key of the value to write
@@ -71,10 +135,12 @@ public abstract class ClientCoordinatorMessage extends Message {
     // message from the coordinator to the client with the outcome of the TXN
     public static class TxnResultMsg extends ClientCoordinatorMessage {
         public final Boolean commit; // if false, the transaction was aborted
+        public final Load load;
 
-        public TxnResultMsg(Integer clientId, Integer numAttemptedTxn, Boolean commit) {
+        public TxnResultMsg(Integer clientId, Integer numAttemptedTxn, Boolean commit, Load load) {
             super(clientId, numAttemptedTxn);
             this.commit = commit;
+            this.load = load;
         }
     }
 
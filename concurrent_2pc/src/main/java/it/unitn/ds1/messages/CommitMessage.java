@@ -0,0 +1,71 @@
+package it.unitn.ds1.messages;
+
+import it.unitn.ds1.commit.Ballot;
+import it.unitn.ds1.transactions.Transaction;
+
+// Non-blocking commit (NON_BLOCKING_COMMIT=true): the coordinators are also the acceptors of a consensus
+// on the decision of each transaction, as in Paxos Commit, so that a backup can finish the transactions
+// of a crashed coordinator. See Coordinator.proposeCommit.
+public abstract class CommitMessage extends Message {
+    public final Transaction transaction;
+    public final Ballot ballot;
+
+    public CommitMessage(Transaction transaction, Ballot ballot) {
+        this.transaction = new Transaction.UnmodifiableTransaction(transaction);
+        this.ballot = ballot;
+    }
+
+    // ask the acceptors to ignore the ballots lower than this one
+    public static class Prepare extends CommitMessage {
+        public Prepare(Transaction transaction, Ballot ballot) {
+            super(transaction, ballot);
+        }
+    }
+
+    // answer to Prepare, with the decision accepted so far (null if none)
+    public static class Promise extends CommitMessage {
+        public final Ballot acceptedBallot;
+        public final CoordinatorServerMessage.Decision accepted;
+
+        public Promise(Transaction transaction, Ballot ballot, Ballot acceptedBallot, CoordinatorServerMessage.Decision accepted) {
+            super(transaction, ballot);
+            this.acceptedBallot = acceptedBallot;
+            this.accepted = accepted;
+        }
+    }
+
+    // ask the acceptors to accept the decision
+    public static class Accept extends CommitMessage {
+        public final CoordinatorServerMessage.Decision decision;
+
+        public Accept(Transaction transaction, Ballot ballot, CoordinatorServerMessage.Decision decision) {
+            super(transaction, ballot);
+            this.decision = decision;
+        }
+    }
+
+    // answer to Accept
+    public static class Accepted extends CommitMessage {
+        public Accepted(Transaction transaction, Ballot ballot) {
+            super(transaction, ballot);
+        }
+    }
+
+    // answer to Prepare or Accept of an acceptor which promised a higher ballot (the one in the message)
+    public static class Nack extends CommitMessage {
+        public Nack(Transaction transaction, Ballot promised) {
+            super(transaction, promised);
+        }
+    }
+
+    // the decision has been chosen by a majority: sent by the proposer to the acceptors, and by
+    // an acceptor which already knows it instead of answering Prepare or Accept
+    public static class Decided extends CommitMessage {
+        public final CoordinatorServerMessage.Decision decision;
+
+        public Decided(Transaction transaction, Ballot ballot, CoordinatorServerMessage.Decision decision) {
+            super(transaction, ballot);
+            this.decision = decision;
+        }
+    }
+}
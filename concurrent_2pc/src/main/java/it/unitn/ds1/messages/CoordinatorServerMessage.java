@@ -3,10 +3,7 @@ package it.unitn.ds1.messages;
 import akka.actor.ActorRef;
 import it.unitn.ds1.transactions.Transaction;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 public abstract class CoordinatorServerMessage extends Message {
 
@@ -23,10 +20,27 @@ public abstract class CoordinatorServerMessage extends Message {
 
     public static class VoteRequest extends CoordinatorServerMessage {
         public final List<ActorRef> servers;
+        // reads and writes sent to each server before the request, which may overtake them in the mailbox
+        public final Map<ActorRef, Integer> numActions;
+        // COMMIT_FANOUT: the server which passed the request down and the coordinator (both null if it comes from
+        // the coordinator), and the servers below the receiver, which it asks in turn; servers are then only its
+        // neighbours in the tree
+        public final ActorRef parent;
+        public final ActorRef coordinator;
+        public final List<ActorRef> subtree;
+
+        public VoteRequest(Transaction transaction, Set<ActorRef> servers, Map<ActorRef, Integer> numActions) {
+            this(transaction, servers, numActions, null, null, Collections.emptyList());
+        }
 
-        public VoteRequest(Transaction transaction, Set<ActorRef> servers) {
+        public VoteRequest(Transaction transaction, Set<ActorRef> servers, Map<ActorRef, Integer> numActions,
+                           ActorRef parent, ActorRef coordinator, List<ActorRef> subtree) {
             super(transaction);
             this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+            this.numActions = Collections.unmodifiableMap(new HashMap<>(numActions));
+            this.parent = parent;
+            this.coordinator = coordinator;
+            this.subtree = Collections.unmodifiableList(new ArrayList<>(subtree));
         }
     }
 
@@ -39,9 +53,24 @@ public abstract class CoordinatorServerMessage extends Message {
         }
     }
 
-    public static class DecisionRequest extends CoordinatorServerMessage {
-        public DecisionRequest(Transaction transaction) {
-            super(transaction);
+    // termination protocol: ask a peer the decisions of many transactions at once
+    public static class BatchDecisionRequest extends Message {
+        public final List<Transaction> transactions;
+
+        public BatchDecisionRequest(Collection<Transaction> transactions) {
+            List<Transaction> copy = new ArrayList<>();
+            for (Transaction t : transactions)
+                copy.add(new Transaction.UnmodifiableTransaction(t));
+            this.transactions = Collections.unmodifiableList(copy);
+        }
+    }
+
+    // the decisions the peer knows among those asked in a BatchDecisionRequest
+    public static class BatchDecisionResponse extends Message {
+        public final Map<Transaction, Decision> decisions;
+
+        public BatchDecisionResponse(Map<Transaction, Decision> decisions) {
+            this.decisions = Collections.unmodifiableMap(new HashMap<>(decisions));
         }
     }
 
@@ -68,8 +97,17 @@ public abstract class CoordinatorServerMessage extends Message {
     }
 
     public static class TransactionRead extends TransactionAction {
+        public final long sentAt; // System.nanoTime() of the sender, echoed back in the response
+        public final ActorRef client; // DIRECT_READS: the server sends the value straight to it, null otherwise
+
         public TransactionRead(Transaction transaction, Integer key) {
+            this(transaction, key, null);
+        }
+
+        public TransactionRead(Transaction transaction, Integer key, ActorRef client) {
             super(transaction, key);
+            this.sentAt = System.nanoTime();
+            this.client = client;
         }
     }
 
@@ -83,18 +121,66 @@ public abstract class CoordinatorServerMessage extends Message {
         }
     }
 
+    // add delta to the value of the key at commit, validated only against the escrow bound
+    public static class TransactionDelta extends TransactionAction {
+        public final Integer delta;
+
+        public TransactionDelta(Transaction transaction, Integer key, Integer delta) {
+            super(transaction, key);
+            this.delta = delta;
+        }
+    }
+
+    // run a stored procedure on the keys of the call held by the server
+    public static class TransactionCall extends TransactionAction {
+        public final List<Integer> keys;
+        public final String procedure;
+        public final List<Integer> args;
+
+        public TransactionCall(Transaction transaction, List<Integer> keys, String procedure, List<Integer> args) {
+            super(transaction, keys.get(0));
+            this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+            this.procedure = procedure;
+            this.args = args;
+        }
+    }
+
     public static class TxnReadResponseMsg extends TransactionAction {
         public final Integer valueRead;
+        public final long sentAt; // echo of TransactionRead.sentAt
 
-        public TxnReadResponseMsg(Transaction transaction, Integer key, Integer valueRead) {
+        public TxnReadResponseMsg(Transaction transaction, Integer key, Integer valueRead, long sentAt) {
             super(transaction, key);
             this.valueRead = valueRead;
+            this.sentAt = sentAt;
+        }
+    }
+
+    // reply of a server with too many pending transactions to a read or write of a new one
+    public static class ServerBusyMsg extends CoordinatorServerMessage {
+        public ServerBusyMsg(Transaction transaction) {
+            super(transaction);
+        }
+    }
+
+    // reply of a server whose concurrency control aborted the transaction on a read or write (e.g. a deadlock)
+    public static class ConflictAbortMsg extends CoordinatorServerMessage {
+        public ConflictAbortMsg(Transaction transaction) {
+            super(transaction);
         }
     }
 
     public static class TimeoutMsg extends CoordinatorServerMessage {
+        // the peer we waited for, if the timeout is set for one
+        public final ActorRef peer;
+
         public TimeoutMsg(Transaction transaction) {
+            this(transaction, null);
+        }
+
+        public TimeoutMsg(Transaction transaction, ActorRef peer) {
             super(transaction);
+            this.peer = peer;
         }
     }
 
@@ -2,6 +2,7 @@ package it.unitn.ds1.messages;
 
 import akka.actor.ActorRef;
 import it.unitn.ds1.actors.Node;
+import it.unitn.ds1.metrics.Metrics;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -9,6 +10,16 @@ import java.util.Collections;
 import java.util.List;
 
 public abstract class Message implements Serializable {
+    // the epoch of the sender (how many times it crashed), set when it is sent
+    private int senderEpoch;
+
+    public int getSenderEpoch() {
+        return senderEpoch;
+    }
+
+    public void setSenderEpoch(int senderEpoch) {
+        this.senderEpoch = senderEpoch;
+    }
 
     // send this message to the client at startup to inform it about the group and the keys
     public static class WelcomeMsg extends Message {
@@ -21,6 +32,15 @@ public abstract class Message implements Serializable {
         }
     }
 
+    // EXECUTION=calvin: the sequencer clients send their transactions to (before the WelcomeMsg)
+    public static class SequencerMsg extends Message {
+        public final ActorRef sequencer;
+
+        public SequencerMsg(ActorRef sequencer) {
+            this.sequencer = sequencer;
+        }
+    }
+
     public static class CheckerWelcomeMsg extends Message {
         public final Integer maxKey;
         public final List<ActorRef> servers;
@@ -33,6 +53,41 @@ public abstract class Message implements Serializable {
         }
     }
 
+    // the coordinators new transactions can be sent to, after the pool has been resized
+    public static class CoordinatorPoolMsg extends Message {
+        public final List<ActorRef> coordinators;
+
+        public CoordinatorPoolMsg(List<ActorRef> coordinators) {
+            this.coordinators = Collections.unmodifiableList(new ArrayList<>(coordinators));
+        }
+    }
+
+    // non-blocking commit: the coordinators acting as acceptors of the decisions, sent to coordinators and servers
+    public static class AcceptorsMsg extends Message {
+        public final List<ActorRef> acceptors;
+
+        public AcceptorsMsg(List<ActorRef> acceptors) {
+            this.acceptors = Collections.unmodifiableList(new ArrayList<>(acceptors));
+        }
+    }
+
+    // sent every HEARTBEAT_INTERVAL between coordinators and servers (not while crashed)
+    public static class HeartbeatMsg extends Message {
+    }
+
+    // sent by a node to itself to send the heartbeats and check the peers
+    public static class HeartbeatTick extends Message {
+    }
+
+    // make a node crash now and recover after recoverIn ms (to test or benchmark recovery)
+    public static class CrashMsg extends Message {
+        public final Integer recoverIn;
+
+        public CrashMsg(Integer recoverIn) {
+            this.recoverIn = recoverIn;
+        }
+    }
+
     public static class CheckCorrectness extends Message {
     }
 
@@ -40,12 +95,44 @@ public abstract class Message implements Serializable {
         public final Integer id;
         public final Integer sumOfKeys;
         public final Node.CrashPhaseMap numCrashes;
+        public final Metrics.Snapshot metrics;
 
-        public CheckCorrectnessResponse(Integer id, Integer sumOfKeys, Node.CrashPhaseMap numCrashes) {
+        public CheckCorrectnessResponse(Integer id, Integer sumOfKeys, Node.CrashPhaseMap numCrashes, Metrics.Snapshot metrics) {
             this.id = id;
             this.sumOfKeys = sumOfKeys;
             // it is sufficient to copy because we have only one checker
             this.numCrashes = new Node.CrashPhaseMap(numCrashes);
+            this.metrics = metrics;
+        }
+    }
+
+    // ask the checker (or, from the checker, a node) for the current metrics, without stopping the run
+    public static class MetricsRequest extends Message {
+        public final Integer round;
+
+        public MetricsRequest(Integer round) {
+            this.round = round;
+        }
+    }
+
+    public static class MetricsResponse extends Message {
+        public final Integer round;
+        public final Metrics.Snapshot metrics;
+
+        public MetricsResponse(Integer round, Metrics.Snapshot metrics) {
+            this.round = round;
+            this.metrics = metrics;
+        }
+    }
+
+    // metrics aggregated by the checker, sent to whoever asked for them
+    public static class MetricsReport extends Message {
+        public final Metrics.Snapshot coordinators;
+        public final Metrics.Snapshot servers;
+
+        public MetricsReport(Metrics.Snapshot coordinators, Metrics.Snapshot servers) {
+            this.coordinators = coordinators;
+            this.servers = servers;
         }
     }
 
@@ -0,0 +1,117 @@
+package it.unitn.ds1.messages;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.io.Serializable;
+import java.util.*;
+
+// Primary-backup replication (REPLICATION=true): each server is the primary of its partition and the backup
+// of the partition of the previous server. See Server.takeOver and Server.onCatchUpRequest.
+public abstract class ReplicationMessage extends Message {
+
+    // the value and version of a key
+    public static class Write implements Serializable {
+        public final Integer value;
+        public final Integer version;
+
+        public Write(Integer value, Integer version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    // primary -> backup, before the YES vote: what the transaction will write if it commits
+    // (value and the version it read, or the amount it adds), so that the backup can finish it if the primary crashes
+    public static class ReplicaPrepare extends ReplicationMessage {
+        public final Transaction transaction;
+        public final ActorRef coordinator;
+        public final List<ActorRef> servers;
+        public final Map<Integer, Write> writes;
+        public final Map<Integer, Integer> deltas;
+
+        public ReplicaPrepare(Transaction transaction, ActorRef coordinator, List<ActorRef> servers,
+                              Map<Integer, Write> writes, Map<Integer, Integer> deltas) {
+            this.transaction = new Transaction.UnmodifiableTransaction(transaction);
+            this.coordinator = coordinator;
+            this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+            this.writes = Collections.unmodifiableMap(new HashMap<>(writes));
+            this.deltas = Collections.unmodifiableMap(new HashMap<>(deltas));
+        }
+    }
+
+    // primary -> backup: the decision of a prepared transaction
+    public static class ReplicaDecision extends ReplicationMessage {
+        public final Transaction transaction;
+        public final CoordinatorServerMessage.Decision decision;
+
+        public ReplicaDecision(Transaction transaction, CoordinatorServerMessage.Decision decision) {
+            this.transaction = new Transaction.UnmodifiableTransaction(transaction);
+            this.decision = decision;
+        }
+    }
+
+    // primary -> backup, every third of REPLICATION_LEASE: renew the lease, asked at sentAt (System.nanoTime())
+    public static class LeaseRequest extends ReplicationMessage {
+        public final long sentAt;
+
+        public LeaseRequest(long sentAt) {
+            this.sentAt = sentAt;
+        }
+    }
+
+    // backup -> primary: the primary may vote YES on its partition until sentAt + REPLICATION_LEASE
+    public static class LeaseGrant extends ReplicationMessage {
+        public final long sentAt;
+
+        public LeaseGrant(long sentAt) {
+            this.sentAt = sentAt;
+        }
+    }
+
+    // backup -> primary: we are taking over your partition, stop serving it until you catch up
+    public static class FenceMsg extends ReplicationMessage {
+        public final int epoch;
+
+        public FenceMsg(int epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    // primary -> backup: we stopped, the backup can serve the partition
+    public static class FenceAck extends ReplicationMessage {
+        public final int epoch;
+
+        public FenceAck(int epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    // recovered primary -> backup: the version of each key of the partition, and the transactions
+    // it prepared before crashing
+    public static class CatchUpRequest extends ReplicationMessage {
+        public final Map<Integer, Integer> versions;
+        public final List<Transaction> prepared;
+
+        public CatchUpRequest(Map<Integer, Integer> versions, Collection<Transaction> prepared) {
+            this.versions = Collections.unmodifiableMap(new HashMap<>(versions));
+            List<Transaction> copy = new ArrayList<>();
+            for (Transaction t : prepared)
+                copy.add(new Transaction.UnmodifiableTransaction(t));
+            this.prepared = Collections.unmodifiableList(copy);
+        }
+    }
+
+    // backup -> primary, once it has no pending transaction on the partition: the keys it changed while serving
+    // the partition or with a newer version than the primary's, and the decisions it took on the transactions
+    // prepared by the primary; the partition is the primary's again
+    public static class CatchUpResponse extends ReplicationMessage {
+        public final Map<Integer, Write> writes;
+        public final Map<Transaction, CoordinatorServerMessage.Decision> resolved;
+
+        public CatchUpResponse(Map<Integer, Write> writes, Map<Transaction, CoordinatorServerMessage.Decision> resolved) {
+            this.writes = Collections.unmodifiableMap(new HashMap<>(writes));
+            this.resolved = Collections.unmodifiableMap(new HashMap<>(resolved));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package it.unitn.ds1.messages;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.procedures.Procedure;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.io.Serializable;
+import java.util.*;
+
+// Deterministic execution (EXECUTION=calvin): clients submit whole transactions of stored procedure calls to the
+// sequencer, which orders them in epochs and sends each server the batch of those touching its partition; the
+// servers run them in that order without voting. See Sequencer and calvin.DeterministicScheduler.
+public abstract class SequencerMessage extends Message {
+
+    // client -> sequencer: the calls of the transaction, whose keys are its read and write set
+    public static class SubmitMsg extends SequencerMessage {
+        public final Integer clientId;
+        public final Integer numAttemptedTxn;
+        public final List<ClientCoordinatorMessage.CallMsg> calls;
+
+        public SubmitMsg(Integer clientId, Integer numAttemptedTxn, List<ClientCoordinatorMessage.CallMsg> calls) {
+            this.clientId = clientId;
+            this.numAttemptedTxn = numAttemptedTxn;
+            this.calls = Collections.unmodifiableList(new ArrayList<>(calls));
+        }
+    }
+
+    // a transaction in the global order
+    public static class Sequenced implements Serializable {
+        public final Transaction transaction;
+        public final ActorRef client;
+        public final List<ClientCoordinatorMessage.CallMsg> calls;
+        public final long submittedAt; // System.nanoTime() when the sequencer got it
+        public final SortedSet<Integer> keys;
+
+        public Sequenced(Transaction transaction, ActorRef client, List<ClientCoordinatorMessage.CallMsg> calls, long submittedAt) {
+            this.transaction = new Transaction.UnmodifiableTransaction(transaction);
+            this.client = client;
+            this.calls = calls;
+            this.submittedAt = submittedAt;
+            SortedSet<Integer> keys = new TreeSet<>();
+            for (ClientCoordinatorMessage.CallMsg call : calls)
+                keys.addAll(Procedure.get(call.procedure).keys(call.args));
+            this.keys = Collections.unmodifiableSortedSet(keys);
+        }
+    }
+
+    // sequencer -> server: the transactions of an epoch touching the partition of the server, in order
+    public static class BatchMsg extends SequencerMessage {
+        public final Integer epoch;
+        public final List<Sequenced> transactions;
+
+        public BatchMsg(Integer epoch, List<Sequenced> transactions) {
+            this.epoch = epoch;
+            this.transactions = Collections.unmodifiableList(new ArrayList<>(transactions));
+        }
+    }
+
+    // server -> the other participants: the values of its keys, read once it is the turn of the transaction
+    public static class LocalReadsMsg extends SequencerMessage {
+        public final Transaction transaction;
+        public final Map<Integer, Integer> values;
+
+        public LocalReadsMsg(Transaction transaction, Map<Integer, Integer> values) {
+            this.transaction = new Transaction.UnmodifiableTransaction(transaction);
+            this.values = Collections.unmodifiableMap(new HashMap<>(values));
+        }
+    }
+
+    // sent by the sequencer to itself to close the current epoch
+    public static class EpochTick extends SequencerMessage {
+    }
+}
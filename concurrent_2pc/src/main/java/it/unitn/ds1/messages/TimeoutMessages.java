@@ -1,15 +1,104 @@
 package it.unitn.ds1.messages;
 
+import it.unitn.ds1.transactions.Transaction;
+
 import java.io.Serializable;
 
 public abstract class TimeoutMessages extends Message {
     public static class Client {
         // the client may timeout waiting for TXN begin confirmation (TxnAcceptMsg)
         public static class TxnAcceptMsg implements Serializable {
+            public final Integer numAttemptedTxn;
+
+            public TxnAcceptMsg(Integer numAttemptedTxn) {
+                this.numAttemptedTxn = numAttemptedTxn;
+            }
         }
 
         // the client may timeout waiting for coordinator reply
         public static class TxnOperationMsg implements Serializable {
+            public final Integer numAttemptedTxn;
+
+            public TxnOperationMsg(Integer numAttemptedTxn) {
+                this.numAttemptedTxn = numAttemptedTxn;
+            }
+        }
+
+        // closed workload: the client waits some time before starting the next transaction
+        public static class ThinkTimeMsg implements Serializable {
+        }
+
+        // the client waits the time suggested by a coordinator which rejected the transaction
+        public static class RetryTxnMsg implements Serializable {
+            public final Long intendedStart; // open workload, null otherwise
+
+            public RetryTxnMsg(Long intendedStart) {
+                this.intendedStart = intendedStart;
+            }
+        }
+
+        // the backoff after an abort is over, run the transaction again (RETRY_ABORTED)
+        public static class RestartTxnMsg implements Serializable {
+            public final Long intendedStart; // open workload, null otherwise
+            public final int numOpTotal;
+            public final int priority;
+
+            public RestartTxnMsg(Long intendedStart, int numOpTotal, int priority) {
+                this.intendedStart = intendedStart;
+                this.numOpTotal = numOpTotal;
+                this.priority = priority;
+            }
+        }
+    }
+
+    public static class Coordinator {
+        // non-blocking commit: the proposal of a decision got no majority in time, try a higher ballot
+        public static class ProposalTimeoutMsg implements Serializable {
+            public final Transaction transaction;
+
+            public ProposalTimeoutMsg(Transaction transaction) {
+                this.transaction = new Transaction.UnmodifiableTransaction(transaction);
+            }
+        }
+    }
+
+    public static class Server {
+        // the server sends the decision queries collected while handling a message
+        public static class FlushDecisionRequestsMsg implements Serializable {
+        }
+
+        // the server asks again the decisions it still does not know
+        public static class RetryDecisionRequestsMsg implements Serializable {
+        }
+
+        // the recovered primary asks again its backup to catch up
+        public static class RetryCatchUpMsg implements Serializable {
+        }
+
+        // the primary renews the lease of its backup (REPLICATION_LEASE)
+        public static class LeaseTickMsg implements Serializable {
+        }
+
+        // the last lease the backup granted to the fenced primary expired: serve its partition
+        public static class FenceTimeoutMsg implements Serializable {
+            public final int epoch;
+
+            public FenceTimeoutMsg(int epoch) {
+                this.epoch = epoch;
+            }
+        }
+
+        // the last transaction a vote was waiting for committed (SPECULATIVE_READS): vote now
+        public static class ResumeVoteMsg implements Serializable {
+            public final Transaction transaction;
+
+            public ResumeVoteMsg(Transaction transaction) {
+                this.transaction = transaction;
+            }
+        }
+
+        // the vote batching window is over, validate the collected vote requests
+        public static class FlushVotesMsg implements Serializable {
         }
     }
 }
@@ -0,0 +1,29 @@
+package it.unitn.ds1.messages;
+
+// messages between the open-loop load generator and the clients it drives
+public abstract class WorkloadMessage extends Message {
+
+    // the generator asks an idle client to run a transaction which should have started at intendedStart
+    public static class StartTxnMsg extends WorkloadMessage {
+        public final Long intendedStart; // System.nanoTime()
+
+        public StartTxnMsg(Long intendedStart) {
+            this.intendedStart = intendedStart;
+        }
+    }
+
+    // the client tells the generator the outcome of the transaction
+    public static class TxnDoneMsg extends WorkloadMessage {
+        public final Long intendedStart;
+        public final Boolean commit;
+
+        public TxnDoneMsg(Long intendedStart, Boolean commit) {
+            this.intendedStart = intendedStart;
+            this.commit = commit;
+        }
+    }
+
+    // sent by the generator to itself to release the arrivals that are due
+    public static class ArrivalTick extends WorkloadMessage {
+    }
+}
@@ -0,0 +1,128 @@
+package it.unitn.ds1.metrics;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free histogram with HDR-style log-linear buckets: values below 2 * SUB_BUCKETS are
+// counted exactly, larger values fall in buckets whose width is ~3% of their lower bound.
+// Recording is a couple of atomic increments, so it is safe to snapshot from another thread.
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int N_BUCKETS = LINEAR_LIMIT + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(N_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // index of the bucket containing value
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // smallest value falling in the given bucket
+    static long lowerBound(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+        int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return sub << shift;
+    }
+
+    // representative value of the bucket (its midpoint)
+    static long valueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT || bucket == N_BUCKETS - 1)
+            return lowerBound(bucket);
+        return (lowerBound(bucket) + lowerBound(bucket + 1) - 1) / 2;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    // record the time elapsed since a System.nanoTime() reading, in microseconds
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public Snapshot snapshot() {
+        long[] c = new long[N_BUCKETS];
+        for (int i = 0; i < N_BUCKETS; i++)
+            c[i] = counts.get(i);
+        return new Snapshot(c, count.get(), sum.get(), max.get());
+    }
+
+    // immutable copy of a histogram, can be sent around and merged
+    public static class Snapshot implements Serializable {
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public static Snapshot empty() {
+            return new Snapshot(new long[N_BUCKETS], 0, 0, 0);
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // value below which the given fraction (0..1) of the samples fall
+        public long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(valueOf(i), max);
+            }
+            return max;
+        }
+
+        public static Snapshot merge(Collection<Snapshot> snapshots) {
+            long[] c = new long[N_BUCKETS];
+            long count = 0, sum = 0, max = 0;
+            for (Snapshot s : snapshots) {
+                for (int i = 0; i < N_BUCKETS; i++)
+                    c[i] += s.counts[i];
+                count += s.count;
+                sum += s.sum;
+                max = Math.max(max, s.max);
+            }
+            return new Snapshot(c, count, sum, max);
+        }
+
+        // samples recorded after 'earlier' was taken (the max cannot be recovered, the later one is kept)
+        public static Snapshot diff(Snapshot later, Snapshot earlier) {
+            long[] c = new long[N_BUCKETS];
+            for (int i = 0; i < N_BUCKETS; i++)
+                c[i] = later.counts[i] - earlier.counts[i];
+            return new Snapshot(c, later.count - earlier.count, later.sum - earlier.sum, later.max);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+                    count, mean(), percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), max);
+        }
+    }
+}
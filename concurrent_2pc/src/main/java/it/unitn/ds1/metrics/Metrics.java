@@ -0,0 +1,157 @@
+package it.unitn.ds1.metrics;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-node collection of latency histograms (in microseconds) and event counters.
+public class Metrics {
+
+    public enum Timer {
+        TXN_LATENCY,        // coordinator: TxnBeginMsg received -> decision taken
+        READ_RTT,           // coordinator: TransactionRead sent -> TxnReadResponseMsg received
+        READ_LATENCY,       // client: reads of an operation sent -> all their values received
+        VOTE_COLLECTION,    // coordinator: VoteRequest sent -> decision taken
+        DECISION_FANOUT,    // coordinator: time spent sending DecisionResponse to all the participants
+        LOCK_HOLD,          // server: keys put in pendingResource -> keys released
+        TERMINATION,        // server: first decision query of the termination protocol -> decision known
+        CONSENSUS,          // coordinator: decision proposed to the acceptors -> chosen (NON_BLOCKING_COMMIT)
+        CATCH_UP,           // server: recovery -> caught up with the backup (REPLICATION)
+        VOTE_BATCH_WAIT,    // server: vote request batched -> vote cast (VOTE_BATCH_WINDOW)
+        SEQUENCED_LATENCY,  // server: transaction submitted to the sequencer -> run (EXECUTION=calvin)
+        INTENDED_LATENCY    // load generator: intended start of the transaction -> outcome known by the client
+    }
+
+    public enum Counter {
+        COMMIT,
+        ABORT_CLIENT,       // the client asked to abort
+        ABORT_VOTE,         // some server voted NO
+        ABORT_TIMEOUT,      // a server did not answer in time
+        ABORT_RECOVERY,     // aborted on recovery after a crash
+        ABORT_BUSY,         // a server had too many pending transactions
+        ABORT_SUSPECTED,    // a participant (or, on servers, the coordinator) is suspected dead
+        REEXECUTION,        // coordinator: a transaction of stored procedures was run again after a NO vote
+        ABORT_CONFLICT,     // the concurrency control of a server aborted it on a read or write (e.g. a deadlock)
+        ABORT_CASCADE,      // server: a prepared transaction it read from aborted (SPECULATIVE_READS)
+        ABORT_TAKEOVER,     // a backup coordinator aborted it while we were blocked or crashed (NON_BLOCKING_COMMIT)
+        TAKEOVER,           // coordinator: decision chosen as a backup for a transaction of another coordinator
+        SEQUENCED_COMMIT,   // server: sequenced transactions committed, counted by one participant (EXECUTION=calvin)
+        SEQUENCED_ABORT,    // server: sequenced transactions aborted since a value would go negative
+        FAILOVER,           // server: took over the partition of the previous server (REPLICATION)
+        SUSPECTED,          // the failure detector suspected a peer
+        TERMINATION_REQUESTS, // server: BatchDecisionRequest messages sent
+        TERMINATION_QUERIES,  // server: transactions asked about in them
+        REJECTED,           // coordinator: begin refused, too many pending transactions
+        READ_CACHE_HIT,     // coordinator: read answered from the values the transaction read or wrote (READ_CACHE)
+        DIRECT_READ,        // coordinator: read whose value the server sends to the client (DIRECT_READS)
+        PREFETCH,           // coordinator: declared key read at the begin of the transaction (DECLARED_READS)
+        PREFETCH_HIT,       // coordinator: read answered with a value prefetched before the client asked for it
+        TIMEOUT,
+        TIMEOUT_SPURIOUS,   // the peer answered after the timeout (the others are genuine)
+        VALIDATION_VERSION, // server: NO vote since a version changed
+        VALIDATION_LOCKED,  // server: NO vote since a key is held by a prepared transaction
+        VALIDATION_ESCROW,  // server: NO vote since a delta could take a value below zero
+        VALIDATION_RESERVED, // server: NO vote since a key is reserved by a transaction aborted many times (STARVATION_ABORTS)
+        VALIDATION_LEASE,   // server: NO vote on its partition without the lease of its backup (REPLICATION)
+        LOCK_WAIT,          // server: a read or write waited for a lock (2pl)
+        SPECULATIVE_READ,   // server: read of a value written by a prepared transaction (SPECULATIVE_READS)
+        SPECULATIVE_WAIT,   // server: vote waiting for the decision of prepared transactions instead of NO
+        DEADLOCK,           // server: a transaction was aborted since waiting would close a cycle (2pl)
+        FAILED,             // load generator: the transaction did not commit
+        ARRIVAL_DROPPED     // load generator: too many arrivals waiting for a client
+    }
+
+    private final Map<Timer, Histogram> timers = new EnumMap<>(Timer.class);
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+
+    public Metrics() {
+        for (Timer t : Timer.values())
+            timers.put(t, new Histogram());
+        for (Counter c : Counter.values())
+            counters.put(c, new LongAdder());
+    }
+
+    public Histogram timer(Timer t) {
+        return timers.get(t);
+    }
+
+    public void count(Counter c) {
+        counters.get(c).increment();
+    }
+
+    public void count(Counter c, long n) {
+        counters.get(c).add(n);
+    }
+
+    public Snapshot snapshot() {
+        Map<Timer, Histogram.Snapshot> t = new EnumMap<>(Timer.class);
+        for (Map.Entry<Timer, Histogram> entry : timers.entrySet())
+            t.put(entry.getKey(), entry.getValue().snapshot());
+        Map<Counter, Long> c = new EnumMap<>(Counter.class);
+        for (Map.Entry<Counter, LongAdder> entry : counters.entrySet())
+            c.put(entry.getKey(), entry.getValue().sum());
+        return new Snapshot(t, c);
+    }
+
+    // immutable copy of the metrics of one or more nodes
+    public static class Snapshot implements Serializable {
+        public final Map<Timer, Histogram.Snapshot> timers;
+        public final Map<Counter, Long> counters;
+
+        public Snapshot(Map<Timer, Histogram.Snapshot> timers, Map<Counter, Long> counters) {
+            this.timers = Collections.unmodifiableMap(timers);
+            this.counters = Collections.unmodifiableMap(counters);
+        }
+
+        public Histogram.Snapshot timer(Timer t) {
+            return timers.getOrDefault(t, Histogram.Snapshot.empty());
+        }
+
+        public long counter(Counter c) {
+            return counters.getOrDefault(c, 0L);
+        }
+
+        public static Snapshot merge(Collection<Snapshot> snapshots) {
+            Map<Timer, Histogram.Snapshot> t = new EnumMap<>(Timer.class);
+            for (Timer timer : Timer.values()) {
+                List<Histogram.Snapshot> toMerge = new ArrayList<>();
+                for (Snapshot s : snapshots)
+                    toMerge.add(s.timer(timer));
+                t.put(timer, Histogram.Snapshot.merge(toMerge));
+            }
+            Map<Counter, Long> c = new EnumMap<>(Counter.class);
+            for (Counter counter : Counter.values()) {
+                long sum = 0;
+                for (Snapshot s : snapshots)
+                    sum += s.counter(counter);
+                c.put(counter, sum);
+            }
+            return new Snapshot(t, c);
+        }
+
+        // what happened between the two snapshots
+        public static Snapshot diff(Snapshot later, Snapshot earlier) {
+            Map<Timer, Histogram.Snapshot> t = new EnumMap<>(Timer.class);
+            for (Timer timer : Timer.values())
+                t.put(timer, Histogram.Snapshot.diff(later.timer(timer), earlier.timer(timer)));
+            Map<Counter, Long> c = new EnumMap<>(Counter.class);
+            for (Counter counter : Counter.values())
+                c.put(counter, later.counter(counter) - earlier.counter(counter));
+            return new Snapshot(t, c);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder res = new StringBuilder();
+            for (Map.Entry<Timer, Histogram.Snapshot> entry : timers.entrySet()) {
+                if (entry.getValue().count > 0)
+                    res.append(entry.getKey()).append(" (us): ").append(entry.getValue()).append("\n");
+            }
+            for (Map.Entry<Counter, Long> entry : counters.entrySet()) {
+                if (entry.getValue() > 0)
+                    res.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+            }
+            return res.toString();
+        }
+    }
+}
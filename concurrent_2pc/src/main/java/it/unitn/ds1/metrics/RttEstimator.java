@@ -0,0 +1,55 @@
+package it.unitn.ds1.metrics;
+
+// Round-trip time estimate of a peer, as in TCP (Jacobson/Karels): smoothed mean and mean deviation
+// of the samples. The timeout is mean + 4 * deviation, bounded by [min, max]; before the first
+// sample it is the initial (fixed) timeout. As the RTO of TCP, it doubles at each expiry (up to max)
+// until the next sample. Not thread safe, each actor owns its estimators.
+public class RttEstimator {
+    private static final double ALPHA = 1.0 / 8; // gain of the mean
+    private static final double BETA = 1.0 / 4;  // gain of the deviation
+    private static final int K = 4;
+
+    private final int initial, min, max; // ms
+    private double srtt;   // ms, negative until the first sample
+    private double rttvar; // ms
+    private int backoff = 1;
+
+    public RttEstimator(int initial, int min, int max) {
+        this.initial = initial;
+        this.min = min;
+        this.max = max;
+        this.srtt = -1;
+    }
+
+    // a reply came back after the given time
+    public void sample(long nanos) {
+        double rtt = nanos / 1e6;
+        backoff = 1;
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+        }
+    }
+
+    // we waited for the timeout and the peer did not answer
+    public void backOff() {
+        if ((long) base() * backoff < max)
+            backoff *= 2;
+    }
+
+    // how long to wait for the peer, ms
+    public int timeout() {
+        if (backoff == 1)
+            return base();
+        return (int) Math.min(Math.max(max, base()), (long) base() * backoff);
+    }
+
+    private int base() {
+        if (srtt < 0)
+            return initial;
+        return (int) Math.max(min, Math.min(max, Math.ceil(srtt + K * rttvar)));
+    }
+}
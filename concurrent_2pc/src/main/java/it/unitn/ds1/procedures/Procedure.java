@@ -0,0 +1,42 @@
+package it.unitn.ds1.procedures;
+
+import java.util.List;
+
+// A stored procedure (STORED_PROCEDURES): the client sends its name and arguments instead of reading and writing
+// the keys itself. The coordinator sends the call to the servers of the keys it accesses, and each server runs it
+// on its own keys only, so a procedure must not move values read on one server to another. The coordinator runs
+// the procedures of a transaction again if the servers abort it at the vote.
+public interface Procedure {
+
+    // what a server lets the procedure do, on the keys it holds
+    interface Context {
+        boolean isLocal(int key);
+
+        int read(int key);
+
+        void write(int key, int value);
+
+        // add an amount to the value at commit, whatever it is then (see cc.Escrow)
+        void add(int key, int delta);
+    }
+
+    // the keys the call accesses
+    List<Integer> keys(List<Integer> args);
+
+    // whether the procedure only adds to the keys: then the concurrency control does not see it
+    default boolean onlyAdds() {
+        return false;
+    }
+
+    // run the part of the call on the keys of the server
+    void run(Context ctx, List<Integer> args);
+
+    static Procedure get(String name) {
+        switch (name) {
+            case "transfer":
+                return Transfer.INSTANCE;
+            default:
+                throw new IllegalArgumentException("unknown procedure " + name);
+        }
+    }
+}
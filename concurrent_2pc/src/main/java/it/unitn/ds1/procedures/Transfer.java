@@ -0,0 +1,31 @@
+package it.unitn.ds1.procedures;
+
+import java.util.List;
+
+// transfer(from, to, amount): move amount from one key to another. Both sides are deltas, so the server of from
+// votes NO (and the coordinator runs the transfer again) if the amount is not available.
+public class Transfer implements Procedure {
+    public static final Transfer INSTANCE = new Transfer();
+
+    private Transfer() {
+    }
+
+    @Override
+    public List<Integer> keys(List<Integer> args) {
+        return args.subList(0, 2);
+    }
+
+    @Override
+    public boolean onlyAdds() {
+        return true;
+    }
+
+    @Override
+    public void run(Context ctx, List<Integer> args) {
+        int from = args.get(0), to = args.get(1), amount = args.get(2);
+        if (ctx.isLocal(from))
+            ctx.add(from, -amount);
+        if (ctx.isLocal(to))
+            ctx.add(to, amount);
+    }
+}
@@ -0,0 +1,111 @@
+package it.unitn.ds1.transactions;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+
+import java.util.*;
+
+// state of one of the transactions a client is running
+public class ClientTransaction extends Transaction.ModifiableTransaction {
+    private final ActorRef coordinator;
+    // open workload: when the transaction should have started (System.nanoTime()), null otherwise
+    private final Long intendedStart;
+    private final int numOpTotal;
+    private int numOpDone;
+    private boolean accepted;
+    // we asked the coordinator to abort it, so there is no point in running it again
+    private boolean abortRequested;
+    // current operation: keys read and values returned so far
+    private List<Integer> opKeys;
+    private final Map<Integer, Integer> opValues;
+    // DECLARED_READS: the keys of the operations still to do, chosen at the beginning
+    private final Queue<List<Integer>> plannedKeys;
+    private Cancellable timeout;
+    // System.nanoTime() when the request we are waiting a reply for was sent
+    private long sentAt;
+
+    public ClientTransaction(Integer clientId, Integer numAttemptedTxn, ActorRef coordinator, int numOpTotal, Long intendedStart) {
+        super(clientId, numAttemptedTxn);
+        this.coordinator = coordinator;
+        this.numOpTotal = numOpTotal;
+        this.intendedStart = intendedStart;
+        this.numOpDone = 0;
+        this.accepted = false;
+        this.opKeys = new ArrayList<>();
+        this.opValues = new HashMap<>();
+        this.plannedKeys = new ArrayDeque<>();
+    }
+
+    public ActorRef getCoordinator() {
+        return coordinator;
+    }
+
+    public Long getIntendedStart() {
+        return intendedStart;
+    }
+
+    public int getNumOpTotal() {
+        return numOpTotal;
+    }
+
+    public int getNumOpDone() {
+        return numOpDone;
+    }
+
+    public void incrementNumOpDone() {
+        numOpDone++;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted() {
+        this.accepted = true;
+    }
+
+    public boolean isAbortRequested() {
+        return abortRequested;
+    }
+
+    public void setAbortRequested() {
+        this.abortRequested = true;
+    }
+
+    public List<Integer> getOpKeys() {
+        return opKeys;
+    }
+
+    public void setOpKeys(List<Integer> opKeys) {
+        this.opKeys = opKeys;
+        this.opValues.clear();
+    }
+
+    public Map<Integer, Integer> getOpValues() {
+        return opValues;
+    }
+
+    public Queue<List<Integer>> getPlannedKeys() {
+        return plannedKeys;
+    }
+
+    public long getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(long sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    // replace the pending timeout (if any) with the given one
+    public void setTimeout(Cancellable timeout) {
+        unsetTimeout();
+        this.timeout = timeout;
+    }
+
+    public void unsetTimeout() {
+        if (timeout != null)
+            timeout.cancel();
+        timeout = null;
+    }
+}
@@ -2,6 +2,7 @@ package it.unitn.ds1.transactions;
 
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
+import it.unitn.ds1.messages.ClientCoordinatorMessage;
 
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -10,14 +11,133 @@ public class CoordinatorTransaction extends Transaction.ModifiableTransaction {
     private final ActorRef client;
     private final Set<ActorRef> servers;
     private final Set<ActorRef> yesVoters;
+    // COMMIT_FANOUT: the servers we asked to vote for their subtree with its levels, null if we asked all of them
+    private Map<ActorRef, Integer> voters;
     private final Map<ActorRef, Queue<Cancellable>> timeouts;
+    // reads and writes sent to each server, so that a server can wait for all of them before voting
+    private final Map<ActorRef, Integer> numActions;
+    // System.nanoTime() when the transaction began and when the vote request was sent
+    private final long beganAt;
+    private long voteRequestedAt;
+    // stored procedures called, which we can run again in a new incarnation if the client did nothing else
+    private final List<ClientCoordinatorMessage.CallMsg> calls;
+    private boolean onlyCalls;
+    // READ_CACHE: values read or written so far, which the servers would return again from the workspace,
+    // and the keys whose value they compute at each read (deltas, stored procedures)
+    private final Map<Integer, Integer> readCache;
+    private final Set<Integer> uncached;
+    // DECLARED_READS: declared keys whose value is on the way, and those among them the client already asked for;
+    // values arrived before the client asked for them, and keys the client changed before (their value is stale)
+    private final Set<Integer> prefetching;
+    private final Set<Integer> awaited;
+    private final Map<Integer, Integer> prefetched;
+    private final Set<Integer> overwritten;
 
     public CoordinatorTransaction(Integer clientId, Integer numAttemptedTxn, ActorRef client) {
-        super(clientId, numAttemptedTxn);
+        this(clientId, numAttemptedTxn, 0, client, System.nanoTime());
+    }
+
+    private CoordinatorTransaction(Integer clientId, Integer numAttemptedTxn, Integer incarnation, ActorRef client, long beganAt) {
+        super(clientId, numAttemptedTxn, incarnation);
         this.client = client;
         this.servers = new HashSet<>();
         this.yesVoters = new HashSet<>();
         timeouts = new HashMap<>();
+        numActions = new HashMap<>();
+        this.beganAt = beganAt;
+        this.calls = new ArrayList<>();
+        this.onlyCalls = true;
+        this.readCache = new HashMap<>();
+        this.uncached = new HashSet<>();
+        this.prefetching = new HashSet<>();
+        this.awaited = new HashSet<>();
+        this.prefetched = new HashMap<>();
+        this.overwritten = new HashSet<>();
+    }
+
+    // the next incarnation, for the same client and begun at the same time, to run the calls again
+    // (it aborted once more, so it gets a higher priority)
+    public CoordinatorTransaction reincarnate() {
+        CoordinatorTransaction t = new CoordinatorTransaction(getClientId(), getNumAttemptedTxn(), getIncarnation() + 1, client, beganAt);
+        t.calls.addAll(calls);
+        t.setPriority(getPriority() + 1);
+        t.setTimestamp(getTimestamp());
+        return t;
+    }
+
+    public List<ClientCoordinatorMessage.CallMsg> getCalls() {
+        return calls;
+    }
+
+    // the client read or wrote keys itself: the transaction cannot be run again without it
+    public void setInteractive() {
+        onlyCalls = false;
+    }
+
+    public boolean canReExecute() {
+        return onlyCalls && !calls.isEmpty();
+    }
+
+    // the value of the key in the workspace of its server, if we know it
+    public Integer cached(int key) {
+        return readCache.get(key);
+    }
+
+    // a server answered a read: a write forwarded after the read was sent is newer
+    public void cacheRead(int key, int value) {
+        if (!uncached.contains(key))
+            readCache.putIfAbsent(key, value);
+    }
+
+    public void cacheWrite(int key, int value) {
+        if (!uncached.contains(key))
+            readCache.put(key, value);
+    }
+
+    // the servers change the key in ways we do not see: always ask them
+    public void uncache(int key) {
+        readCache.remove(key);
+        uncached.add(key);
+    }
+
+    public void prefetch(int key) {
+        prefetching.add(key);
+    }
+
+    // the value is on the way, and still the one the client would read
+    public boolean isPrefetching(int key) {
+        return prefetching.contains(key) && !overwritten.contains(key);
+    }
+
+    // the client asked for a key we are prefetching: forward the value when it arrives
+    public void await(int key) {
+        awaited.add(key);
+    }
+
+    // a server answered a read of the key: does the client wait for the value? Always, unless we prefetched
+    // it and the client did not ask for it yet: keep it for the client's read then
+    public boolean forwardRead(int key, int value) {
+        if (!prefetching.remove(key))
+            return true;
+        // the server answers in order: this is the prefetch, the reads of the client come after it
+        if (overwritten.remove(key))
+            return false;
+        if (awaited.remove(key))
+            return true;
+        prefetched.put(key, value);
+        return false;
+    }
+
+    // the prefetched value of the key, for the first read of the client only (later ones go to the server)
+    public Integer takePrefetched(int key) {
+        return prefetched.remove(key);
+    }
+
+    // the client changes the key: its prefetched value, if any, is stale
+    public void discardPrefetched(int key) {
+        prefetched.remove(key);
+        if (prefetching.contains(key))
+            overwritten.add(key);
     }
 
     public ActorRef getClient() {
@@ -28,10 +148,43 @@ public class CoordinatorTransaction extends Transaction.ModifiableTransaction {
         return servers;
     }
 
+    public Map<ActorRef, Integer> getNumActions() {
+        return numActions;
+    }
+
+    public void countAction(ActorRef server) {
+        numActions.merge(server, 1, Integer::sum);
+    }
+
+    public Set<ActorRef> getVoters() {
+        return voters != null ? voters.keySet() : servers;
+    }
+
+    public void setVoters(Map<ActorRef, Integer> voters) {
+        this.voters = voters;
+    }
+
+    // the levels of the subtree the server votes for, 1 with flat 2PC
+    public int getLevels(ActorRef voter) {
+        return voters != null ? voters.getOrDefault(voter, 1) : 1;
+    }
+
     public Set<ActorRef> getYesVoters() {
         return yesVoters;
     }
 
+    public long getBeganAt() {
+        return beganAt;
+    }
+
+    public long getVoteRequestedAt() {
+        return voteRequestedAt;
+    }
+
+    public void setVoteRequestedAt(long voteRequestedAt) {
+        this.voteRequestedAt = voteRequestedAt;
+    }
+
     public Cancellable popOldestServerTimeout(ActorRef server) {
         return timeouts.get(server).remove();
     }
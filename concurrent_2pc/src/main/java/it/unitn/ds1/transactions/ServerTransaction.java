@@ -2,18 +2,36 @@ package it.unitn.ds1.transactions;
 
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
+import it.unitn.ds1.messages.CoordinatorServerMessage;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ServerTransaction extends Transaction.ModifiableTransaction {
 
     private final Workspace workspace;
+    // amounts added to (or taken from, if negative) keys by delta operations, applied at commit
+    private final Map<Integer, Integer> deltas = new HashMap<>();
     private ActorRef coordinator;
     private List<ActorRef> servers;
     private Cancellable timeout;
+    // the peer the decision comes from (the coordinator, or with COMMIT_FANOUT the parent)
+    private ActorRef waitingFor;
+    // System.nanoTime() when the keys were locked, 0 if not locked
+    private long lockedAt;
+    // System.nanoTime() when we voted, and the peer we timed out waiting for with its epoch then (null if we did not)
+    private long votedAt;
+    private ActorRef timedOutOn;
+    private int timedOutEpoch;
+    // reads and writes received, and the vote request waiting for the ones still in the mailbox
+    private int numActions;
+    private CoordinatorServerMessage.VoteRequest deferredVote;
 
-    public ServerTransaction(Integer clientId, Integer numAttemptedTxn, ActorRef coordinator) {
-        super(clientId, numAttemptedTxn);
+    public ServerTransaction(Transaction transaction, ActorRef coordinator) {
+        super(transaction.getClientId(), transaction.getNumAttemptedTxn(), transaction.getIncarnation());
+        setPriority(transaction.getPriority());
+        setTimestamp(transaction.getTimestamp());
         this.workspace = new Workspace();
         this.coordinator = coordinator;
         this.servers = null;
@@ -23,6 +41,10 @@ public class ServerTransaction extends Transaction.ModifiableTransaction {
         return workspace;
     }
 
+    public Map<Integer, Integer> getDeltas() {
+        return deltas;
+    }
+
     public ActorRef getCoordinator() {
         return coordinator;
     }
@@ -46,4 +68,58 @@ public class ServerTransaction extends Transaction.ModifiableTransaction {
     public void setTimeout(Cancellable timeout) {
         this.timeout = timeout;
     }
+
+    public int getNumActions() {
+        return numActions;
+    }
+
+    public void countAction() {
+        numActions++;
+    }
+
+    public CoordinatorServerMessage.VoteRequest getDeferredVote() {
+        return deferredVote;
+    }
+
+    public void setDeferredVote(CoordinatorServerMessage.VoteRequest deferredVote) {
+        this.deferredVote = deferredVote;
+    }
+
+    public long getVotedAt() {
+        return votedAt;
+    }
+
+    public void setVotedAt(long votedAt) {
+        this.votedAt = votedAt;
+    }
+
+    public ActorRef getWaitingFor() {
+        return waitingFor;
+    }
+
+    public void setWaitingFor(ActorRef waitingFor) {
+        this.waitingFor = waitingFor;
+    }
+
+    public boolean isTimedOut() {
+        return timedOutOn != null;
+    }
+
+    public void setTimedOut(ActorRef peer, int epoch) {
+        this.timedOutOn = peer;
+        this.timedOutEpoch = epoch;
+    }
+
+    // the peer we timed out on answered, and did not crash meanwhile: it was only slow
+    public boolean isSpuriousTimeout(ActorRef peer, int epoch) {
+        return peer.equals(timedOutOn) && epoch == timedOutEpoch;
+    }
+
+    public long getLockedAt() {
+        return lockedAt;
+    }
+
+    public void setLockedAt(long lockedAt) {
+        this.lockedAt = lockedAt;
+    }
 }
@@ -7,9 +7,21 @@ import java.util.Map;
 public abstract class Transaction implements Cloneable {
 
     private final Map.Entry<Integer, Integer> txnId;
+    // a coordinator re-executing the stored procedures of an aborted transaction runs them as a new
+    // incarnation of it, which the servers see as a different transaction
+    private final Integer incarnation;
+    // times the client saw it abort before this attempt (RETRY_ABORTED): not part of the identity
+    protected int priority;
+    // wall clock time at which the coordinator began it (orders the commit dependencies): not part of the identity
+    protected long timestamp;
 
     public Transaction(Integer clientId, Integer numAttemptedTxn) {
+        this(clientId, numAttemptedTxn, 0);
+    }
+
+    public Transaction(Integer clientId, Integer numAttemptedTxn, Integer incarnation) {
         this.txnId = new AbstractMap.SimpleEntry<>(clientId, numAttemptedTxn);
+        this.incarnation = incarnation;
     }
 
     public Integer getClientId() {
@@ -20,6 +32,18 @@ public abstract class Transaction implements Cloneable {
         return txnId.getValue();
     }
 
+    public Integer getIncarnation() {
+        return incarnation;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
     public enum State {INIT, READY, DECIDED}
 
     @Override
@@ -27,12 +51,12 @@ public abstract class Transaction implements Cloneable {
         if (this == o) return true;
         if (o == null) return false;
         Transaction that = (Transaction) o;
-        return txnId.equals(that.txnId);
+        return txnId.equals(that.txnId) && incarnation.equals(that.incarnation);
     }
 
     @Override
     public int hashCode() {
-        return txnId.hashCode();
+        return 31 * txnId.hashCode() + incarnation;
     }
 
 
@@ -48,8 +72,10 @@ public abstract class Transaction implements Cloneable {
         private final State state;
 
         public UnmodifiableTransaction(Transaction t) {
-            super(t.getClientId(), t.getNumAttemptedTxn());
+            super(t.getClientId(), t.getNumAttemptedTxn(), t.getIncarnation());
             this.state = t.getState();
+            this.priority = t.getPriority();
+            this.timestamp = t.getTimestamp();
         }
 
         @Override
@@ -62,7 +88,11 @@ public abstract class Transaction implements Cloneable {
         protected State state;
 
         public ModifiableTransaction(Integer clientId, Integer numAttemptedTxn) {
-            super(clientId, numAttemptedTxn);
+            this(clientId, numAttemptedTxn, 0);
+        }
+
+        public ModifiableTransaction(Integer clientId, Integer numAttemptedTxn, Integer incarnation) {
+            super(clientId, numAttemptedTxn, incarnation);
             this.state = State.INIT;
         }
         @Override
@@ -72,6 +102,12 @@ public abstract class Transaction implements Cloneable {
         public void setState(State state) {
             this.state = state;
         }
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+        public void setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+        }
     }
 
 }
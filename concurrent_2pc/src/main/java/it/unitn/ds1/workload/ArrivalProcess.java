@@ -0,0 +1,24 @@
+package it.unitn.ds1.workload;
+
+import it.unitn.ds1.Config;
+
+import java.util.Random;
+
+// time between the arrivals of two transactions of the open-loop generator
+public interface ArrivalProcess {
+
+    long nextInterArrivalNanos(Random r);
+
+    static ArrivalProcess create(Config config) {
+        double meanNanos = 1e9 / config.arrivalRate;
+        switch (config.arrivalProcess) {
+            case "constant":
+                return r -> (long) meanNanos;
+            case "poisson":
+                // exponentially distributed inter-arrival times
+                return r -> (long) (-Math.log(1 - r.nextDouble()) * meanNanos);
+            default:
+                throw new IllegalArgumentException("unknown arrival process " + config.arrivalProcess);
+        }
+    }
+}
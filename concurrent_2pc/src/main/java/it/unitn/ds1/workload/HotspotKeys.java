@@ -0,0 +1,24 @@
+package it.unitn.ds1.workload;
+
+import java.util.Random;
+
+// a fraction of the operations (hotProbability) goes to the first hotFraction of the keys,
+// i.e. to the first servers; the rest is uniform over the cold keys
+public class HotspotKeys implements KeyChooser {
+    private final int nKeys;
+    private final int nHot;
+    private final double hotProbability;
+
+    public HotspotKeys(int nKeys, double hotFraction, double hotProbability) {
+        this.nKeys = nKeys;
+        this.nHot = Math.max(1, Math.min(nKeys, (int) (nKeys * hotFraction)));
+        this.hotProbability = hotProbability;
+    }
+
+    @Override
+    public int next(Random r) {
+        if (nHot == nKeys || r.nextDouble() < hotProbability)
+            return r.nextInt(nHot);
+        return nHot + r.nextInt(nKeys - nHot);
+    }
+}
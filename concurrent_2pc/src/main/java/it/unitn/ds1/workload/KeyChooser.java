@@ -0,0 +1,32 @@
+package it.unitn.ds1.workload;
+
+import it.unitn.ds1.Config;
+
+import java.util.Random;
+
+// chooses the keys accessed by the clients, according to KEY_DISTRIBUTION
+public interface KeyChooser {
+
+    // a key in [0, maxKey]
+    int next(Random r);
+
+    // called when the client writes a key (used by the "latest" distribution)
+    default void onWrite(int key) {
+    }
+
+    static KeyChooser create(Config config) {
+        int nKeys = config.maxKey + 1;
+        switch (config.keyDistribution) {
+            case "uniform":
+                return r -> r.nextInt(nKeys);
+            case "zipfian":
+                return new ZipfianKeys(nKeys, config.zipfTheta);
+            case "hotspot":
+                return new HotspotKeys(nKeys, config.hotspotFraction, config.hotspotProbability);
+            case "latest":
+                return new LatestKeys(nKeys, config.zipfTheta);
+            default:
+                throw new IllegalArgumentException("unknown key distribution " + config.keyDistribution);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package it.unitn.ds1.workload;
+
+import java.util.Random;
+
+// the keys written most recently are the most popular: Zipfian distance behind the last written key
+public class LatestKeys implements KeyChooser {
+    private final int nKeys;
+    private final ZipfianKeys distance;
+    private int latest;
+
+    public LatestKeys(int nKeys, double theta) {
+        this.nKeys = nKeys;
+        this.distance = new ZipfianKeys(nKeys, theta);
+        this.latest = 0;
+    }
+
+    @Override
+    public int next(Random r) {
+        return Math.floorMod(latest - distance.nextRank(r), nKeys);
+    }
+
+    @Override
+    public void onWrite(int key) {
+        latest = key;
+    }
+}
@@ -0,0 +1,56 @@
+package it.unitn.ds1.workload;
+
+import java.util.Random;
+
+// Zipfian popularity (Gray et al., as in YCSB): rank i is chosen with probability proportional to 1 / i^theta.
+// Ranks are scattered over the key space, so that the hottest keys do not all belong to the same server.
+public class ZipfianKeys implements KeyChooser {
+    private final int nKeys;
+    private final double theta;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+    private final int stride;
+
+    public ZipfianKeys(int nKeys, double theta) {
+        if (theta <= 0 || theta >= 1)
+            throw new IllegalArgumentException("ZIPF_THETA must be in (0, 1)");
+        this.nKeys = nKeys;
+        this.theta = theta;
+        this.zetan = zeta(nKeys, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2.0 / nKeys, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        // any stride coprime with nKeys makes rank -> rank * stride % nKeys a permutation
+        int s = nKeys / 2 + 1;
+        while (gcd(s, nKeys) != 1)
+            s++;
+        this.stride = s;
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++)
+            sum += 1 / Math.pow(i, theta);
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    // 0 is the most popular rank
+    int nextRank(Random r) {
+        double u = r.nextDouble();
+        double uz = u * zetan;
+        if (uz < 1)
+            return 0;
+        if (uz < 1 + Math.pow(0.5, theta))
+            return 1;
+        return Math.min(nKeys - 1, (int) (nKeys * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    @Override
+    public int next(Random r) {
+        return (int) ((long) nextRank(r) * stride % nKeys);
+    }
+}
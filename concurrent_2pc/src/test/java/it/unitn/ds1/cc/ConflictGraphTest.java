@@ -0,0 +1,83 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static it.unitn.ds1.cc.TestTransactions.*;
+import static org.junit.Assert.*;
+
+public class ConflictGraphTest {
+    private final Map<Integer, Resource> database = database(10);
+
+    // with occ a prepared reader holds the key: the second reader would vote NO, so they conflict
+    @Test
+    public void readersConflictWithOptimistic() {
+        ConcurrencyControl cc = new Optimistic(database, new Metrics());
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0), c = transaction(2, 0);
+        read(cc, database, a, 1);
+        read(cc, database, a, 2);
+        read(cc, database, b, 1);
+        read(cc, database, c, 2);
+        // a conflicts with both, b and c with a only: the independent set is {b, c}
+        assertEquals(Arrays.asList(b, c, a), ConflictGraph.validationOrder(Arrays.asList(a, b, c), cc));
+    }
+
+    // with tictoc prepared transactions hold only what they write: readers do not conflict
+    @Test
+    public void readersDoNotConflictWithTicToc() {
+        ConcurrencyControl cc = new TicToc(database, new Metrics());
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        read(cc, database, a, 1);
+        read(cc, database, b, 1);
+        assertEquals(Arrays.asList(a, b), ConflictGraph.validationOrder(Arrays.asList(a, b), cc));
+    }
+
+    @Test
+    public void aWriterConflictsWithAReader() {
+        ConcurrencyControl cc = new TicToc(database, new Metrics());
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0), c = transaction(2, 0);
+        write(cc, database, a, 1, 50);
+        write(cc, database, a, 2, 50);
+        read(cc, database, b, 1);
+        read(cc, database, c, 2);
+        assertEquals(Arrays.asList(b, c, a), ConflictGraph.validationOrder(Arrays.asList(a, b, c), cc));
+    }
+
+    // the set validated first has no conflicts in it, so none of its members makes another vote NO
+    @Test
+    public void theSetValidatedFirstCommits() {
+        Optimistic cc = new Optimistic(database, new Metrics());
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0), c = transaction(2, 0), d = transaction(3, 0);
+        read(cc, database, a, 1);
+        write(cc, database, a, 2, 50);
+        read(cc, database, b, 2);
+        read(cc, database, c, 3);
+        read(cc, database, d, 1);
+        read(cc, database, d, 3);
+        List<ServerTransaction> order = ConflictGraph.validationOrder(Arrays.asList(a, b, c, d), cc);
+        assertEquals(4, order.size());
+        // b conflicts with a only, c with d only: the greedy set is {b, c}, then a and d vote NO
+        assertEquals(Arrays.asList(b, c, a, d), order);
+        assertTrue(prepare(cc, order.get(0)));
+        assertTrue(prepare(cc, order.get(1)));
+    }
+
+    // the transactions which aborted most times come first
+    @Test
+    public void priorityComesBeforeDegree() {
+        ConcurrencyControl cc = new Optimistic(database, new Metrics());
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0), c = transaction(2, 0);
+        read(cc, database, a, 1);
+        read(cc, database, a, 2);
+        read(cc, database, b, 1);
+        read(cc, database, c, 2);
+        a.setPriority(1);
+        assertEquals(Arrays.asList(a, b, c), ConflictGraph.validationOrder(Arrays.asList(a, b, c), cc));
+    }
+}
@@ -0,0 +1,67 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static it.unitn.ds1.cc.TestTransactions.*;
+import static org.junit.Assert.*;
+
+public class OptimisticTest {
+    private Map<Integer, Resource> database;
+    private Metrics metrics;
+    private Optimistic cc;
+
+    @Before
+    public void setUp() {
+        database = database(10);
+        metrics = new Metrics();
+        cc = new Optimistic(database, metrics);
+    }
+
+    @Test
+    public void readsAndWritesNeverWait() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        assertEquals(ConcurrencyControl.Access.OK, write(cc, database, a, 1, 50));
+        assertEquals(ConcurrencyControl.Access.OK, write(cc, database, b, 1, 60));
+    }
+
+    @Test
+    public void aChangedVersionFailsTheValidation() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        read(cc, database, a, 1);
+        write(cc, database, b, 1, 60);
+        assertTrue(prepare(cc, b));
+        commit(cc, database, b);
+        assertFalse(cc.validate(a));
+        assertEquals(1, metrics.snapshot().counter(Metrics.Counter.VALIDATION_VERSION));
+    }
+
+    // a prepared transaction holds the keys it only read too: read/read overlaps conflict
+    @Test
+    public void aPreparedReaderHoldsTheKey() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        read(cc, database, a, 1);
+        read(cc, database, b, 1);
+        assertTrue(prepare(cc, a));
+        assertTrue(cc.lockedKeys(a).contains(1));
+        assertFalse(cc.validate(b));
+        assertEquals(1, metrics.snapshot().counter(Metrics.Counter.VALIDATION_LOCKED));
+        assertSame(a, cc.preparedHolder(1));
+    }
+
+    @Test
+    public void theReleaseFreesTheKeys() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        read(cc, database, a, 1);
+        read(cc, database, b, 1);
+        assertTrue(prepare(cc, a));
+        cc.release(a);
+        assertNull(cc.preparedHolder(1));
+        assertTrue(cc.validate(b));
+    }
+}
@@ -0,0 +1,61 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Transactions run on a concurrency control the way a server runs them, without the actors.
+class TestTransactions {
+
+    static Map<Integer, Resource> database(int keys) {
+        Map<Integer, Resource> database = new HashMap<>();
+        for (int key = 0; key < keys; key++)
+            database.put(key, new Resource(100, 0));
+        return database;
+    }
+
+    static ServerTransaction transaction(int clientId, int numAttemptedTxn) {
+        return new ServerTransaction(new Transaction.ModifiableTransaction(clientId, numAttemptedTxn), null);
+    }
+
+    // the workspace as the server fills it, after the access (whatever it returned)
+    static ConcurrencyControl.Access read(ConcurrencyControl cc, Map<Integer, Resource> database, ServerTransaction t, int key) {
+        ConcurrencyControl.Access access = cc.access(t, key, false);
+        t.getWorkspace().putIfAbsent(key, new WorkspaceResource(database.get(key), false));
+        return access;
+    }
+
+    static ConcurrencyControl.Access write(ConcurrencyControl cc, Map<Integer, Resource> database, ServerTransaction t, int key, int value) {
+        ConcurrencyControl.Access access = cc.access(t, key, true);
+        t.getWorkspace().putIfAbsent(key, new WorkspaceResource(database.get(key), false));
+        t.getWorkspace().get(key).setValue(value);
+        t.getWorkspace().get(key).setChanged(true);
+        return access;
+    }
+
+    // vote YES and hold the keys, as the server does before its vote
+    static boolean prepare(ConcurrencyControl cc, ServerTransaction t) {
+        if (!cc.validate(t))
+            return false;
+        cc.hold(t);
+        t.setState(Transaction.State.READY);
+        return true;
+    }
+
+    // write the workspace to the database and release the keys, as the server does on COMMIT
+    static void commit(ConcurrencyControl cc, Map<Integer, Resource> database, ServerTransaction t) {
+        for (Map.Entry<Integer, WorkspaceResource> entry : t.getWorkspace().entrySet()) {
+            if (entry.getValue().getChanged()) {
+                database.get(entry.getKey()).setValue(entry.getValue().getValue());
+                database.get(entry.getKey()).setVersion(entry.getValue().getVersion() + 1);
+            }
+        }
+        t.setState(Transaction.State.DECIDED);
+        cc.committed(t);
+        cc.release(t);
+    }
+}
@@ -0,0 +1,86 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static it.unitn.ds1.cc.TestTransactions.*;
+import static org.junit.Assert.*;
+
+public class TicTocTest {
+    private Map<Integer, Resource> database;
+    private Metrics metrics;
+    private TicToc cc;
+
+    @Before
+    public void setUp() {
+        database = database(10);
+        metrics = new Metrics();
+        cc = new TicToc(database, metrics);
+    }
+
+    // a write goes after the last read of the version it replaces
+    @Test
+    public void aWriteCommitsAfterTheReadsOfTheVersion() {
+        ServerTransaction reader = transaction(0, 0), writer = transaction(1, 0);
+        read(cc, database, reader, 1);
+        write(cc, database, reader, 2, 50);
+        assertTrue(prepare(cc, reader));
+        assertEquals(Long.valueOf(1), cc.commitTimestamp(reader));
+        commit(cc, database, reader);
+
+        // the reader extended the version of key 1 it read up to its timestamp
+        write(cc, database, writer, 1, 60);
+        assertTrue(prepare(cc, writer));
+        assertEquals(Long.valueOf(2), cc.commitTimestamp(writer));
+    }
+
+    // a read-only transaction commits before a write of what it read, which backward validation would refuse
+    @Test
+    public void aReadOverwrittenSinceCanStillCommitBefore() {
+        ServerTransaction reader = transaction(0, 0), writer = transaction(1, 0);
+        read(cc, database, reader, 1);
+        write(cc, database, writer, 1, 60);
+        assertTrue(prepare(cc, writer));
+        commit(cc, database, writer);
+
+        assertTrue(prepare(cc, reader));
+        assertEquals(Long.valueOf(0), cc.commitTimestamp(reader));
+        assertFalse(cc.readsStayCurrent());
+    }
+
+    // the same read cannot be extended past the overwrite when the reader writes too
+    @Test
+    public void aReadOverwrittenBeforeTheCommitTimestampFails() {
+        ServerTransaction reader = transaction(0, 0), writer = transaction(1, 0);
+        read(cc, database, reader, 1);
+        write(cc, database, reader, 2, 50);
+        write(cc, database, writer, 1, 60);
+        assertTrue(prepare(cc, writer));
+        commit(cc, database, writer);
+
+        assertFalse(cc.validate(reader));
+        assertEquals(1, metrics.snapshot().counter(Metrics.Counter.VALIDATION_VERSION));
+    }
+
+    // prepared transactions hold only the keys they write
+    @Test
+    public void onlyWrittenKeysAreLocked() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0), c = transaction(2, 0);
+        read(cc, database, a, 1);
+        write(cc, database, a, 2, 50);
+        assertTrue(prepare(cc, a));
+        assertFalse(cc.lockedKeys(a).contains(1));
+        assertTrue(cc.lockedKeys(a).contains(2));
+
+        write(cc, database, b, 1, 60);
+        assertTrue(cc.validate(b));
+        write(cc, database, c, 2, 60);
+        assertFalse(cc.validate(c));
+        assertEquals(1, metrics.snapshot().counter(Metrics.Counter.VALIDATION_LOCKED));
+    }
+}
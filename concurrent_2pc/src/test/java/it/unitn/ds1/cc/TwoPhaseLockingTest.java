@@ -0,0 +1,119 @@
+package it.unitn.ds1.cc;
+
+import it.unitn.ds1.metrics.Metrics;
+import it.unitn.ds1.resources.Resource;
+import it.unitn.ds1.resources.WorkspaceResource;
+import it.unitn.ds1.transactions.ServerTransaction;
+import it.unitn.ds1.transactions.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static it.unitn.ds1.cc.TestTransactions.*;
+import static org.junit.Assert.*;
+
+public class TwoPhaseLockingTest {
+    private Map<Integer, Resource> database;
+    private Metrics metrics;
+    private TwoPhaseLocking cc;
+
+    @Before
+    public void setUp() {
+        database = database(10);
+        metrics = new Metrics();
+        cc = new TwoPhaseLocking(metrics);
+    }
+
+    @Test
+    public void readersShareTheLock() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        assertEquals(ConcurrencyControl.Access.OK, read(cc, database, a, 1));
+        assertEquals(ConcurrencyControl.Access.OK, read(cc, database, b, 1));
+        assertEquals(0, metrics.snapshot().counter(Metrics.Counter.LOCK_WAIT));
+    }
+
+    @Test
+    public void aWriterWaitsForTheReaderAndGoesOnAtTheRelease() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        read(cc, database, a, 1);
+        assertEquals(ConcurrencyControl.Access.WAIT, write(cc, database, b, 1, 50));
+        assertEquals(1, metrics.snapshot().counter(Metrics.Counter.LOCK_WAIT));
+        assertEquals(Collections.singletonList(b), cc.release(a));
+        // b holds the lock now: a reader waits for it
+        assertEquals(ConcurrencyControl.Access.WAIT, read(cc, database, transaction(2, 0), 1));
+    }
+
+    @Test
+    public void aReaderWaitsForTheWriter() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        write(cc, database, a, 1, 50);
+        assertEquals(ConcurrencyControl.Access.WAIT, read(cc, database, b, 1));
+    }
+
+    @Test
+    public void theOnlyReaderUpgradesItsLock() {
+        ServerTransaction a = transaction(0, 0);
+        read(cc, database, a, 1);
+        assertEquals(ConcurrencyControl.Access.OK, write(cc, database, a, 1, 50));
+    }
+
+    // a holds 1 and waits for 2, b holds 2: b waiting for 1 would close the cycle
+    @Test
+    public void aWaitClosingACycleAborts() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0);
+        write(cc, database, a, 1, 50);
+        write(cc, database, b, 2, 50);
+        assertEquals(ConcurrencyControl.Access.WAIT, write(cc, database, a, 2, 60));
+        assertEquals(ConcurrencyControl.Access.ABORT, write(cc, database, b, 1, 60));
+        assertEquals(1, metrics.snapshot().counter(Metrics.Counter.DEADLOCK));
+    }
+
+    // the cycle goes through a transaction queued before the one that would close it
+    @Test
+    public void aLongerCycleAborts() {
+        ServerTransaction a = transaction(0, 0), b = transaction(1, 0), c = transaction(2, 0);
+        write(cc, database, a, 1, 50);
+        write(cc, database, b, 2, 50);
+        write(cc, database, c, 3, 50);
+        assertEquals(ConcurrencyControl.Access.WAIT, write(cc, database, a, 2, 60));
+        assertEquals(ConcurrencyControl.Access.WAIT, write(cc, database, b, 3, 60));
+        assertEquals(ConcurrencyControl.Access.ABORT, read(cc, database, c, 1));
+    }
+
+    // an adopted prepared transaction takes the lock of a holder which did not vote: the holder aborts
+    @Test
+    public void anAdoptedTransactionPreemptsAnUnpreparedHolder() {
+        ServerTransaction local = transaction(0, 0), shadow = transaction(1, 0);
+        write(cc, database, local, 1, 50);
+        adopt(shadow, 1, 60);
+        List<Transaction> preempted = cc.hold(shadow);
+        assertEquals(Collections.singletonList(local), preempted);
+        // the server aborts the preempted holder: the lock stays with the shadow
+        assertTrue(cc.release(local).isEmpty());
+        assertEquals(ConcurrencyControl.Access.WAIT, read(cc, database, transaction(2, 0), 1));
+    }
+
+    // behind a prepared holder the adopted transaction queues first, ahead of the waiting ones
+    @Test
+    public void anAdoptedTransactionQueuesBehindAPreparedHolder() {
+        ServerTransaction local = transaction(0, 0), waiting = transaction(2, 0), shadow = transaction(1, 0);
+        write(cc, database, local, 1, 50);
+        assertTrue(prepare(cc, local));
+        assertEquals(ConcurrencyControl.Access.WAIT, read(cc, database, waiting, 1));
+        adopt(shadow, 1, 60);
+        assertTrue(cc.hold(shadow).isEmpty());
+        assertEquals(Collections.singletonList(shadow), cc.release(local));
+        // the shadow releases the lock on its decision, the one waiting goes on
+        assertEquals(Collections.singletonList(waiting), cc.release(shadow));
+    }
+
+    private void adopt(ServerTransaction shadow, int key, int value) {
+        WorkspaceResource written = new WorkspaceResource(database.get(key), true);
+        written.setValue(value);
+        shadow.getWorkspace().put(key, written);
+        shadow.setState(Transaction.State.READY);
+    }
+}
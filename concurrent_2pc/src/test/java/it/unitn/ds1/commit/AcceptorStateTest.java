@@ -0,0 +1,60 @@
+package it.unitn.ds1.commit;
+
+import org.junit.Test;
+
+import static it.unitn.ds1.messages.CoordinatorServerMessage.Decision.ABORT;
+import static it.unitn.ds1.messages.CoordinatorServerMessage.Decision.COMMIT;
+import static org.junit.Assert.*;
+
+public class AcceptorStateTest {
+
+    @Test
+    public void ballotsOrderByRoundThenProposer() {
+        assertTrue(new Ballot(1, 0).compareTo(new Ballot(0, 5)) > 0);
+        assertTrue(new Ballot(1, 2).compareTo(new Ballot(1, 1)) > 0);
+        assertEquals(0, new Ballot(1, 1).compareTo(new Ballot(1, 1)));
+        assertTrue(Ballot.first(3).next(0).compareTo(Ballot.first(3)) > 0);
+    }
+
+    @Test
+    public void aPromiseRefusesLowerBallots() {
+        AcceptorState a = new AcceptorState();
+        assertTrue(a.prepare(new Ballot(2, 0)));
+        assertFalse(a.prepare(new Ballot(1, 5)));
+        assertFalse(a.accept(new Ballot(1, 5), COMMIT));
+        assertNull(a.getAccepted());
+        assertEquals(new Ballot(2, 0), a.getPromised());
+    }
+
+    // the same ballot can be prepared again (a lost promise) and accepted after its prepare
+    @Test
+    public void thePromisedBallotIsAccepted() {
+        AcceptorState a = new AcceptorState();
+        assertTrue(a.prepare(new Ballot(2, 0)));
+        assertTrue(a.prepare(new Ballot(2, 0)));
+        assertTrue(a.accept(new Ballot(2, 0), ABORT));
+        assertEquals(ABORT, a.getAccepted());
+        assertEquals(new Ballot(2, 0), a.getAcceptedBallot());
+    }
+
+    // round 0 skips the prepare phase: the accept is a promise too
+    @Test
+    public void anAcceptWithoutPrepareIsAPromise() {
+        AcceptorState a = new AcceptorState();
+        assertTrue(a.accept(Ballot.first(0), COMMIT));
+        assertFalse(a.prepare(new Ballot(0, -1)));
+        assertEquals(Ballot.first(0), a.getPromised());
+    }
+
+    // a higher ballot may replace the accepted decision, a lower one may not
+    @Test
+    public void onlyHigherBallotsChangeTheAcceptedDecision() {
+        AcceptorState a = new AcceptorState();
+        assertTrue(a.accept(new Ballot(1, 0), COMMIT));
+        assertFalse(a.accept(new Ballot(0, 3), ABORT));
+        assertEquals(COMMIT, a.getAccepted());
+        assertTrue(a.accept(new Ballot(2, 1), ABORT));
+        assertEquals(ABORT, a.getAccepted());
+        assertEquals(new Ballot(2, 1), a.getAcceptedBallot());
+    }
+}
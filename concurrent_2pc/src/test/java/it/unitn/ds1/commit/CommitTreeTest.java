@@ -0,0 +1,109 @@
+package it.unitn.ds1.commit;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CommitTreeTest {
+    private static final int MAX_SERVERS = 20;
+    private static final int MAX_FANOUT = 5;
+
+    private static ActorSystem system;
+    private static List<ActorRef> servers;
+
+    @BeforeClass
+    public static void setUp() {
+        system = ActorSystem.create("CommitTreeTest");
+        servers = new ArrayList<>();
+        for (int i = 0; i < MAX_SERVERS; i++)
+            servers.add(new TestKit(system).getRef());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    // every participant is in exactly one group, as its first server or below it, in at most fanout groups
+    // of sizes differing by one at most
+    @Test
+    public void splitCoversEveryServerOnce() {
+        for (int n = 0; n <= MAX_SERVERS; n++) {
+            for (int fanout = 1; fanout <= MAX_FANOUT; fanout++) {
+                List<ActorRef> participants = servers.subList(0, n);
+                Map<ActorRef, List<ActorRef>> groups = CommitTree.split(participants, fanout);
+                assertEquals(Math.min(n, fanout), groups.size());
+                List<ActorRef> covered = new ArrayList<>();
+                int min = Integer.MAX_VALUE, max = 0;
+                for (Map.Entry<ActorRef, List<ActorRef>> group : groups.entrySet()) {
+                    covered.add(group.getKey());
+                    covered.addAll(group.getValue());
+                    min = Math.min(min, group.getValue().size() + 1);
+                    max = Math.max(max, group.getValue().size() + 1);
+                }
+                assertEquals(n, covered.size());
+                assertEquals(new HashSet<>(participants), new HashSet<>(covered));
+                if (n > 0)
+                    assertTrue(max - min <= 1);
+            }
+        }
+    }
+
+    // each server splits the servers below it again: the whole tree still has every participant once,
+    // and is as deep as levels says
+    @Test
+    public void theTreeCoversEveryServerOnceInLevels() {
+        for (int n = 1; n <= MAX_SERVERS; n++) {
+            for (int fanout = 1; fanout <= MAX_FANOUT; fanout++) {
+                List<ActorRef> covered = new ArrayList<>();
+                int depth = 0;
+                for (Map.Entry<ActorRef, List<ActorRef>> group : CommitTree.split(servers.subList(0, n), fanout).entrySet()) {
+                    int levels = visit(group.getKey(), group.getValue(), fanout, covered);
+                    assertEquals(CommitTree.levels(group.getValue().size(), fanout), levels);
+                    depth = Math.max(depth, levels);
+                }
+                assertEquals(n, covered.size());
+                assertEquals(new HashSet<>(servers.subList(0, n)), new HashSet<>(covered));
+                assertTrue(depth <= n);
+            }
+        }
+    }
+
+    @Test
+    public void levelsOfSmallSubtrees() {
+        assertEquals(1, CommitTree.levels(0, 3));
+        assertEquals(2, CommitTree.levels(1, 3));
+        assertEquals(2, CommitTree.levels(3, 3));
+        assertEquals(3, CommitTree.levels(4, 3));
+        // a fanout of 1 makes a chain
+        assertEquals(5, CommitTree.levels(4, 1));
+    }
+
+    @Test
+    public void restrictKeepsTheActionsOfTheSubtree() {
+        ActorRef head = servers.get(0), below = servers.get(1), other = servers.get(2);
+        Map<ActorRef, Integer> numActions = new HashMap<>();
+        numActions.put(head, 2);
+        numActions.put(other, 3);
+        Map<ActorRef, Integer> restricted = CommitTree.restrict(numActions, head, Collections.singletonList(below));
+        assertEquals(2, restricted.size());
+        assertEquals(Integer.valueOf(2), restricted.get(head));
+        assertEquals(Integer.valueOf(0), restricted.get(below));
+    }
+
+    // the servers of the subtree as the server receiving the vote request sees them; returns its levels
+    private static int visit(ActorRef head, List<ActorRef> below, int fanout, List<ActorRef> covered) {
+        covered.add(head);
+        int levels = 1;
+        for (Map.Entry<ActorRef, List<ActorRef>> child : CommitTree.split(below, fanout).entrySet())
+            levels = Math.max(levels, 1 + visit(child.getKey(), child.getValue(), fanout, covered));
+        return levels;
+    }
+}
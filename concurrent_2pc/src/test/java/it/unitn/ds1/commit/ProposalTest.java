@@ -0,0 +1,113 @@
+package it.unitn.ds1.commit;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import it.unitn.ds1.messages.CoordinatorServerMessage.Decision;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static it.unitn.ds1.messages.CoordinatorServerMessage.Decision.ABORT;
+import static it.unitn.ds1.messages.CoordinatorServerMessage.Decision.COMMIT;
+import static org.junit.Assert.*;
+
+public class ProposalTest {
+    private static ActorSystem system;
+    private static ActorRef a1, a2, a3;
+
+    @BeforeClass
+    public static void setUp() {
+        system = ActorSystem.create("ProposalTest");
+        a1 = new TestKit(system).getRef();
+        a2 = new TestKit(system).getRef();
+        a3 = new TestKit(system).getRef();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    @Test
+    public void aMajorityOfPromisesCompletesThePreparePhase() {
+        Proposal p = new Proposal(Ballot.first(0), ABORT, 2);
+        p.newRound(1);
+        Ballot b = p.getBallot();
+        assertFalse(p.onPromise(a1, b, null, null));
+        // the same acceptor counts once, and promises for other ballots not at all
+        assertFalse(p.onPromise(a1, b, null, null));
+        assertFalse(p.onPromise(a2, Ballot.first(0), null, null));
+        assertTrue(p.onPromise(a2, b, null, null));
+        // no acceptor accepted anything: our own decision
+        assertEquals(ABORT, p.value());
+    }
+
+    // the decision accepted with the highest ballot among the promises wins over our own
+    @Test
+    public void theHighestAcceptedDecisionIsAdopted() {
+        Proposal p = new Proposal(Ballot.first(2), ABORT, 2);
+        p.newRound(2);
+        Ballot b = p.getBallot();
+        p.onPromise(a1, b, Ballot.first(0), ABORT);
+        p.onPromise(a2, b, new Ballot(0, 1), COMMIT);
+        assertEquals(COMMIT, p.value());
+        // a lower accepted ballot arriving later does not change it
+        p.onPromise(a3, b, Ballot.first(0), ABORT);
+        assertEquals(COMMIT, p.value());
+    }
+
+    @Test
+    public void aMajorityOfAcceptancesChoosesTheDecision() {
+        Proposal p = new Proposal(Ballot.first(0), COMMIT, 2);
+        Ballot b = p.getBallot();
+        assertFalse(p.onAccepted(a1, b));
+        assertFalse(p.onAccepted(a1, b));
+        assertFalse(p.onAccepted(a2, new Ballot(1, 1)));
+        assertTrue(p.onAccepted(a2, b));
+    }
+
+    // after a nack the next round goes above the ballot the acceptor promised, and forgets the old answers
+    @Test
+    public void theNextRoundGoesAboveTheNacks() {
+        Proposal p = new Proposal(Ballot.first(0), COMMIT, 2);
+        p.onAccepted(a1, p.getBallot());
+        p.onNack(new Ballot(4, 2));
+        p.onNack(new Ballot(1, 1));
+        p.newRound(0);
+        assertTrue(p.getBallot().compareTo(new Ballot(4, 2)) > 0);
+        assertFalse(p.onAccepted(a2, p.getBallot()));
+        assertTrue(p.onAccepted(a3, p.getBallot()));
+    }
+
+    // once a majority accepted COMMIT at round 0, a backup proposing ABORT later must choose COMMIT: any
+    // majority of promises includes an acceptor which accepted it
+    @Test
+    public void aChosenDecisionStaysChosen() {
+        List<ActorRef> acceptors = Arrays.asList(a1, a2, a3);
+        AcceptorState[] states = {new AcceptorState(), new AcceptorState(), new AcceptorState()};
+        Proposal coordinator = new Proposal(Ballot.first(0), COMMIT, 2);
+        boolean chosen = false;
+        for (int i = 0; i < 2; i++)
+            if (states[i].accept(coordinator.getBallot(), coordinator.value()))
+                chosen = coordinator.onAccepted(acceptors.get(i), coordinator.getBallot());
+        assertTrue(chosen);
+
+        // the backup hears from the acceptors 1 and 2 only
+        Proposal backup = new Proposal(Ballot.first(1), ABORT, 2);
+        backup.newRound(1);
+        boolean prepared = false;
+        for (int i = 1; i < 3; i++) {
+            assertTrue(states[i].prepare(backup.getBallot()));
+            prepared = backup.onPromise(acceptors.get(i), backup.getBallot(), states[i].getAcceptedBallot(), states[i].getAccepted());
+        }
+        assertTrue(prepared);
+        assertEquals(COMMIT, backup.value());
+        // and the coordinator's ballot cannot be accepted any more where the backup's was promised
+        for (int i = 1; i < 3; i++)
+            assertFalse(states[i].accept(coordinator.getBallot(), Decision.COMMIT));
+    }
+}